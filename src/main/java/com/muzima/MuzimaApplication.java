@@ -30,9 +30,17 @@ import com.muzima.controller.PatientController;
 import com.muzima.domain.Credentials;
 import com.muzima.search.api.util.StringUtil;
 import com.muzima.service.CohortPrefixPreferenceService;
+import com.muzima.service.FormObservationQueue;
+import com.muzima.service.FormObservationService;
+import com.muzima.service.FormTemplateHashStore;
+import com.muzima.service.FormUploadOutcomeStore;
 import com.muzima.service.MuzimaSyncService;
 import com.muzima.service.SntpService;
+import com.muzima.service.SyncJournal;
+import com.muzima.service.SyncPreferenceService;
+import com.muzima.service.SyncWatermarkStore;
 import com.muzima.util.Constants;
+import com.muzima.utils.EnDeCrypt;
 import com.muzima.utils.StringUtils;
 import com.muzima.view.forms.FormWebViewActivity;
 import com.muzima.view.preferences.MuzimaTimer;
@@ -70,6 +78,9 @@ public class MuzimaApplication extends Application {
     private NotificationController notificationController;
     private MuzimaSyncService muzimaSyncService;
     private CohortPrefixPreferenceService prefixesPreferenceService;
+    private SyncPreferenceService syncPreferenceService;
+    private SyncJournal syncJournal;
+    private FormObservationQueue formObservationQueue;
     private MuzimaTimer muzimaTimer;
     public static final String APP_DIR = "/data/data/com.muzima";
     private SntpService sntpService;
@@ -124,6 +135,8 @@ public class MuzimaApplication extends Application {
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        // forms whose observations were not extracted when the process died
+        FormObservationService.resumeExtraction(this, getFormObservationQueue());
     }
 
     public Context getMuzimaContext() {
@@ -172,7 +185,16 @@ public class MuzimaApplication extends Application {
         if (formController == null) {
             try {
                 formController = new FormController(muzimaContext.getFormService(), muzimaContext.getPatientService(), muzimaContext.getLastSyncTimeService(), sntpService,
-                        muzimaContext.getObservationService());
+                        muzimaContext.getObservationService(), new FormUploadOutcomeStore(this), new FormTemplateHashStore(this));
+                formController.setFormChangeListener(new FormController.FormChangeListener() {
+                    @Override
+                    public void onFormsChanged() {
+                        NotificationController controller = notificationController;
+                        if (controller != null) {
+                            controller.invalidateNotificationIndex();
+                        }
+                    }
+                });
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -193,7 +215,7 @@ public class MuzimaApplication extends Application {
 
     public SntpService getSntpService() {
         if (sntpService == null) {
-            sntpService = new SntpService();
+            sntpService = new SntpService(getSyncPreferenceService());
         }
         return sntpService;
     }
@@ -216,7 +238,8 @@ public class MuzimaApplication extends Application {
                         muzimaContext.getService(ConceptService.class),
                         muzimaContext.getService(EncounterService.class),
                         muzimaContext.getLastSyncTimeService(),
-                        getSntpService());
+                        getSntpService(),
+                        new SyncWatermarkStore(this, SyncWatermarkStore.OBSERVATIONS));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -228,7 +251,8 @@ public class MuzimaApplication extends Application {
         if (encounterController == null) {
             try {
                 encounterController = new EncounterController(muzimaContext.getService(EncounterService.class),
-                        muzimaContext.getLastSyncTimeService(), getSntpService());
+                        muzimaContext.getLastSyncTimeService(), getSntpService(),
+                        new SyncWatermarkStore(this, SyncWatermarkStore.ENCOUNTERS));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -239,7 +263,9 @@ public class MuzimaApplication extends Application {
     public NotificationController getNotificationController() {
         if (notificationController == null) {
             try {
-                notificationController = new NotificationController(muzimaContext.getService(NotificationService.class), muzimaContext.getFormService());
+                notificationController = new NotificationController(muzimaContext.getService(NotificationService.class),
+                        muzimaContext.getFormService(), getSntpService(),
+                        new SyncWatermarkStore(this, SyncWatermarkStore.NOTIFICATIONS));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -261,6 +287,27 @@ public class MuzimaApplication extends Application {
         return prefixesPreferenceService;
     }
 
+    public SyncPreferenceService getSyncPreferenceService() {
+        if (syncPreferenceService == null) {
+            syncPreferenceService = new SyncPreferenceService(this);
+        }
+        return syncPreferenceService;
+    }
+
+    public SyncJournal getSyncJournal() {
+        if (syncJournal == null) {
+            syncJournal = new SyncJournal(this);
+        }
+        return syncJournal;
+    }
+
+    public FormObservationQueue getFormObservationQueue() {
+        if (formObservationQueue == null) {
+            formObservationQueue = new FormObservationQueue(this);
+        }
+        return formObservationQueue;
+    }
+
     public void resetTimer(int timeOutInMin) {
         muzimaTimer = muzimaTimer.resetTimer(timeOutInMin);
     }
@@ -274,6 +321,7 @@ public class MuzimaApplication extends Application {
         SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(this);
         String passwordKey = getResources().getString(R.string.preference_password);
         settings.edit().putString(passwordKey, StringUtil.EMPTY).commit();
+        EnDeCrypt.clearKeys();
     }
 
     public void cancelTimer() {
@@ -38,6 +38,8 @@ import com.muzima.adapters.ListAdapter;
 import com.muzima.api.model.Tag;
 import com.muzima.controller.FormController;
 import com.muzima.model.BaseForm;
+import com.muzima.model.FormWithData;
+import com.muzima.service.FormUploadOutcomeStore;
 import com.muzima.utils.Fonts;
 import com.muzima.utils.StringUtils;
 
@@ -90,6 +92,10 @@ public abstract class FormsAdapter<T extends BaseForm> extends ListAdapter<T> {
             if (StringUtils.isEmpty(description)) {
                 description = "No description available";
             }
+            String uploadStatus = getUploadStatus(form);
+            if (uploadStatus != null) {
+                description = uploadStatus + " - " + description;
+            }
             holder.description.setText(description);
             holder.description.setTypeface(Fonts.roboto_light(getContext()));
         }
@@ -97,6 +103,20 @@ public abstract class FormsAdapter<T extends BaseForm> extends ListAdapter<T> {
         return convertView;
     }
 
+    private static String getUploadStatus(BaseForm form) {
+        if (!(form instanceof FormWithData)) {
+            return null;
+        }
+        String uploadOutcome = ((FormWithData) form).getUploadOutcome();
+        if (FormUploadOutcomeStore.PERMANENT_FAILURE.equals(uploadOutcome)) {
+            return "Rejected by the server " + FormUploadOutcomeStore.MAX_REJECTIONS + " times, move it back to draft to correct it";
+        }
+        if (FormUploadOutcomeStore.RETRYABLE_FAILURE.equals(uploadOutcome)) {
+            return "Upload failed, will retry on the next sync";
+        }
+        return null;
+    }
+
     protected int getFormItemLayout() {
         return R.layout.item_forms_list;
     }
@@ -40,6 +40,7 @@ import com.muzima.model.FormWithData;
 import com.muzima.utils.PatientComparator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -56,6 +57,9 @@ public abstract class SectionedFormsAdapter<T extends FormWithData> extends Form
     private PatientComparator patientComparator;
     private List<String> selectedFormsUuid;
     private MuzimaClickListener muzimaClickListener;
+    private int[] sectionForPosition = new int[0];
+    private int[] positionForSection = new int[0];
+    private String[] sections = new String[0];
 
     public SectionedFormsAdapter(Context context, int textViewResourceId, FormController formController) {
         super(context, textViewResourceId, formController);
@@ -101,20 +105,12 @@ public abstract class SectionedFormsAdapter<T extends FormWithData> extends Form
 
     @Override
     public long getHeaderId(int position) {
-        int section = 0;
-        if (!patients.isEmpty()) {
-            section = patients.indexOf(getItem(position).getPatient());
-        }
-        return section;
+        return sectionAt(position);
     }
 
     @Override
     public Object[] getSections() {
-        String[] familyNames = new String[patients.size()];
-        for (int i = 0; i < patients.size(); i++) {
-            familyNames[i] = String.valueOf(patients.get(i).getFamilyName().charAt(0));
-        }
-        return familyNames;
+        return sections;
     }
 
     @Override
@@ -124,16 +120,7 @@ public abstract class SectionedFormsAdapter<T extends FormWithData> extends Form
         } else if (section < 0) {
             section = 0;
         }
-
-        int position = 0;
-        for (int i = 0; i < getCount(); i++) {
-            FormWithData item = getItem(i);
-            if (item.getPatient().equals(patients.get(section))) {
-                position = i;
-                break;
-            }
-        }
-        return position;
+        return section >= 0 && section < positionForSection.length ? positionForSection[section] : 0;
     }
 
     @Override
@@ -143,17 +130,17 @@ public abstract class SectionedFormsAdapter<T extends FormWithData> extends Form
         } else if (position < 0) {
             position = 0;
         }
+        return sectionAt(position);
+    }
 
-        int section = 0;
-        if (!patients.isEmpty()){
-            section = patients.indexOf(getItem(position).getPatient());
-        }
-        return section;
+    private int sectionAt(int position) {
+        return position >= 0 && position < sectionForPosition.length ? sectionForPosition[position] : 0;
     }
 
     public void sortFormsByPatientName(List<T> forms) {
         Collections.sort(patients, patientComparator);
         Collections.sort(forms, alphabaticalComparator);
+        buildSectionTables(forms);
         setNotifyOnChange(false);
         clear();
         addAll(forms);
@@ -162,6 +149,40 @@ public abstract class SectionedFormsAdapter<T extends FormWithData> extends Form
         adapter.notifyDataSetChanged();
     }
 
+    private void buildSectionTables(List<T> forms) {
+        sectionForPosition = new int[forms.size()];
+        positionForSection = new int[patients.size()];
+        Arrays.fill(positionForSection, -1);
+        Patient previousPatient = null;
+        int section = 0;
+        for (int position = 0; position < forms.size(); position++) {
+            Patient patient = forms.get(position).getPatient();
+            // forms are sorted by patient, so the section only has to be looked up where the patient changes
+            if (position == 0 || !isSamePatient(patient, previousPatient)) {
+                section = patients.isEmpty() ? 0 : patients.indexOf(patient);
+                previousPatient = patient;
+            }
+            sectionForPosition[position] = section;
+            if (section >= 0 && positionForSection[section] < 0) {
+                positionForSection[section] = position;
+            }
+        }
+        sections = new String[patients.size()];
+        for (int i = 0; i < patients.size(); i++) {
+            positionForSection[i] = Math.max(positionForSection[i], 0);
+            sections[i] = getSectionTitle(patients.get(i));
+        }
+    }
+
+    private static boolean isSamePatient(Patient patient, Patient otherPatient) {
+        return patient == null ? otherPatient == null : patient.equals(otherPatient);
+    }
+
+    private static String getSectionTitle(Patient patient) {
+        String familyName = patient == null ? null : patient.getFamilyName();
+        return familyName == null || familyName.length() == 0 ? "" : String.valueOf(familyName.charAt(0));
+    }
+
     List<Patient> getPatients() {
         return patients;
     }
@@ -10,6 +10,7 @@ package com.muzima.adapters.patients;
 
 import android.content.Context;
 import android.os.AsyncTask;
+import android.os.Handler;
 import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
@@ -21,6 +22,8 @@ import com.muzima.api.model.Patient;
 import com.muzima.api.model.User;
 import com.muzima.controller.NotificationController;
 import com.muzima.controller.PatientController;
+import com.muzima.controller.PatientCursor;
+import com.muzima.controller.PatientSearchEngine;
 import com.muzima.utils.Constants;
 
 import java.util.ArrayList;
@@ -29,12 +32,21 @@ import java.util.List;
 public class PatientsLocalSearchAdapter extends ListAdapter<Patient> {
     private static final String TAG = "PatientsLocalSearchAdapter";
     public static final String SEARCH = "search";
+    private static final int PAGE_SIZE = 50;
+    private static final int PREFETCH_DISTANCE = 10;
+    private static final long SEARCH_DELAY_IN_MILLIS = 300;
     private final PatientAdapterHelper patientAdapterHelper;
     private PatientController patientController;
     private final String cohortId;
     private boolean isNotificationsList;
     private Context context;
     protected BackgroundListQueryTaskListener backgroundListQueryTaskListener;
+    private PatientCursor patientCursor;
+    private boolean loadingNextPage;
+    private final PatientSearchEngine patientSearchEngine;
+    private final Handler searchHandler = new Handler();
+    private Runnable pendingSearch;
+    private BackgroundQueryTask currentQueryTask;
 
     public PatientsLocalSearchAdapter(Context context, int textViewResourceId,
                                       PatientController patientController, String cohortId, boolean isNotificationList) {
@@ -44,20 +56,54 @@ public class PatientsLocalSearchAdapter extends ListAdapter<Patient> {
         this.cohortId = cohortId;
         this.isNotificationsList = isNotificationList;
         this.patientAdapterHelper = new PatientAdapterHelper(context, textViewResourceId);
+        this.patientSearchEngine = new PatientSearchEngine(patientController, cohortId);
     }
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
+        if (position >= getCount() - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
         return patientAdapterHelper.createPatientRow(getItem(position), convertView, parent, getContext());
     }
 
     @Override
     public void reloadData() {
-        new BackgroundQueryTask().execute(cohortId);
+        patientSearchEngine.clear();
+        startQuery(cohortId);
     }
 
-    public void search(String text) {
-        new BackgroundQueryTask().execute(text, SEARCH);
+    public void search(final String text) {
+        if (pendingSearch != null) {
+            searchHandler.removeCallbacks(pendingSearch);
+        }
+        pendingSearch = new Runnable() {
+            @Override
+            public void run() {
+                pendingSearch = null;
+                if (text.length() == 0) {
+                    startQuery(cohortId);
+                } else {
+                    startQuery(text, SEARCH);
+                }
+            }
+        };
+        searchHandler.postDelayed(pendingSearch, SEARCH_DELAY_IN_MILLIS);
+    }
+
+    private void startQuery(String... params) {
+        if (currentQueryTask != null) {
+            currentQueryTask.cancel(false);
+        }
+        currentQueryTask = new BackgroundQueryTask();
+        currentQueryTask.execute(params);
+    }
+
+    private void loadNextPage() {
+        if (patientCursor != null && patientCursor.hasMore() && !loadingNextPage) {
+            loadingNextPage = true;
+            new NextPageTask(patientCursor).execute();
+        }
     }
 
     public void setBackgroundListQueryTaskListener(BackgroundListQueryTaskListener backgroundListQueryTaskListener) {
@@ -66,6 +112,7 @@ public class PatientsLocalSearchAdapter extends ListAdapter<Patient> {
 
 
     private class BackgroundQueryTask extends AsyncTask<String, Void, List<Patient>> {
+        private PatientCursor openedCursor;
 
         @Override
         protected void onPreExecute() {
@@ -77,10 +124,11 @@ public class PatientsLocalSearchAdapter extends ListAdapter<Patient> {
             List<Patient> patients = null;
             if (isSearch(params)) {
                 try {
-                    if (isNotificationsList) {
-                        return filterPatientsWithNotifications(patientController.searchPatientLocally(params[0], cohortId));
+                    List<Patient> foundPatients = patientSearchEngine.search(params[0]);
+                    if (isNotificationsList && !isCancelled()) {
+                        return filterPatientsWithNotifications(foundPatients);
                     } else {
-                        return patientController.searchPatientLocally(params[0], cohortId);
+                        return foundPatients;
                     }
                 } catch (PatientController.PatientLoadException e) {
                     Log.w(TAG, String.format("Exception occurred while searching patients for %s search string." , params[0]), e);
@@ -89,12 +137,12 @@ public class PatientsLocalSearchAdapter extends ListAdapter<Patient> {
 
             String cohortUuid = params[0];
             try {
-                if (cohortUuid != null) {
-                    patients = patientController.getPatients(cohortUuid);
-                } else if (isNotificationsList) {
+                if (cohortUuid == null && isNotificationsList) {
                     patients = filterPatientsWithNotifications(null);
                 } else {
-                    patients = patientController.getAllPatients();
+                    PatientCursor cursor = patientController.getPatientCursor(cohortUuid);
+                    patients = cursor.nextPage(PAGE_SIZE);
+                    openedCursor = cursor;
                 }
             } catch (PatientController.PatientLoadException e) {
                 Log.w(TAG, "Exception occurred while fetching patients", e);
@@ -108,10 +156,40 @@ public class PatientsLocalSearchAdapter extends ListAdapter<Patient> {
 
         @Override
         protected void onPostExecute(List<Patient> patients) {
+            // a search or reload replaces the list, so pages still coming from an older cursor are dropped
+            patientCursor = openedCursor;
             patientAdapterHelper.onPostExecute(patients, PatientsLocalSearchAdapter.this, backgroundListQueryTaskListener);
         }
     }
 
+    private class NextPageTask extends AsyncTask<Void, Void, List<Patient>> {
+        private final PatientCursor cursor;
+
+        private NextPageTask(PatientCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        protected List<Patient> doInBackground(Void... params) {
+            try {
+                return cursor.nextPage(PAGE_SIZE);
+            } catch (PatientController.PatientLoadException e) {
+                Log.w(TAG, "Exception occurred while fetching the next page of patients", e);
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(List<Patient> patients) {
+            loadingNextPage = false;
+            if (cursor != patientCursor || patients == null) {
+                return;
+            }
+            addAll(patients);
+            notifyDataSetChanged();
+        }
+    }
+
     private List<Patient> filterPatientsWithNotifications(List<Patient> patientList) {
         NotificationController notificationController = ((MuzimaApplication) context.getApplicationContext()).getNotificationController();
         List<Patient> notificationPatients = null;
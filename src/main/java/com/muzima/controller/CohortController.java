@@ -77,15 +77,28 @@ public class CohortController {
     public CohortData downloadCohortDataByUuid(String uuid) throws CohortDownloadException {
         try {
             Date lastSyncDate = lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_COHORTS_DATA, uuid);
-            CohortData cohortData = cohortService.downloadCohortDataAndSyncDate(uuid, false, lastSyncDate);
-            LastSyncTime lastSyncTime = new LastSyncTime(DOWNLOAD_COHORTS_DATA, sntpService.getLocalTime(), uuid);
-            lastSyncTimeService.saveLastSyncTime(lastSyncTime);
-            return cohortData;
+            return cohortService.downloadCohortDataAndSyncDate(uuid, false, lastSyncDate);
         } catch (IOException e) {
             throw new CohortDownloadException(e);
         }
     }
 
+    public Date getSyncStartTime() {
+        return sntpService.getLocalTime();
+    }
+
+    /**
+     * Records that the data of the cohort downloaded since {@code syncStartedAt} is stored. Until then the next sync
+     * downloads the cohort from its previous sync time again.
+     */
+    public void markCohortDataSynced(String uuid, Date syncStartedAt) throws CohortSaveException {
+        try {
+            lastSyncTimeService.saveLastSyncTime(new LastSyncTime(DOWNLOAD_COHORTS_DATA, syncStartedAt, uuid));
+        } catch (IOException e) {
+            throw new CohortSaveException(e);
+        }
+    }
+
     public List<Cohort> downloadCohortsByPrefix(List<String> cohortPrefixes) throws CohortDownloadException {
         List<Cohort> filteredCohorts = new ArrayList<Cohort>();
         try {
@@ -30,14 +30,26 @@ import com.muzima.api.service.ObservationService;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class ConceptController {
+    private static final int MAX_CACHED_CONCEPT_NAMES = 512;
+
     private ConceptService conceptService;
     private ObservationService observationService;
+    private final Map<String, Concept> conceptsByName = new LinkedHashMap<String, Concept>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Concept> eldest) {
+            return size() > MAX_CACHED_CONCEPT_NAMES;
+        }
+    };
+    private int conceptCacheGeneration;
 
     public ConceptController(ConceptService conceptService, ObservationService observationService) {
         this.observationService = observationService;
@@ -55,6 +67,7 @@ public class ConceptController {
     public void deleteConcept(Concept concept) throws ConceptDeleteException {
         try {
             conceptService.deleteConcept(concept);
+            invalidateConceptCache();
             List<Observation> observations = observationService.getObservations(concept);
             observationService.deleteObservations(observations);
         } catch (IOException e) {
@@ -65,12 +78,34 @@ public class ConceptController {
     public void saveConcepts(List<Concept> concepts) throws ConceptSaveException {
         try {
             conceptService.saveConcepts(concepts);
+            invalidateConceptCache();
         } catch (IOException e) {
             throw new ConceptSaveException(e);
         }
     }
 
+    /**
+     * Concepts are looked up by name for every observation of a form being saved, so lookups, including the ones
+     * that find nothing, are remembered until concepts are next saved or deleted.
+     */
     public Concept getConceptByName(String name) throws ConceptFetchException {
+        int generation;
+        synchronized (conceptsByName) {
+            if (conceptsByName.containsKey(name)) {
+                return conceptsByName.get(name);
+            }
+            generation = conceptCacheGeneration;
+        }
+        Concept concept = findConceptByName(name);
+        synchronized (conceptsByName) {
+            if (generation == conceptCacheGeneration) {
+                conceptsByName.put(name, concept);
+            }
+        }
+        return concept;
+    }
+
+    private Concept findConceptByName(String name) throws ConceptFetchException {
         try {
             List<Concept> concepts = conceptService.getConceptsByName(name);
             for (Concept concept : concepts) {
@@ -84,20 +119,65 @@ public class ConceptController {
         return null;
     }
 
+    /**
+     * Forgets the remembered lookups, for when the data was wiped underneath this controller.
+     */
+    public void clearCaches() {
+        invalidateConceptCache();
+    }
+
+    private void invalidateConceptCache() {
+        synchronized (conceptsByName) {
+            conceptCacheGeneration++;
+            conceptsByName.clear();
+        }
+    }
+
     public List<Concept> downloadConceptsByNames(List<String> names) throws ConceptDownloadException {
         HashSet<Concept> result = new HashSet<Concept>();
         for (String name : names) {
-            List<Concept> concepts = downloadConceptsByNamePrefix(name);
-            Iterator<Concept> iterator = concepts.iterator();
-            while (iterator.hasNext()) {
-                Concept next = iterator.next();
-                if (!next.containsNameIgnoreLowerCase(name)) {
-                    iterator.remove();
+            result.addAll(downloadConceptsByName(name));
+        }
+        return new ArrayList<Concept>(result);
+    }
+
+    public List<Concept> downloadConceptsByName(String name) throws ConceptDownloadException {
+        List<Concept> concepts = downloadConceptsByNamePrefix(name);
+        Iterator<Concept> iterator = concepts.iterator();
+        while (iterator.hasNext()) {
+            Concept next = iterator.next();
+            if (!next.containsNameIgnoreLowerCase(name)) {
+                iterator.remove();
+            }
+        }
+        return concepts;
+    }
+
+    /**
+     * Returns the names that no local concept carries, matching every name of a concept and not only the
+     * preferred one, the same way {@link #downloadConceptsByName(String)} filters what the server returns.
+     */
+    public List<String> getNamesMissingLocally(Collection<String> names) throws ConceptFetchException {
+        List<String> missingNames = new ArrayList<String>();
+        try {
+            for (String name : names) {
+                if (!hasConceptNamed(conceptService.getConceptsByName(name), name)) {
+                    missingNames.add(name);
                 }
             }
-            result.addAll(concepts);
+        } catch (IOException e) {
+            throw new ConceptFetchException(e);
         }
-        return new ArrayList<Concept>(result);
+        return missingNames;
+    }
+
+    private boolean hasConceptNamed(List<Concept> concepts, String name) {
+        for (Concept concept : concepts) {
+            if (concept.containsNameIgnoreLowerCase(name)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public List<Concept> getConcepts() throws ConceptFetchException {
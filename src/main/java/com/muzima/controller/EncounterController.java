@@ -13,30 +13,32 @@ import com.muzima.api.model.LastSyncTime;
 import com.muzima.api.service.EncounterService;
 import com.muzima.api.service.LastSyncTimeService;
 import com.muzima.service.SntpService;
-import com.muzima.utils.StringUtils;
+import com.muzima.service.SyncWatermarkStore;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import static com.muzima.api.model.APIName.DOWNLOAD_ENCOUNTERS;
 import static java.util.Arrays.asList;
 import static com.muzima.util.Constants.UUID_SEPARATOR;
 
 public class EncounterController {
+    private static final String PATIENT_SCOPE = "patient";
 
     private EncounterService encounterService;
     private LastSyncTimeService lastSyncTimeService;
     private SntpService sntpService;
+    private SyncWatermarkStore syncWatermarkStore;
+    private boolean legacyParamSignatureMigrated;
 
-    public EncounterController(EncounterService encounterService, LastSyncTimeService lastSyncTimeService, SntpService sntpService) {
+    public EncounterController(EncounterService encounterService, LastSyncTimeService lastSyncTimeService,
+                               SntpService sntpService, SyncWatermarkStore syncWatermarkStore) {
         this.encounterService = encounterService;
         this.lastSyncTimeService = lastSyncTimeService;
         this.sntpService = sntpService;
+        this.syncWatermarkStore = syncWatermarkStore;
     }
 
     public void replaceEncounters(List<Encounter> allEncounters) throws ReplaceEncounterException {
@@ -57,53 +59,63 @@ public class EncounterController {
 
     public List<Encounter> downloadEncountersByPatientUuids(List<String> patientUuids) throws DownloadEncounterException {
         try {
-            String paramSignature = StringUtils.getCommaSeparatedStringFromList(patientUuids);
-            Date lastSyncTime = lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_ENCOUNTERS, paramSignature);
+            migrateLegacyParamSignature();
+            List<String> newPatientUuids = new ArrayList<String>();
+            List<String> knownPatientUuids = new ArrayList<String>();
+            Date knownPatientsWatermark = null;
+            for (String patientUuid : patientUuids) {
+                Date watermark = syncWatermarkStore.getWatermark(PATIENT_SCOPE, patientUuid);
+                if (watermark == null) {
+                    newPatientUuids.add(patientUuid);
+                } else {
+                    knownPatientUuids.add(patientUuid);
+                    if (knownPatientsWatermark == null || watermark.before(knownPatientsWatermark)) {
+                        knownPatientsWatermark = watermark;
+                    }
+                }
+            }
             List<Encounter> encounters = new ArrayList<Encounter>();
-            List<String> previousPatientsUuid = new ArrayList<String>();
-            if (hasThisCallHappenedBefore(lastSyncTime)) {
-                encounters.addAll(downloadEncounters(patientUuids, lastSyncTime));
-            } else {
-                previousPatientsUuid = updateEncountersAndReturnPrevPatientUUIDs(patientUuids, encounters, previousPatientsUuid);
+            if (!knownPatientUuids.isEmpty()) {
+                encounters.addAll(downloadEncounters(knownPatientUuids, knownPatientsWatermark));
+            }
+            if (!newPatientUuids.isEmpty()) {
+                encounters.addAll(downloadEncounters(newPatientUuids, null));
             }
-            LastSyncTime newLastSyncTime = new LastSyncTime(DOWNLOAD_ENCOUNTERS, sntpService.getLocalTime(), getUpdatedParam(patientUuids, previousPatientsUuid));
-            lastSyncTimeService.saveLastSyncTime(newLastSyncTime);
             return encounters;
         } catch (IOException e) {
             throw new DownloadEncounterException(e);
         }
     }
 
-    private List<Encounter> downloadEncounters(List<String> patientUuids, Date lastSyncTime) throws IOException {
-        return encounterService.downloadEncountersByPatientUuidsAndSyncDate(patientUuids, lastSyncTime);
-    }
-
-    private List<String> updateEncountersAndReturnPrevPatientUUIDs(List<String> patientUuids, List<Encounter> encounters, List<String> previousPatientsUuid) throws IOException {
-        LastSyncTime lastSyncTimeRecorded = lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS);
-        if (hasAnyDownloadHappened(lastSyncTimeRecorded)) {
-            previousPatientsUuid = asList(lastSyncTimeRecorded.getParamSignature().split(UUID_SEPARATOR));
-            encounters.addAll(downloadEncounters(previousPatientsUuid, lastSyncTimeRecorded.getLastSyncDate()));
-            patientUuids.removeAll(previousPatientsUuid);
-        }
-        encounters.addAll(downloadEncounters(patientUuids, null));
-        return previousPatientsUuid;
+    public Date getSyncStartTime() {
+        return sntpService.getLocalTime();
     }
 
-    private boolean hasThisCallHappenedBefore(Date lastSyncTime) {
-        return lastSyncTime != null;
+    /**
+     * Advances the watermark of the given patients. Only call it once the encounters downloaded for them since
+     * {@code syncStartedAt} are stored, otherwise the next sync would skip what was lost.
+     */
+    public void markPatientsSynced(List<String> patientUuids, Date syncStartedAt) {
+        syncWatermarkStore.setWatermarks(PATIENT_SCOPE, patientUuids, syncStartedAt);
     }
 
-    private boolean hasAnyDownloadHappened(LastSyncTime lastSyncTimeRecorded) {
-        return lastSyncTimeRecorded != null;
+    private List<Encounter> downloadEncounters(List<String> patientUuids, Date lastSyncTime) throws IOException {
+        return encounterService.downloadEncountersByPatientUuidsAndSyncDate(patientUuids, lastSyncTime);
     }
 
-    private String getUpdatedParam(List<String> patientUuids, List<String> previousPatientsUuid) {
-        Set<String> allPatientUUIDs = new HashSet<String>();
-        allPatientUUIDs.addAll(patientUuids);
-        allPatientUUIDs.addAll(previousPatientsUuid);
-        List<String> allPatientUUIDList = new ArrayList<String>(allPatientUUIDs);
-        Collections.sort(allPatientUUIDList);
-        return StringUtils.getCommaSeparatedStringFromList(allPatientUUIDList);
+    private synchronized void migrateLegacyParamSignature() throws IOException {
+        if (legacyParamSignatureMigrated) {
+            return;
+        }
+        if (syncWatermarkStore.isEmpty()) {
+            LastSyncTime legacyLastSyncTime = lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS);
+            if (legacyLastSyncTime != null && legacyLastSyncTime.getParamSignature() != null) {
+                syncWatermarkStore.setWatermarks(PATIENT_SCOPE,
+                        asList(legacyLastSyncTime.getParamSignature().split(UUID_SEPARATOR)),
+                        legacyLastSyncTime.getLastSyncDate());
+            }
+        }
+        legacyParamSignatureMigrated = true;
     }
 
     public void saveEncounters(List<Encounter> encounters) throws SaveEncounterException {
@@ -123,6 +135,26 @@ public class EncounterController {
         }
     }
 
+    /**
+     * Deletes the encounters created on the phone from the given form of the patient, so extracting the observations
+     * of a form again does not leave a second encounter behind.
+     */
+    public void deleteEncountersByFormDataUuid(String patientUuid, String formDataUuid) throws DeleteEncounterException {
+        try {
+            List<Encounter> formEncounters = new ArrayList<Encounter>();
+            for (Encounter encounter : encounterService.getEncountersByPatientUuid(patientUuid)) {
+                if (formDataUuid.equals(encounter.getFormDataUuid())) {
+                    formEncounters.add(encounter);
+                }
+            }
+            if (!formEncounters.isEmpty()) {
+                encounterService.deleteEncounters(formEncounters);
+            }
+        } catch (IOException e) {
+            throw new DeleteEncounterException(e);
+        }
+    }
+
     public void saveEncounter(Encounter encounter) throws SaveEncounterException {
         ArrayList<Encounter> encounters = new ArrayList<Encounter>();
         encounters.add(encounter);
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.controller;
+
+import com.muzima.api.model.Form;
+import com.muzima.api.model.Tag;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the downloaded form metadata. Forms are addressed by their position in the snapshot, so
+ * tag filters and the downloaded and registration flags are bit sets that combine without touching the index.
+ */
+class FormCatalog {
+    private static final String REGISTRATION = "registration";
+
+    private final List<Form> forms;
+    private final BitSet downloadedForms = new BitSet();
+    private final BitSet registrationForms = new BitSet();
+    private final Map<String, BitSet> formsByTagUuid = new HashMap<String, BitSet>();
+    private final Map<String, Tag> tagsByUuid = new LinkedHashMap<String, Tag>();
+
+    FormCatalog(List<Form> forms, BitSet downloadedForms) {
+        this.forms = new ArrayList<Form>(forms);
+        this.downloadedForms.or(downloadedForms);
+        for (int position = 0; position < this.forms.size(); position++) {
+            Tag[] tags = this.forms.get(position).getTags();
+            if (tags == null) {
+                continue;
+            }
+            for (Tag tag : tags) {
+                BitSet taggedForms = formsByTagUuid.get(tag.getUuid());
+                if (taggedForms == null) {
+                    taggedForms = new BitSet();
+                    formsByTagUuid.put(tag.getUuid(), taggedForms);
+                    tagsByUuid.put(tag.getUuid(), tag);
+                }
+                taggedForms.set(position);
+                if (isRegistrationTag(tag)) {
+                    registrationForms.set(position);
+                }
+            }
+        }
+    }
+
+    static boolean isRegistrationTag(Tag tag) {
+        return REGISTRATION.equalsIgnoreCase(tag.getName());
+    }
+
+    Form getForm(int position) {
+        return forms.get(position);
+    }
+
+    boolean isDownloaded(int position) {
+        return downloadedForms.get(position);
+    }
+
+    BitSet getAllForms() {
+        BitSet allForms = new BitSet(forms.size());
+        allForms.set(0, forms.size());
+        return allForms;
+    }
+
+    BitSet getFormsWithAnyTag(List<String> tagUuids) {
+        BitSet taggedForms = new BitSet(forms.size());
+        for (String tagUuid : tagUuids) {
+            BitSet formsWithTag = formsByTagUuid.get(tagUuid);
+            if (formsWithTag != null) {
+                taggedForms.or(formsWithTag);
+            }
+        }
+        return taggedForms;
+    }
+
+    BitSet getDownloadedForms() {
+        return (BitSet) downloadedForms.clone();
+    }
+
+    BitSet getRegistrationForms() {
+        return (BitSet) registrationForms.clone();
+    }
+
+    List<Tag> getTags() {
+        return new ArrayList<Tag>(tagsByUuid.values());
+    }
+}
@@ -20,7 +20,6 @@ import com.muzima.api.service.FormService;
 import com.muzima.api.service.LastSyncTimeService;
 import com.muzima.api.service.ObservationService;
 import com.muzima.api.service.PatientService;
-import com.muzima.model.AvailableForm;
 import com.muzima.model.CompleteFormWithPatientData;
 import com.muzima.model.builders.AvailableFormBuilder;
 import com.muzima.model.builders.CompleteFormBuilder;
@@ -35,15 +34,18 @@ import com.muzima.model.collections.DownloadedForms;
 import com.muzima.model.collections.IncompleteForms;
 import com.muzima.model.collections.IncompleteFormsWithPatientData;
 import com.muzima.search.api.util.StringUtil;
+import com.muzima.service.FormTemplateHashStore;
+import com.muzima.service.FormUploadOutcomeStore;
 import com.muzima.service.SntpService;
 import com.muzima.util.JsonUtils;
+import com.muzima.utils.BoundedParallelExecutor;
 import com.muzima.utils.Constants;
 import com.muzima.utils.CustomColor;
 import com.muzima.utils.EnDeCrypt;
+import com.muzima.utils.JsonValueRewriter;
 import com.muzima.utils.MediaUtils;
 import com.muzima.utils.StringUtils;
 import com.muzima.view.forms.PatientJSONMapper;
-import net.minidev.json.JSONArray;
 import net.minidev.json.JSONObject;
 import net.minidev.json.parser.JSONParser;
 import org.json.JSONException;
@@ -51,36 +53,75 @@ import org.json.JSONException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import static com.muzima.utils.Constants.FORM_JSON_DISCRIMINATOR_CONSULTATION;
 import static com.muzima.utils.Constants.STATUS_UPLOADED;
+import static java.util.Collections.singletonList;
 
 public class FormController {
 
     private static final String TAG = "FormController";
-    private final String REGISTRATION = "registration";
+    private static final JsonValueRewriter.ValueReplacer MEDIA_PATH_REPLACER = new JsonValueRewriter.ValueReplacer() {
+        @Override
+        public String replace(String value) {
+            return value.contains("/muzima/media/") ? getStringMedia(value) : null;
+        }
+    };
+    private static final int FORM_UPLOAD_CONCURRENCY = 4;
+    private static final String REJECTED = "rejected";
+    private static final String[][] UPLOAD_PHASES = {
+            {Constants.FORM_DISCRIMINATOR_REGISTRATION},
+            {Constants.FORM_JSON_DISCRIMINATOR_CONSULTATION},
+            {Constants.FORM_XML_DISCRIMINATOR_ENCOUNTER, Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER}
+    };
+    private static final Map<String, Integer> UPLOAD_PHASE_BY_DISCRIMINATOR = new HashMap<String, Integer>();
+
+    static {
+        for (int i = 0; i < UPLOAD_PHASES.length; i++) {
+            for (String discriminator : UPLOAD_PHASES[i]) {
+                UPLOAD_PHASE_BY_DISCRIMINATOR.put(discriminator, i);
+            }
+        }
+    }
+
     private FormService formService;
     private PatientService patientService;
     private LastSyncTimeService lastSyncTimeService;
     private SntpService sntpService;
     private ObservationService observationService;
+    private FormUploadOutcomeStore uploadOutcomeStore;
+    private FormTemplateHashStore templateHashStore;
     private Map<String, Integer> tagColors;
+    private final Map<String, Integer> cachedCounts = new HashMap<String, Integer>();
+    private volatile int countGeneration;
+    private volatile FormCatalog formCatalog;
+    private volatile int formCatalogGeneration;
     private List<Tag> selectedTags;
-    private String jsonPayload;
+    private final Object formStatusLock = new Object();
+    private volatile FormChangeListener formChangeListener;
+    private volatile boolean uploadCancelRequested;
+    private volatile BoundedParallelExecutor<?, ?> runningUploads;
 
     public FormController(FormService formService, PatientService patientService, LastSyncTimeService lastSyncTimeService, SntpService sntpService,
-                          ObservationService observationService) {
+                          ObservationService observationService, FormUploadOutcomeStore uploadOutcomeStore,
+                          FormTemplateHashStore templateHashStore) {
         this.formService = formService;
         this.patientService = patientService;
         this.lastSyncTimeService = lastSyncTimeService;
         this.sntpService = sntpService;
         this.observationService = observationService;
+        this.uploadOutcomeStore = uploadOutcomeStore;
+        this.templateHashStore = templateHashStore;
         tagColors = new HashMap<String, Integer>();
         selectedTags = new ArrayList<Tag>();
     }
@@ -114,63 +155,72 @@ public class FormController {
     }
 
     public AvailableForms getAvailableFormByTags(List<String> tagsUuid, boolean alwaysIncludeRegistrationForms) throws FormFetchException {
-        try {
-            List<Form> allForms = formService.getAllForms();
-            List<Form> filteredForms = filterFormsByTags(allForms, tagsUuid, alwaysIncludeRegistrationForms);
-            AvailableForms availableForms = new AvailableForms();
-            for (Form filteredForm : filteredForms) {
-                boolean downloadStatus = formService.isFormTemplateDownloaded(filteredForm.getUuid());
-                AvailableForm availableForm = new AvailableFormBuilder()
-                        .withAvailableForm(filteredForm)
-                        .withDownloadStatus(downloadStatus).build();
-                availableForms.add(availableForm);
+        FormCatalog formCatalog = getFormCatalog();
+        BitSet filteredForms;
+        if (tagsUuid == null || tagsUuid.isEmpty()) {
+            filteredForms = formCatalog.getAllForms();
+        } else {
+            filteredForms = formCatalog.getFormsWithAnyTag(tagsUuid);
+            if (alwaysIncludeRegistrationForms) {
+                filteredForms.or(formCatalog.getRegistrationForms());
             }
-            return availableForms;
-        } catch (IOException e) {
-            throw new FormFetchException(e);
         }
+        return buildAvailableForms(formCatalog, filteredForms);
     }
 
-    private List<Form> filterFormsByTags(List<Form> forms, List<String> tagsUuid, boolean alwaysIncludeRegistrationForms) {
-        if (tagsUuid == null || tagsUuid.isEmpty()) {
-            return forms;
+    private AvailableForms buildAvailableForms(FormCatalog formCatalog, BitSet forms) {
+        AvailableForms availableForms = new AvailableForms();
+        for (int position = forms.nextSetBit(0); position >= 0; position = forms.nextSetBit(position + 1)) {
+            availableForms.add(new AvailableFormBuilder()
+                    .withAvailableForm(formCatalog.getForm(position))
+                    .withDownloadStatus(formCatalog.isDownloaded(position)).build());
         }
-        List<Form> filteredForms = new ArrayList<Form>();
-        for (Form form : forms) {
-            Tag[] formTags = form.getTags();
-            for (Tag formTag : formTags) {
-                if (tagsUuid.contains(formTag.getUuid()) ||
-                        (alwaysIncludeRegistrationForms && isRegistrationTag(formTag))) {
-                    filteredForms.add(form);
-                    break;
-                }
-            }
-        }
-        return filteredForms;
+        return availableForms;
     }
 
-    public List<Tag> getAllTags() throws FormFetchException {
-        List<Tag> allTags = new ArrayList<Tag>();
-        List<Form> allForms = null;
+    private FormCatalog getFormCatalog() throws FormFetchException {
+        FormCatalog catalog = formCatalog;
+        if (catalog != null) {
+            return catalog;
+        }
+        int generation = formCatalogGeneration;
         try {
-            allForms = formService.getAllForms();
+            List<Form> allForms = formService.getAllForms();
+            BitSet downloadedForms = new BitSet(allForms.size());
+            for (int position = 0; position < allForms.size(); position++) {
+                if (formService.isFormTemplateDownloaded(allForms.get(position).getUuid())) {
+                    downloadedForms.set(position);
+                }
+            }
+            catalog = new FormCatalog(allForms, downloadedForms);
         } catch (IOException e) {
             throw new FormFetchException(e);
         }
-        for (Form form : allForms) {
-            for (Tag tag : form.getTags()) {
-                if (!allTags.contains(tag)) {
-                    allTags.add(tag);
-                }
+        synchronized (this) {
+            // a catalog loaded while forms or templates were being written may already be out of date
+            if (generation == formCatalogGeneration) {
+                formCatalog = catalog;
             }
         }
-        return allTags;
+        return catalog;
+    }
+
+    private void invalidateFormCatalog() {
+        synchronized (this) {
+            formCatalogGeneration++;
+            formCatalog = null;
+        }
+        notifyFormsChanged();
+    }
+
+    public List<Tag> getAllTags() throws FormFetchException {
+        return getFormCatalog().getTags();
     }
 
     public List<Tag> getAllTagsExcludingRegistrationTag() throws FormFetchException {
         List<Tag> allTags = new ArrayList<Tag>();
         for (Tag tag : getAllTags()) {
-            if (!isRegistrationTag(tag)) {
+            if (!FormCatalog.isRegistrationTag(tag)) {
                 allTags.add(tag);
             }
         }
@@ -180,15 +230,10 @@ public class FormController {
 
     public DownloadedForms getAllDownloadedForms() throws FormFetchException {
         DownloadedForms downloadedFormsByTags = new DownloadedForms();
-        try {
-            List<Form> allForms = formService.getAllForms();
-            for (Form form : allForms) {
-                if (formService.isFormTemplateDownloaded(form.getUuid())) {
-                    downloadedFormsByTags.add(new DownloadedFormBuilder().withDownloadedForm(form).build());
-                }
-            }
-        } catch (IOException e) {
-            throw new FormFetchException(e);
+        FormCatalog formCatalog = getFormCatalog();
+        BitSet downloadedForms = formCatalog.getDownloadedForms();
+        for (int position = downloadedForms.nextSetBit(0); position >= 0; position = downloadedForms.nextSetBit(position + 1)) {
+            downloadedFormsByTags.add(new DownloadedFormBuilder().withDownloadedForm(formCatalog.getForm(position)).build());
         }
         return downloadedFormsByTags;
     }
@@ -224,6 +269,7 @@ public class FormController {
     public void saveAllForms(List<Form> forms) throws FormSaveException {
         try {
             formService.saveForms(forms);
+            invalidateFormCatalog();
         } catch (IOException e) {
             throw new FormSaveException(e);
         }
@@ -232,6 +278,7 @@ public class FormController {
     public void updateAllForms(List<Form> forms) throws FormSaveException {
         try {
             formService.updateForms(forms);
+            invalidateFormCatalog();
         } catch (IOException e) {
             throw new FormSaveException(e);
         }
@@ -240,6 +287,7 @@ public class FormController {
     public void deleteAllForms() throws FormDeleteException {
         try {
             formService.deleteForms(formService.getAllForms());
+            invalidateFormCatalog();
         } catch (IOException e) {
             throw new FormDeleteException(e);
         }
@@ -248,6 +296,7 @@ public class FormController {
     public void deleteForms(List<Form> forms) throws FormDeleteException {
         try {
             formService.deleteForms(forms);
+            invalidateFormCatalog();
         } catch (IOException e) {
             throw new FormDeleteException(e);
         }
@@ -256,23 +305,42 @@ public class FormController {
     public void deleteFormTemplatesByUUID(List<String> formTemplateUUIDs) throws FormDeleteException {
         try {
             formService.deleteFormTemplateByUUIDs(formTemplateUUIDs);
+            templateHashStore.removeHashes(formTemplateUUIDs);
+            invalidateFormCatalog();
         } catch (IOException e) {
             throw new FormDeleteException(e);
         }
     }
 
     public void replaceFormTemplates(List<FormTemplate> formTemplates) throws FormSaveException {
-        for (FormTemplate formTemplate : formTemplates) {
-            FormTemplate existingFormTemplate = null;
-            try {
-                existingFormTemplate = formService.getFormTemplateByUuid(formTemplate.getUuid());
-                if (existingFormTemplate != null) {
-                    formService.deleteFormTemplate(existingFormTemplate);
+        List<FormTemplate> changedFormTemplates = new ArrayList<FormTemplate>();
+        List<String> changedFormTemplateUuids = new ArrayList<String>();
+        try {
+            for (FormTemplate formTemplate : formTemplates) {
+                // a hash only vouches for a template that is still stored, the store may outlive the templates
+                if (!templateHashStore.isUnchanged(formTemplate) || !formService.isFormTemplateDownloaded(formTemplate.getUuid())) {
+                    changedFormTemplates.add(formTemplate);
+                    changedFormTemplateUuids.add(formTemplate.getUuid());
                 }
+            }
+        } catch (IOException e) {
+            throw new FormSaveException(e);
+        }
+        if (changedFormTemplates.isEmpty()) {
+            return;
+        }
+        try {
+            // forget the hashes first, so a replace that fails half way is retried on the next sync
+            templateHashStore.removeHashes(changedFormTemplateUuids);
+            formService.deleteFormTemplateByUUIDs(changedFormTemplateUuids);
+            for (FormTemplate formTemplate : changedFormTemplates) {
                 formService.saveFormTemplate(formTemplate);
-            } catch (IOException e) {
-                throw new FormSaveException(e);
             }
+            templateHashStore.setHashes(changedFormTemplates);
+        } catch (IOException e) {
+            throw new FormSaveException(e);
+        } finally {
+            invalidateFormCatalog();
         }
     }
 
@@ -337,6 +405,8 @@ public class FormController {
     public void saveFormData(FormData formData) throws FormDataSaveException {
         try {
             formService.saveFormData(formData);
+            invalidateCounts();
+            uploadOutcomeStore.removeOutcomes(singletonList(formData.getUuid()));
         } catch (IOException e) {
             throw new FormDataSaveException(e);
         }
@@ -363,16 +433,13 @@ public class FormController {
 
         try {
             List<FormData> allFormData = formService.getAllFormData(Constants.STATUS_INCOMPLETE);
+            Map<String, Form> forms = getFormsByTemplateUuid(allFormData);
+            Map<String, Patient> patients = getPatientsByUuid(allFormData);
             for (FormData formData : allFormData) {
-                String patientUuid = formData.getPatientUuid();
-                Patient patient = null;
-                if (patientUuid != null) {
-                    patient = patientService.getPatientByUuid(patientUuid);
-                }
                 incompleteForms.add(new IncompleteFormWithPatientDataBuilder()
-                        .withForm(formService.getFormByUuid(formData.getTemplateUuid()))
+                        .withForm(forms.get(formData.getTemplateUuid()))
                         .withFormDataUuid(formData.getUuid())
-                        .withPatient(patient)
+                        .withPatient(patients.get(formData.getPatientUuid()))
                         .build());
             }
         } catch (IOException e) {
@@ -386,12 +453,14 @@ public class FormController {
 
         try {
             List<FormData> allFormData = formService.getAllFormData(Constants.STATUS_COMPLETE);
+            Map<String, Form> forms = getFormsByTemplateUuid(allFormData);
+            Map<String, Patient> patients = getPatientsByUuid(allFormData);
             for (FormData formData : allFormData) {
-                Patient patient = patientService.getPatientByUuid(formData.getPatientUuid());
                 CompleteFormWithPatientData completeForm = new CompleteFormWithPatientDataBuilder()
-                        .withForm(formService.getFormByUuid(formData.getTemplateUuid()))
+                        .withForm(forms.get(formData.getTemplateUuid()))
                         .withFormDataUuid(formData.getUuid())
-                        .withPatient(patient)
+                        .withPatient(patients.get(formData.getPatientUuid()))
+                        .withUploadOutcome(uploadOutcomeStore.getOutcome(formData.getUuid()))
                         .build();
                 completeForms.add(completeForm);
             }
@@ -405,8 +474,9 @@ public class FormController {
         IncompleteForms incompleteForms = new IncompleteForms();
         try {
             List<FormData> allFormData = formService.getFormDataByPatient(patientUuid, Constants.STATUS_INCOMPLETE);
+            Map<String, Form> forms = getFormsByTemplateUuid(allFormData);
             for (FormData formData : allFormData) {
-                incompleteForms.add(new IncompleteFormBuilder().withForm(formService.getFormByUuid(formData.getTemplateUuid()))
+                incompleteForms.add(new IncompleteFormBuilder().withForm(forms.get(formData.getTemplateUuid()))
                         .withFormDataUuid(formData.getUuid())
                         .build());
             }
@@ -420,11 +490,12 @@ public class FormController {
         CompleteForms completePatientForms = new CompleteForms();
         try {
             List<FormData> allFormData = formService.getFormDataByPatient(patientUuid, Constants.STATUS_COMPLETE);
+            Map<String, Form> forms = getFormsByTemplateUuid(allFormData);
             for (FormData formData : allFormData) {
-                Form form = formService.getFormByUuid(formData.getTemplateUuid());
                 completePatientForms.add(new CompleteFormBuilder()
-                        .withForm(form)
+                        .withForm(forms.get(formData.getTemplateUuid()))
                         .withFormDataUuid(formData.getUuid())
+                        .withUploadOutcome(uploadOutcomeStore.getOutcome(formData.getUuid()))
                         .build());
             }
         } catch (IOException e) {
@@ -433,31 +504,100 @@ public class FormController {
         return completePatientForms;
     }
 
+    private Map<String, Form> getFormsByTemplateUuid(List<FormData> allFormData) throws IOException {
+        Map<String, Form> forms = new HashMap<String, Form>();
+        for (FormData formData : allFormData) {
+            String templateUuid = formData.getTemplateUuid();
+            if (!forms.containsKey(templateUuid)) {
+                forms.put(templateUuid, formService.getFormByUuid(templateUuid));
+            }
+        }
+        return forms;
+    }
+
+    private Map<String, Patient> getPatientsByUuid(List<FormData> allFormData) throws IOException {
+        Map<String, Patient> patients = new HashMap<String, Patient>();
+        for (FormData formData : allFormData) {
+            String patientUuid = formData.getPatientUuid();
+            if (patientUuid != null && !patients.containsKey(patientUuid)) {
+                patients.put(patientUuid, patientService.getPatientByUuid(patientUuid));
+            }
+        }
+        return patients;
+    }
+
     public int getAllIncompleteFormsSize() throws FormFetchException {
-        return getAllIncompleteForms().size();
+        return countFormData(Constants.STATUS_INCOMPLETE, null);
     }
 
     public int getAllCompleteFormsSize() throws FormFetchException {
-        return getAllCompleteForms().size();
+        return countFormData(Constants.STATUS_COMPLETE, null);
     }
 
     public int getCompleteFormsCountForPatient(String patientId) throws FormFetchException {
-        return getAllCompleteFormsForPatientUuid(patientId).size();
+        return countFormData(Constants.STATUS_COMPLETE, patientId);
     }
 
     public int getIncompleteFormsCountForPatient(String patientId) throws FormFetchException {
-        return getAllIncompleteFormsForPatientUuid(patientId).size();
+        return countFormData(Constants.STATUS_INCOMPLETE, patientId);
     }
 
-    public AvailableForms getDownloadedRegistrationForms() throws FormFetchException {
-        AvailableForms result = new AvailableForms();
+    private int countFormData(String status, String patientUuid) throws FormFetchException {
+        String countKey = patientUuid == null ? status : status + ":" + patientUuid;
+        Integer count = getCachedCount(countKey);
+        if (count != null) {
+            return count;
+        }
+        int generation = countGeneration;
+        try {
+            if (patientUuid == null) {
+                count = formService.getAllFormData(status).size();
+            } else {
+                count = formService.getFormDataByPatient(patientUuid, status).size();
+            }
+        } catch (IOException e) {
+            throw new FormFetchException(e);
+        }
+        cacheCount(countKey, count, generation);
+        return count;
+    }
 
-        for (AvailableForm form : getAvailableFormByTags(null)) {
-            if (form.isDownloaded() && form.isRegistrationForm()) {
-                result.add(form);
+    private Integer getCachedCount(String countKey) {
+        synchronized (cachedCounts) {
+            return cachedCounts.get(countKey);
+        }
+    }
+
+    private void cacheCount(String countKey, int count, int generation) {
+        synchronized (cachedCounts) {
+            // a write since the count was taken may have changed it, so only the next call gets to cache it
+            if (generation == countGeneration) {
+                cachedCounts.put(countKey, count);
             }
         }
-        return result;
+    }
+
+    /**
+     * Drops what is cached in memory about the stored forms, for when the data was wiped underneath this controller.
+     */
+    public void clearCaches() {
+        invalidateCounts();
+        invalidateFormCatalog();
+    }
+
+    private void invalidateCounts() {
+        synchronized (cachedCounts) {
+            countGeneration++;
+            cachedCounts.clear();
+        }
+        notifyFormsChanged();
+    }
+
+    public AvailableForms getDownloadedRegistrationForms() throws FormFetchException {
+        FormCatalog formCatalog = getFormCatalog();
+        BitSet downloadedRegistrationForms = formCatalog.getDownloadedForms();
+        downloadedRegistrationForms.and(formCatalog.getRegistrationForms());
+        return buildAvailableForms(formCatalog, downloadedRegistrationForms);
     }
 
     public Patient createNewPatient(String data) {
@@ -474,35 +614,138 @@ public class FormController {
     }
 
     public boolean uploadAllCompletedForms() throws UploadFormDataException {
+        return uploadAllCompletedForms(null);
+    }
+
+    /**
+     * Uploads completed forms phase by phase, so that patients are registered before anything is recorded against
+     * them, and uploads the forms of a phase concurrently. Forms of a patient whose form in an earlier phase failed
+     * are held back until the next sync, and forms the server kept rejecting are skipped until they are saved again.
+     * Returns true only if every form was uploaded.
+     */
+    public boolean uploadAllCompletedForms(UploadProgressListener progressListener) throws UploadFormDataException {
         try {
+            List<List<FormData>> uploadPhases = getFormsByUploadPhase(formService.getAllFormData(Constants.STATUS_COMPLETE));
+            int total = 0;
+            for (List<FormData> uploadPhase : uploadPhases) {
+                total += uploadPhase.size();
+            }
             boolean result = true;
-            List<FormData> allFormData = formService.getAllFormData(Constants.STATUS_COMPLETE);
-
-            result = uploadFormDataToServer(getFormsWithDiscriminator(allFormData, Constants.FORM_DISCRIMINATOR_REGISTRATION), result);
-            result = uploadFormDataToServer(getFormsWithDiscriminator(allFormData, Constants.FORM_JSON_DISCRIMINATOR_CONSULTATION), result);
-            result = uploadFormDataToServer(getFormsWithDiscriminator(allFormData, Constants.FORM_XML_DISCRIMINATOR_ENCOUNTER), result);
-            return uploadFormDataToServer(getFormsWithDiscriminator(allFormData, Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER), result);
+            int processed = 0;
+            Set<String> heldBackPatientUuids = new HashSet<String>();
+            for (List<FormData> uploadPhase : uploadPhases) {
+                Set<String> failedPatientUuids = new HashSet<String>();
+                List<FormData> uploadable = new ArrayList<FormData>();
+                for (FormData formData : uploadPhase) {
+                    if (FormUploadOutcomeStore.PERMANENT_FAILURE.equals(uploadOutcomeStore.getOutcome(formData.getUuid()))) {
+                        addPatientUuid(failedPatientUuids, formData);
+                        result = false;
+                        reportProgress(progressListener, ++processed, total);
+                    } else if (heldBackPatientUuids.contains(formData.getPatientUuid())) {
+                        uploadOutcomeStore.setOutcome(formData.getUuid(), FormUploadOutcomeStore.RETRYABLE_FAILURE);
+                        result = false;
+                        reportProgress(progressListener, ++processed, total);
+                    } else {
+                        uploadable.add(formData);
+                    }
+                }
+                if (uploadable.isEmpty()) {
+                    heldBackPatientUuids.addAll(failedPatientUuids);
+                    continue;
+                }
+                checkUploadNotCancelled();
+                BoundedParallelExecutor<FormData, String> uploads = new BoundedParallelExecutor<FormData, String>(
+                        uploadable, uploadTask, FORM_UPLOAD_CONCURRENCY, 1, 0);
+                runningUploads = uploads;
+                if (uploadCancelRequested) {
+                    uploads.drain();
+                }
+                try {
+                    while (uploads.hasNext()) {
+                        BoundedParallelExecutor.Result<FormData, String> upload = uploads.next();
+                        FormData formData = upload.getKey();
+                        if (FormUploadOutcomeStore.UPLOADED.equals(upload.getValue())) {
+                            synchronized (formStatusLock) {
+                                formData.setStatus(STATUS_UPLOADED);
+                                formService.saveFormData(formData);
+                                invalidateCounts();
+                                observationService.deleteObservationsByFormData(formData.getUuid());
+                            }
+                            uploadOutcomeStore.removeOutcomes(singletonList(formData.getUuid()));
+                        } else {
+                            result = false;
+                            addPatientUuid(failedPatientUuids, formData);
+                            if (REJECTED.equals(upload.getValue())) {
+                                uploadOutcomeStore.recordRejection(formData.getUuid());
+                            } else {
+                                uploadOutcomeStore.setOutcome(formData.getUuid(), upload.getValue());
+                            }
+                        }
+                        reportProgress(progressListener, ++processed, total);
+                    }
+                } finally {
+                    uploads.cancel();
+                    runningUploads = null;
+                }
+                checkUploadNotCancelled();
+                heldBackPatientUuids.addAll(failedPatientUuids);
+            }
+            return result;
         } catch (IOException e) {
             throw new UploadFormDataException(e);
+        } catch (BoundedParallelExecutor.TaskFailedException e) {
+            throw new UploadFormDataException(e.getCause());
         }
     }
 
-    public AvailableForms getRecommendedForms() throws FormFetchException {
-        AvailableForms result = new AvailableForms();
-        for (AvailableForm form : getAvailableFormByTags(null)) {
-            if (form.isDownloaded() && !form.isRegistrationForm()) {
-                result.add(form);
-            }
+    /**
+     * Stops the running upload from sending further forms and keeps every upload started until
+     * {@link #clearUploadCancelRequest()} is called from sending any. Forms already being sent are let finish, so
+     * a form the server accepted is still marked uploaded instead of being sent again by the next sync.
+     */
+    public void cancelUploads() {
+        uploadCancelRequested = true;
+        BoundedParallelExecutor<?, ?> uploads = runningUploads;
+        if (uploads != null) {
+            uploads.drain();
+        }
+    }
+
+    public void clearUploadCancelRequest() {
+        uploadCancelRequested = false;
+    }
+
+    private void checkUploadNotCancelled() throws UploadFormDataException {
+        if (uploadCancelRequested) {
+            throw new UploadFormDataException(new CancellationException("Form upload cancelled"));
+        }
+    }
+
+    private static void addPatientUuid(Set<String> patientUuids, FormData formData) {
+        if (formData.getPatientUuid() != null) {
+            patientUuids.add(formData.getPatientUuid());
+        }
+    }
+
+    private static void reportProgress(UploadProgressListener progressListener, int processed, int total) {
+        if (progressListener != null) {
+            progressListener.onProgress(processed, total);
         }
-        return result;
+    }
+
+    public AvailableForms getRecommendedForms() throws FormFetchException {
+        FormCatalog formCatalog = getFormCatalog();
+        return buildAvailableForms(formCatalog, getRecommendedForms(formCatalog));
     }
 
     public int getRecommendedFormsCount() throws FormFetchException {
-        return getRecommendedForms().size();
+        return getRecommendedForms(getFormCatalog()).cardinality();
     }
 
-    private boolean isRegistrationTag(Tag formTag) {
-        return REGISTRATION.equalsIgnoreCase(formTag.getName());
+    private BitSet getRecommendedForms(FormCatalog formCatalog) {
+        BitSet recommendedForms = formCatalog.getDownloadedForms();
+        recommendedForms.andNot(formCatalog.getRegistrationForms());
+        return recommendedForms;
     }
 
     public void deleteCompleteAndIncompleteForms(List<String> selectedIncompleteFormsUuids) throws FormDeleteException{
@@ -512,6 +755,8 @@ public class FormController {
                 selectedFormsData.add(getFormDataByUuid(selectedIncompleteFormsUuid));
             }
             formService.deleteFormData(selectedFormsData);
+            invalidateCounts();
+            uploadOutcomeStore.removeOutcomes(selectedIncompleteFormsUuids);
         } catch (IOException e) {
             throw new FormDeleteException(e);
         } catch (FormDataFetchException e) {
@@ -519,6 +764,37 @@ public class FormController {
         }
     }
 
+    /**
+     * Held while an uploaded form is marked uploaded and its observations are dropped. Whoever saves observations
+     * for a form has to check the form is still complete while holding it, or they outlive the upload.
+     */
+    public Object getFormStatusLock() {
+        return formStatusLock;
+    }
+
+    public void setFormChangeListener(FormChangeListener formChangeListener) {
+        this.formChangeListener = formChangeListener;
+    }
+
+    private void notifyFormsChanged() {
+        FormChangeListener listener = formChangeListener;
+        if (listener != null) {
+            listener.onFormsChanged();
+        }
+    }
+
+    public interface UploadProgressListener {
+        void onProgress(int processed, int total);
+    }
+
+    /**
+     * Told whenever form data changes status or forms are saved, replaced or deleted, so views derived from them
+     * (like the notification index) can be dropped.
+     */
+    public interface FormChangeListener {
+        void onFormsChanged();
+    }
+
     public static class UploadFormDataException extends Throwable {
         public UploadFormDataException(Throwable throwable) {
             super(throwable);
@@ -570,36 +846,39 @@ public class FormController {
         }
     }
 
-    private List<FormData> getFormsWithDiscriminator(List<FormData> allFormData, String discriminator) {
-        List<FormData> requiredForms = new ArrayList<FormData>();
+    private List<List<FormData>> getFormsByUploadPhase(List<FormData> allFormData) {
+        List<List<FormData>> uploadPhases = new ArrayList<List<FormData>>(UPLOAD_PHASES.length);
+        for (int i = 0; i < UPLOAD_PHASES.length; i++) {
+            uploadPhases.add(new ArrayList<FormData>());
+        }
         for (FormData formData : allFormData) {
-            if (formData.getDiscriminator().equals(discriminator)) {
-                requiredForms.add(formData);
+            Integer uploadPhase = UPLOAD_PHASE_BY_DISCRIMINATOR.get(formData.getDiscriminator());
+            if (uploadPhase != null) {
+                uploadPhases.get(uploadPhase).add(formData);
             }
         }
-        return requiredForms;
+        return uploadPhases;
     }
 
-    boolean uploadFormDataToServer(List<FormData> allFormData, boolean result) throws IOException {
-        for (FormData formData : allFormData) {
+    private final BoundedParallelExecutor.Task<FormData, String> uploadTask = new BoundedParallelExecutor.Task<FormData, String>() {
+        @Override
+        public String execute(FormData formData) {
             String rawPayload = formData.getJsonPayload();
-            // inject consultation.sourceUuid
-            formData = injectUuidToPayload(formData);
-            // replace media paths with base64 string
-            formData = replaceMediaPathWithBase64String(formData);
-            if (formService.syncFormData(formData)) {
-                formData.setStatus(STATUS_UPLOADED);
-
+            try {
+                // inject consultation.sourceUuid
+                injectUuidToPayload(formData);
+                // replace media paths with base64 string
+                replaceMediaPathWithBase64String(formData);
+                return formService.syncFormData(formData) ? FormUploadOutcomeStore.UPLOADED : REJECTED;
+            } catch (IOException e) {
+                Log.w(TAG, "Could not upload form data " + formData.getUuid(), e);
+                return FormUploadOutcomeStore.RETRYABLE_FAILURE;
+            } finally {
                 //DO NOT save base64 string in DB
                 formData.setJsonPayload(rawPayload);
-                formService.saveFormData(formData);
-                observationService.deleteObservationsByFormData(formData.getUuid());
-            } else {
-                result = false;
             }
         }
-        return result;
-    }
+    };
 
     private static FormData injectUuidToPayload(FormData formData) {
 
@@ -617,49 +896,11 @@ public class FormController {
         return formData;
     }
 
-    private void traverseJson(JSONObject json) {
-        Iterator<String> keys = json.keySet().iterator();
-        while(keys.hasNext()){
-            String key = keys.next();
-            String val = null;
-            try{
-                Object obj =  JsonUtils.readAsObject(json.toJSONString(), "$['" + key + "']");
-                if (obj instanceof JSONArray){
-                    JSONArray arr = (JSONArray) obj;
-                    for (Object object : arr) {
-                        traverseJson((JSONObject) object);
-                    }
-                } else {
-                    traverseJson((JSONObject)obj);
-                }
-            }catch(Exception e){
-                val = json.get(key).toString();
-            }
-
-            if(val != null)
-                replaceMediaPathWithMedia(key, val);
-        }
-    }
-
-    private void replaceMediaPathWithMedia(String key, String value){
-        if (value.contains("/muzima/media/")) {
-            String newKeyValPair = "\"" + key + "\":\"" + getStringMedia(value) + "\"";
-            if (!jsonPayload.contains(value))
-                value = value.replace("/", "\\/");
-            String keyValPair = "\"" + key + "\":\"" + value + "\"";
-
-            jsonPayload = jsonPayload.replace(keyValPair, newKeyValPair);
-        }
-    }
-
-    private FormData replaceMediaPathWithBase64String(FormData formData) {
+    private static FormData replaceMediaPathWithBase64String(FormData formData) {
         try {
-            jsonPayload = formData.getJsonPayload();
-            JSONParser jp =new JSONParser(JSONParser.MODE_PERMISSIVE);
-            traverseJson((JSONObject) jp.parse(jsonPayload));
-            formData.setJsonPayload(jsonPayload);
-        } catch (net.minidev.json.parser.ParseException e) {
-            e.printStackTrace();
+            formData.setJsonPayload(JsonValueRewriter.rewrite(formData.getJsonPayload(), MEDIA_PATH_REPLACER));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Could not replace media paths in form data " + formData.getUuid(), e);
         }
         return formData;
     }
@@ -670,25 +911,27 @@ public class FormController {
             //fetch the media and convert it to @Base64 encoded string.
             File f = new File(mediaUri) ;
             if (f.exists()){
-
-                // here the media file is encrypted so we decrypt it
-                EnDeCrypt.decrypt(f, "this-is-supposed-to-be-a-secure-key");
-
+                // the media file is encrypted, so it is decrypted while being encoded and stays untouched on disk
                 try {
-                    FileInputStream fis = new FileInputStream(f);
-                    byte[] fileBytes = new byte[(int) f.length()];
-                    fis.read(fileBytes);
-
-                    //convert the decrypted media to Base64 string
-                    mediaString = MediaUtils.toBase64(fileBytes);
+                    mediaString = toBase64(EnDeCrypt.openDecryptedStream(f, "this-is-supposed-to-be-a-secure-key"), f.length());
                 } catch (Exception e) {
-                    Log.e(TAG, e.getMessage());
+                    Log.w(TAG, "Could not decrypt " + mediaUri + ", uploading it as it is", e);
+                    try {
+                        mediaString = toBase64(new FileInputStream(f), f.length());
+                    } catch (IOException ioException) {
+                        Log.e(TAG, ioException.getMessage());
+                    }
                 }
-
-                // and encrypt again
-                EnDeCrypt.encrypt(f, "this-is-supposed-to-be-a-secure-key");
             }
         }
         return mediaString != null? mediaString : mediaUri;
     }
+
+    private static String toBase64(InputStream mediaStream, long length) throws IOException {
+        try {
+            return MediaUtils.toBase64(mediaStream, length);
+        } finally {
+            mediaStream.close();
+        }
+    }
 }
@@ -15,22 +15,44 @@ import com.muzima.api.model.Tag;
 import com.muzima.api.service.FormService;
 import com.muzima.api.service.NotificationService;
 import com.muzima.search.api.util.StringUtil;
+import com.muzima.service.SntpService;
+import com.muzima.service.SyncWatermarkStore;
+import com.muzima.utils.VoidedPartition;
 import org.apache.lucene.queryParser.ParseException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.muzima.utils.Constants.FORM_DISCRIMINATOR_CONSULTATION;
 import static com.muzima.utils.Constants.STATUS_UPLOADED;
+import static java.util.Collections.singletonList;
 
 public class NotificationController {
+    private static final String RECEIVER_SCOPE = "receiver";
+    private static final VoidedPartition.VoidedCheck<Notification> NOTIFICATION_VOIDED_CHECK = new VoidedPartition.VoidedCheck<Notification>() {
+        @Override
+        public boolean isVoided(Notification notification) {
+            return notification.isVoided();
+        }
+    };
+
     private NotificationService notificationService;
     private FormService formService;
+    private SntpService sntpService;
+    private SyncWatermarkStore syncWatermarkStore;
+    private final Map<String, NotificationIndex> indexesByReceiver = new HashMap<String, NotificationIndex>();
+    private int indexGeneration;
 
-    public NotificationController(NotificationService notificationService, FormService formService) {
+    public NotificationController(NotificationService notificationService, FormService formService,
+                                  SntpService sntpService, SyncWatermarkStore syncWatermarkStore) {
         this.notificationService = notificationService;
         this.formService = formService;
+        this.sntpService = sntpService;
+        this.syncWatermarkStore = syncWatermarkStore;
     }
 
     public Notification getNotificationByUuid(String uuid) throws NotificationFetchException, ParseException {
@@ -55,6 +77,13 @@ public class NotificationController {
     }
 
     public List<Notification> getNotificationsForPatient(String patientUuid, String receiverUuid, String status) throws NotificationFetchException {
+        if (StringUtil.isEmpty(receiverUuid)) {
+            return scanNotificationsForPatient(patientUuid, status);
+        }
+        return new ArrayList<Notification>(getNotificationIndex(receiverUuid).getNotifications(patientUuid, emptyToNull(status)));
+    }
+
+    private List<Notification> scanNotificationsForPatient(String patientUuid, String status) throws NotificationFetchException {
         try {
             List<Notification> patientNotifications = new ArrayList<Notification>();
             List<FormData> allFormData = formService.getFormDataByPatient(patientUuid, STATUS_UPLOADED);
@@ -64,23 +93,8 @@ public class NotificationController {
                 Notification notification = notificationService.getNotificationBySource(formData.getUuid());
                 form = formService.getFormByUuid(formData.getTemplateUuid());
                 if (isConsultationForm(form) && notification != null) {
-
-                    //if receiverUuid is null and status is null the we add the notification to list
-                    if (StringUtil.isEmpty(receiverUuid) && StringUtil.isEmpty(status)) {
-                        // no filtering return all notifications for patient
+                    if (StringUtil.isEmpty(status) || StringUtil.equals(notification.getStatus(), status)) {
                         patientNotifications.add(notification);
-                    } else if (StringUtil.isEmpty(status))  {
-                        // status not passed filter by receiverUuid only
-                        if (StringUtil.equals(notification.getReceiver().getUuid(), receiverUuid))
-                            patientNotifications.add(notification);
-                    } else if (StringUtil.isEmpty(receiverUuid)){
-                        // receiverUuid not passed filter by status only
-                        if (StringUtil.equals(notification.getStatus(),status))
-                            patientNotifications.add(notification);
-                    } else {
-                         // filter by both receiverUuid status
-                        if (StringUtil.equals(notification.getReceiver().getUuid(), receiverUuid) && StringUtil.equals(notification.getStatus(),status) )
-                            patientNotifications.add(notification);
                     }
                 }
             }
@@ -91,13 +105,66 @@ public class NotificationController {
     }
 
     public int getNotificationsCountForPatient(String patientUuid, String receiverUuid, String status) throws NotificationFetchException {
-        List<Notification> notifications =  getNotificationsForPatient(patientUuid, receiverUuid, status);
-        return   notifications == null ? 0 : notifications.size();
+        if (StringUtil.isEmpty(receiverUuid)) {
+            return scanNotificationsForPatient(patientUuid, status).size();
+        }
+        return getNotificationIndex(receiverUuid).getNotifications(patientUuid, emptyToNull(status)).size();
     }
 
     public boolean patientHasNotifications(String patientUuid, String receiverUuid, String status) throws NotificationFetchException {
-        List<Notification> notifications =  getNotificationsForPatient(patientUuid, receiverUuid, status);
-        return (notifications != null && notifications.size() > 0);
+        return getNotificationsCountForPatient(patientUuid, receiverUuid, status) > 0;
+    }
+
+    private NotificationIndex getNotificationIndex(String receiverUuid) throws NotificationFetchException {
+        int generation;
+        synchronized (this) {
+            NotificationIndex index = indexesByReceiver.get(receiverUuid);
+            if (index != null) {
+                return index;
+            }
+            generation = indexGeneration;
+        }
+        NotificationIndex index;
+        try {
+            index = new NotificationIndex(notificationService.getNotificationByReceiver(receiverUuid, null),
+                    getConsultationPatientUuidsBySource());
+        } catch (IOException e) {
+            throw new NotificationFetchException(e);
+        } catch (ParseException e) {
+            throw new NotificationFetchException(e);
+        }
+        synchronized (this) {
+            // an index built while notifications were being written may already be out of date
+            if (generation == indexGeneration) {
+                indexesByReceiver.put(receiverUuid, index);
+            }
+        }
+        return index;
+    }
+
+    private Map<String, String> getConsultationPatientUuidsBySource() throws IOException {
+        Map<String, String> patientUuidsBySource = new HashMap<String, String>();
+        Map<String, Boolean> consultationTemplates = new HashMap<String, Boolean>();
+        for (FormData formData : formService.getAllFormData(STATUS_UPLOADED)) {
+            Boolean consultation = consultationTemplates.get(formData.getTemplateUuid());
+            if (consultation == null) {
+                consultation = isConsultationForm(formService.getFormByUuid(formData.getTemplateUuid()));
+                consultationTemplates.put(formData.getTemplateUuid(), consultation);
+            }
+            if (consultation && formData.getPatientUuid() != null) {
+                patientUuidsBySource.put(formData.getUuid(), formData.getPatientUuid());
+            }
+        }
+        return patientUuidsBySource;
+    }
+
+    public synchronized void invalidateNotificationIndex() {
+        indexGeneration++;
+        indexesByReceiver.clear();
+    }
+
+    private static String emptyToNull(String status) {
+        return StringUtil.isEmpty(status) ? null : status;
     }
 
     public List<Notification> downloadNotificationByReceiver(String receiverUuid) throws NotificationDownloadException, ParseException {
@@ -108,11 +175,44 @@ public class NotificationController {
         }
     }
 
+    /**
+     * Downloads the notifications of the receiver that changed since its last sync, saves the live ones over their
+     * local copies and deletes the voided ones. Returns the number of notifications saved.
+     */
+    public int syncNotificationsByReceiver(String receiverUuid) throws NotificationDownloadException,
+            NotificationSaveException, NotificationDeleteException, ParseException {
+        Date syncStartedAt = sntpService.getLocalTime();
+        List<Notification> notifications;
+        try {
+            notifications = notificationService.downloadNotificationByReceiver(receiverUuid,
+                    syncWatermarkStore.getWatermark(RECEIVER_SCOPE, receiverUuid));
+        } catch (IOException e) {
+            throw new NotificationDownloadException(e);
+        }
+        VoidedPartition<Notification> partition = new VoidedPartition<Notification>(notifications, NOTIFICATION_VOIDED_CHECK);
+        if (!partition.getVoided().isEmpty()) {
+            try {
+                notificationService.deleteNotifications(partition.getVoided());
+            } catch (IOException e) {
+                throw new NotificationDeleteException(e);
+            } finally {
+                invalidateNotificationIndex();
+            }
+        }
+        if (!partition.getLive().isEmpty()) {
+            saveNotifications(partition.getLive());
+        }
+        syncWatermarkStore.setWatermarks(RECEIVER_SCOPE, singletonList(receiverUuid), syncStartedAt);
+        return partition.getLive().size();
+    }
+
     public void saveNotification(Notification notification) throws NotificationSaveException {
         try {
             notificationService.saveNotification(notification);
         } catch (IOException e) {
             throw new NotificationSaveException(e);
+        } finally {
+            invalidateNotificationIndex();
         }
     }
 
@@ -121,6 +221,8 @@ public class NotificationController {
             notificationService.saveNotifications(notifications);
         } catch (IOException e) {
             throw new NotificationSaveException(e);
+        } finally {
+            invalidateNotificationIndex();
         }
     }
 
@@ -129,6 +231,8 @@ public class NotificationController {
             notificationService.deleteNotification(notification);
         } catch (IOException e) {
             throw new NotificationDeleteException(e);
+        } finally {
+            invalidateNotificationIndex();
         }
     }
 
@@ -137,6 +241,8 @@ public class NotificationController {
             notificationService.deleteNotifications(getAllNotificationsByReceiver(receiverUuid, null));
         } catch (IOException e) {
             throw new NotificationDeleteException(e);
+        } finally {
+            invalidateNotificationIndex();
         }
     }
 
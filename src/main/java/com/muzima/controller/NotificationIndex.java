@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.controller;
+
+import com.muzima.api.model.Notification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the notifications of one receiver that were raised on an uploaded consultation form,
+ * grouped by the patient of that form and by the patient and status together.
+ */
+class NotificationIndex {
+    private final Map<String, List<Notification>> notificationsByPatient = new HashMap<String, List<Notification>>();
+    private final Map<String, List<Notification>> notificationsByPatientAndStatus = new HashMap<String, List<Notification>>();
+
+    NotificationIndex(List<Notification> notifications, Map<String, String> patientUuidsBySource) {
+        for (Notification notification : notifications) {
+            String patientUuid = patientUuidsBySource.get(notification.getSource());
+            if (patientUuid == null) {
+                continue;
+            }
+            add(notificationsByPatient, patientUuid, notification);
+            add(notificationsByPatientAndStatus, key(patientUuid, notification.getStatus()), notification);
+        }
+    }
+
+    List<Notification> getNotifications(String patientUuid, String status) {
+        List<Notification> notifications = status == null
+                ? notificationsByPatient.get(patientUuid)
+                : notificationsByPatientAndStatus.get(key(patientUuid, status));
+        return notifications == null ? Collections.<Notification>emptyList() : notifications;
+    }
+
+    private static void add(Map<String, List<Notification>> index, String key, Notification notification) {
+        List<Notification> notifications = index.get(key);
+        if (notifications == null) {
+            notifications = new ArrayList<Notification>();
+            index.put(key, notifications);
+        }
+        notifications.add(notification);
+    }
+
+    private static String key(String patientUuid, String status) {
+        return patientUuid + '\n' + status;
+    }
+}
@@ -22,15 +22,13 @@ import com.muzima.api.service.ObservationService;
 import com.muzima.model.observation.Concepts;
 import com.muzima.model.observation.Encounters;
 import com.muzima.service.SntpService;
+import com.muzima.service.SyncWatermarkStore;
 import com.muzima.utils.CustomColor;
-import com.muzima.utils.StringUtils;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -40,22 +38,28 @@ import static com.muzima.util.Constants.UUID_SEPARATOR;
 import static com.muzima.util.Constants.UUID_TYPE_SEPARATOR;
 
 public class ObservationController {
+    private static final String PATIENT_SCOPE = "patient";
+    private static final String CONCEPT_SCOPE = "concept";
+    private static final String CONCEPT_ADDED_SCOPE = "conceptAdded";
 
     private ObservationService observationService;
     private ConceptService conceptService;
     private EncounterService encounterService;
     private LastSyncTimeService lastSyncTimeService;
     private SntpService sntpService;
+    private SyncWatermarkStore syncWatermarkStore;
     private Map<String, Integer> conceptColors;
+    private boolean legacyParamSignatureMigrated;
 
     public ObservationController(ObservationService observationService, ConceptService conceptService,
                                  EncounterService encounterService, LastSyncTimeService lastSyncTimeService,
-                                 SntpService sntpService) {
+                                 SntpService sntpService, SyncWatermarkStore syncWatermarkStore) {
         this.observationService = observationService;
         this.conceptService = conceptService;
         this.encounterService = encounterService;
         this.lastSyncTimeService = lastSyncTimeService;
         this.sntpService = sntpService;
+        this.syncWatermarkStore = syncWatermarkStore;
         conceptColors = new HashMap<String, Integer>();
     }
 
@@ -159,67 +163,93 @@ public class ObservationController {
 
     public List<Observation> downloadObservationsByPatientUuidsAndConceptUuids(List<String> patientUuids, List<String> conceptUuids) throws DownloadObservationException {
         try {
-            List<String> allConceptsUuids = conceptUuids;
-            List<String> allPatientsUuids = patientUuids;
-            String paramSignature = buildParamSignature(allPatientsUuids, allConceptsUuids);
-            Date lastSyncTime = lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_OBSERVATIONS, paramSignature);
-            List<Observation> observations = new ArrayList<Observation>();
-            if (hasExactCallBeenMadeBefore(lastSyncTime)) {
-                observations.addAll(observationService.downloadObservations(patientUuids, conceptUuids, lastSyncTime));
-            } else {
-                LastSyncTime fullLastSyncTimeInfo = lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_OBSERVATIONS);
-                if (isFirstCallToDownloadObservationsEver(fullLastSyncTimeInfo)) {
-                    observations.addAll(observationService.downloadObservations(patientUuids, conceptUuids, null));
+            migrateLegacyParamSignature();
+            Date syncStartedAt = sntpService.getLocalTime();
+            List<String> newPatientUuids = new ArrayList<String>();
+            List<String> knownPatientUuids = new ArrayList<String>();
+            Date knownPatientsWatermark = null;
+            for (String patientUuid : patientUuids) {
+                Date watermark = syncWatermarkStore.getWatermark(PATIENT_SCOPE, patientUuid);
+                if (watermark == null) {
+                    newPatientUuids.add(patientUuid);
                 } else {
-                    String[] parameterSplit = fullLastSyncTimeInfo.getParamSignature().split(UUID_TYPE_SEPARATOR, -1);
-                    List<String> knownPatientsUuid = asList(parameterSplit[0].split(UUID_SEPARATOR));
-                    List<String> newPatientsUuids = getNewUuids(patientUuids, knownPatientsUuid);
-                    List<String> knownConceptsUuid = asList(parameterSplit[1].split(UUID_SEPARATOR));
-                    List<String> newConceptsUuids = getNewUuids(conceptUuids, knownConceptsUuid);
-                    allConceptsUuids = getAllUuids(knownConceptsUuid, newConceptsUuids);
-                    allPatientsUuids = getAllUuids(knownPatientsUuid, newPatientsUuids);
-                    paramSignature = buildParamSignature(allPatientsUuids, allConceptsUuids);
-                    observations = observationService.downloadObservations(newPatientsUuids, allConceptsUuids, null);
-                    observations.addAll(observationService.downloadObservations(knownPatientsUuid, newConceptsUuids, null));
-                    observations.addAll(observationService.downloadObservations(knownPatientsUuid, knownConceptsUuid, fullLastSyncTimeInfo.getLastSyncDate()));
+                    knownPatientUuids.add(patientUuid);
+                    knownPatientsWatermark = earliest(knownPatientsWatermark, watermark);
                 }
             }
-            LastSyncTime newLastSyncTime = new LastSyncTime(DOWNLOAD_OBSERVATIONS, sntpService.getLocalTime(), paramSignature);
-            lastSyncTimeService.saveLastSyncTime(newLastSyncTime);
+
+            List<Observation> observations = new ArrayList<Observation>();
+            if (!newPatientUuids.isEmpty()) {
+                observations.addAll(observationService.downloadObservations(newPatientUuids, conceptUuids, null));
+            }
+            if (!knownPatientUuids.isEmpty()) {
+                List<String> newConceptUuids = new ArrayList<String>();
+                List<String> knownConceptUuids = new ArrayList<String>();
+                Date knownConceptsWatermark = knownPatientsWatermark;
+                for (String conceptUuid : conceptUuids) {
+                    Date addedAt = syncWatermarkStore.getWatermark(CONCEPT_ADDED_SCOPE, conceptUuid);
+                    if (addedAt == null || addedAt.after(knownPatientsWatermark)) {
+                        newConceptUuids.add(conceptUuid);
+                    } else {
+                        knownConceptUuids.add(conceptUuid);
+                        knownConceptsWatermark = earliest(knownConceptsWatermark,
+                                syncWatermarkStore.getWatermark(CONCEPT_SCOPE, conceptUuid));
+                    }
+                }
+                if (!newConceptUuids.isEmpty()) {
+                    observations.addAll(observationService.downloadObservations(knownPatientUuids, newConceptUuids, null));
+                }
+                if (!knownConceptUuids.isEmpty()) {
+                    observations.addAll(observationService.downloadObservations(knownPatientUuids, knownConceptUuids, knownConceptsWatermark));
+                }
+            }
+            syncWatermarkStore.setWatermarks(CONCEPT_SCOPE, conceptUuids, syncStartedAt);
+            syncWatermarkStore.setWatermarksIfAbsent(CONCEPT_ADDED_SCOPE, conceptUuids, syncStartedAt);
             return observations;
         } catch (IOException e) {
             throw new DownloadObservationException(e);
         }
     }
 
-    private ArrayList<String> getAllUuids(List<String> knownUuids, List<String> newUuids) {
-        HashSet<String> allUuids = new HashSet<String>(knownUuids);
-        allUuids.addAll(newUuids);
-        ArrayList<String> sortedUuids = new ArrayList<String>(allUuids);
-        Collections.sort(sortedUuids);
-        return sortedUuids;
+    public Date getSyncStartTime() {
+        return sntpService.getLocalTime();
     }
 
-    private List<String> getNewUuids(List<String> patientUuids, List<String> knownPatientsUuid) {
-        List<String> newPatientsUuids = new ArrayList<String>();
-        newPatientsUuids.addAll(patientUuids);
-        newPatientsUuids.removeAll(knownPatientsUuid);
-        return newPatientsUuids;
+    /**
+     * Advances the watermark of the given patients. Only call it once every concept slice of these patients was
+     * downloaded since {@code syncStartedAt}, otherwise the remaining slices would be fetched incrementally and miss
+     * the history of patients that are new to this device.
+     */
+    public void markPatientsSynced(List<String> patientUuids, Date syncStartedAt) {
+        syncWatermarkStore.setWatermarks(PATIENT_SCOPE, patientUuids, syncStartedAt);
     }
 
-    private boolean isFirstCallToDownloadObservationsEver(LastSyncTime fullLastSyncTimeInfo) {
-        return fullLastSyncTimeInfo == null;
-    }
-
-    private boolean hasExactCallBeenMadeBefore(Date lastSyncTime) {
-        return lastSyncTime != null;
+    private synchronized void migrateLegacyParamSignature() throws IOException {
+        if (legacyParamSignatureMigrated) {
+            return;
+        }
+        if (syncWatermarkStore.isEmpty()) {
+            LastSyncTime legacyLastSyncTime = lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_OBSERVATIONS);
+            if (legacyLastSyncTime != null && legacyLastSyncTime.getParamSignature() != null) {
+                String[] parameterSplit = legacyLastSyncTime.getParamSignature().split(UUID_TYPE_SEPARATOR, -1);
+                Date legacyWatermark = legacyLastSyncTime.getLastSyncDate();
+                List<String> knownPatientUuids = asList(parameterSplit[0].split(UUID_SEPARATOR));
+                syncWatermarkStore.setWatermarks(PATIENT_SCOPE, knownPatientUuids, legacyWatermark);
+                if (parameterSplit.length > 1) {
+                    List<String> knownConceptUuids = asList(parameterSplit[1].split(UUID_SEPARATOR));
+                    syncWatermarkStore.setWatermarks(CONCEPT_SCOPE, knownConceptUuids, legacyWatermark);
+                    syncWatermarkStore.setWatermarks(CONCEPT_ADDED_SCOPE, knownConceptUuids, legacyWatermark);
+                }
+            }
+        }
+        legacyParamSignatureMigrated = true;
     }
 
-    private String buildParamSignature(List<String> patientUuids, List<String> conceptUuids) {
-        String paramSignature = StringUtils.getCommaSeparatedStringFromList(patientUuids);
-        paramSignature += UUID_TYPE_SEPARATOR;
-        paramSignature += StringUtils.getCommaSeparatedStringFromList(conceptUuids);
-        return paramSignature;
+    private Date earliest(Date date, Date anotherDate) {
+        if (date == null || (anotherDate != null && anotherDate.before(date))) {
+            return anotherDate;
+        }
+        return date;
     }
 
     public void saveObservations(List<Observation> observations) throws SaveObservationException {
@@ -238,6 +268,14 @@ public class ObservationController {
         }
     }
 
+    public void deleteObservationsByFormData(String formDataUuid) throws DeleteObservationException {
+        try {
+            observationService.deleteObservationsByFormData(formDataUuid);
+        } catch (IOException e) {
+            throw new DeleteObservationException(e);
+        }
+    }
+
     public static class LoadObservationException extends Throwable {
         public LoadObservationException(Throwable e) {
             super(e);
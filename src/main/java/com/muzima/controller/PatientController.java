@@ -9,6 +9,7 @@
 package com.muzima.controller;
 
 import android.util.Log;
+import com.muzima.api.model.Cohort;
 import com.muzima.api.model.CohortMember;
 import com.muzima.api.model.Patient;
 import com.muzima.api.model.PatientIdentifier;
@@ -19,7 +20,9 @@ import org.apache.lucene.queryParser.ParseException;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static com.muzima.utils.Constants.LOCAL_PATIENT;
 
@@ -28,17 +31,36 @@ public class PatientController {
     public static final String TAG = "PatientController";
     private PatientService patientService;
     private CohortService cohortService;
+    private volatile int patientDataGeneration;
 
     public PatientController(PatientService patientService, CohortService cohortService) {
         this.patientService = patientService;
         this.cohortService = cohortService;
     }
 
+    /**
+     * Changes whenever patients are written or the data is reset, so whatever was derived from earlier reads
+     * (like the results kept by {@link PatientSearchEngine}) can tell it is out of date.
+     */
+    public int getPatientDataGeneration() {
+        return patientDataGeneration;
+    }
+
+    public void clearCaches() {
+        patientsChanged();
+    }
+
+    private synchronized void patientsChanged() {
+        patientDataGeneration++;
+    }
+
     public void replacePatients(List<Patient> patients) throws PatientSaveException {
         try {
             patientService.updatePatients(patients);
         } catch (IOException e) {
             throw new PatientSaveException(e);
+        } finally {
+            patientsChanged();
         }
     }
 
@@ -51,6 +73,30 @@ public class PatientController {
         }
     }
 
+    /**
+     * Opens a cursor over the patients of the cohort, or over all patients when the cohort is null. Only the
+     * cohort members are read up front, the patients themselves are loaded page by page.
+     */
+    public PatientCursor getPatientCursor(String cohortId) throws PatientLoadException {
+        try {
+            if (cohortId != null) {
+                return new PatientCursor(patientService, cohortService.getCohortMembers(cohortId), false);
+            }
+            List<CohortMember> cohortMembers = new ArrayList<CohortMember>();
+            Set<String> patientUuids = new HashSet<String>();
+            for (Cohort cohort : cohortService.getAllCohorts()) {
+                for (CohortMember cohortMember : cohortService.getCohortMembers(cohort.getUuid())) {
+                    if (patientUuids.add(cohortMember.getPatientUuid())) {
+                        cohortMembers.add(cohortMember);
+                    }
+                }
+            }
+            return new PatientCursor(patientService, cohortMembers, true);
+        } catch (IOException e) {
+            throw new PatientLoadException(e);
+        }
+    }
+
     public List<Patient> getAllPatients() throws PatientLoadException {
         try {
             return patientService.getAllPatients();
@@ -143,6 +189,8 @@ public class PatientController {
         } catch (IOException e) {
             Log.e(TAG, "Error while saving the patient : " + patient.getUuid(), e);
             throw new PatientSaveException(e);
+        } finally {
+            patientsChanged();
         }
     }
 
@@ -152,6 +200,8 @@ public class PatientController {
         } catch (IOException e) {
             Log.e(TAG, "Error while updating the patient : " + patient.getUuid(), e);
             throw new PatientSaveException(e);
+        } finally {
+            patientsChanged();
         }
     }
 
@@ -161,6 +211,8 @@ public class PatientController {
         } catch (IOException e) {
             Log.e(TAG, "Error while saving the patient list", e);
             throw new PatientSaveException(e);
+        } finally {
+            patientsChanged();
         }
     }
 
@@ -169,6 +221,8 @@ public class PatientController {
             patientService.deletePatient(localPatient);
         } catch (IOException e) {
             Log.e(TAG, "Error while deleting local patient : " + localPatient.getUuid(), e);
+        } finally {
+            patientsChanged();
         }
     }
 
@@ -178,6 +232,8 @@ public class PatientController {
         } catch (IOException e) {
             Log.e(TAG, "Error while deleting local patients ", e);
             throw new PatientDeleteException(e);
+        } finally {
+            patientsChanged();
         }
     }
 
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.controller;
+
+import com.muzima.api.model.CohortMember;
+import com.muzima.api.model.Patient;
+import com.muzima.api.service.PatientService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Walks a snapshot of cohort members and loads their patients one page at a time. A cursor over all patients
+ * finishes with the patients that belong to no cohort.
+ */
+public class PatientCursor {
+    private final PatientService patientService;
+    private final List<CohortMember> cohortMembers;
+    private boolean patientsNotInCohortsPending;
+    private int position;
+
+    PatientCursor(PatientService patientService, List<CohortMember> cohortMembers, boolean includePatientsNotInCohorts) {
+        this.patientService = patientService;
+        this.cohortMembers = cohortMembers;
+        this.patientsNotInCohortsPending = includePatientsNotInCohorts;
+    }
+
+    public synchronized boolean hasMore() {
+        return position < cohortMembers.size() || patientsNotInCohortsPending;
+    }
+
+    public synchronized List<Patient> nextPage(int pageSize) throws PatientController.PatientLoadException {
+        try {
+            List<Patient> patients = new ArrayList<Patient>();
+            // members whose patient is not stored locally yield nothing, so keep going until the page has something
+            while (patients.isEmpty() && position < cohortMembers.size()) {
+                int end = Math.min(position + pageSize, cohortMembers.size());
+                patients.addAll(patientService.getPatientsFromCohortMembers(new ArrayList<CohortMember>(cohortMembers.subList(position, end))));
+                position = end;
+            }
+            if (patients.isEmpty() && patientsNotInCohortsPending) {
+                patientsNotInCohortsPending = false;
+                patients.addAll(patientService.getPatientsNotInCohorts());
+            }
+            return patients;
+        } catch (IOException e) {
+            throw new PatientController.PatientLoadException(e);
+        }
+    }
+}
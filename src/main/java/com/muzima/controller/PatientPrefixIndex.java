@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.controller;
+
+import com.muzima.api.model.Patient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Sorted index of the normalized name and identifier tokens of a fixed list of patients, so the patients having a
+ * token with a given prefix are found with a binary search instead of a scan.
+ */
+class PatientPrefixIndex {
+    private final List<Patient> patients;
+    private final String[] tokens;
+    private final int[] patientPositions;
+
+    PatientPrefixIndex(List<Patient> patients) {
+        this.patients = new ArrayList<Patient>(patients);
+        List<Token> allTokens = new ArrayList<Token>();
+        for (int position = 0; position < this.patients.size(); position++) {
+            Patient patient = this.patients.get(position);
+            addTokens(allTokens, patient.getGivenName(), position);
+            addTokens(allTokens, patient.getMiddleName(), position);
+            addTokens(allTokens, patient.getFamilyName(), position);
+            addTokens(allTokens, patient.getIdentifier(), position);
+        }
+        Token[] sortedTokens = allTokens.toArray(new Token[allTokens.size()]);
+        Arrays.sort(sortedTokens);
+        tokens = new String[sortedTokens.length];
+        patientPositions = new int[sortedTokens.length];
+        for (int i = 0; i < sortedTokens.length; i++) {
+            tokens[i] = sortedTokens[i].text;
+            patientPositions[i] = sortedTokens[i].patientPosition;
+        }
+    }
+
+    List<Patient> getPatients() {
+        return new ArrayList<Patient>(patients);
+    }
+
+    /**
+     * Returns the patients with a token starting with the normalized prefix, in the order they were indexed.
+     */
+    List<Patient> getPatientsWithPrefix(String prefix) {
+        BitSet matches = new BitSet(patients.size());
+        for (int i = firstTokenNotBefore(prefix); i < tokens.length && tokens[i].startsWith(prefix); i++) {
+            matches.set(patientPositions[i]);
+        }
+        List<Patient> matchingPatients = new ArrayList<Patient>(matches.cardinality());
+        for (int position = matches.nextSetBit(0); position >= 0; position = matches.nextSetBit(position + 1)) {
+            matchingPatients.add(patients.get(position));
+        }
+        return matchingPatients;
+    }
+
+    private int firstTokenNotBefore(String prefix) {
+        int low = 0;
+        int high = tokens.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens[middle].compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.US);
+    }
+
+    private static void addTokens(List<Token> allTokens, String text, int patientPosition) {
+        String normalized = normalize(text);
+        if (normalized.length() == 0) {
+            return;
+        }
+        // the whole value is a token too, so prefixes spanning punctuation such as "o'b" or "1234-5" still match
+        allTokens.add(new Token(normalized, patientPosition));
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean tokenChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                allTokens.add(new Token(normalized.substring(start, i), patientPosition));
+                start = -1;
+            }
+        }
+    }
+
+    private static class Token implements Comparable<Token> {
+        private final String text;
+        private final int patientPosition;
+
+        private Token(String text, int patientPosition) {
+            this.text = text;
+            this.patientPosition = patientPosition;
+        }
+
+        @Override
+        public int compareTo(Token other) {
+            return text.compareTo(other.text);
+        }
+    }
+}
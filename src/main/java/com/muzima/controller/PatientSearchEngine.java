@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.controller;
+
+import com.muzima.api.model.Patient;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * As-you-type local patient search. The first term of a refinement runs the index query and the patients it finds
+ * are indexed by name and identifier prefix, so longer terms starting with it are answered by narrowing those
+ * patients in memory. Terms of more than one word always run the index query. The indexed results are dropped once
+ * patients were written or the data was reset.
+ */
+public class PatientSearchEngine {
+    private static final int MAX_CACHED_TERMS = 16;
+
+    private final PatientController patientController;
+    private final String cohortUuid;
+    private final Map<String, PatientPrefixIndex> indexesByTerm = new LinkedHashMap<String, PatientPrefixIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PatientPrefixIndex> eldest) {
+            return size() > MAX_CACHED_TERMS;
+        }
+    };
+
+    private int patientDataGeneration;
+
+    public PatientSearchEngine(PatientController patientController, String cohortUuid) {
+        this.patientController = patientController;
+        this.cohortUuid = cohortUuid;
+        patientDataGeneration = patientController.getPatientDataGeneration();
+    }
+
+    public synchronized List<Patient> search(String term) throws PatientController.PatientLoadException {
+        int generation = patientController.getPatientDataGeneration();
+        if (generation != patientDataGeneration) {
+            indexesByTerm.clear();
+            patientDataGeneration = generation;
+        }
+        String normalizedTerm = PatientPrefixIndex.normalize(term);
+        if (isSingleWord(normalizedTerm)) {
+            PatientPrefixIndex index = indexesByTerm.get(normalizedTerm);
+            if (index != null) {
+                return index.getPatients();
+            }
+            index = findIndexForRefinementOf(normalizedTerm);
+            if (index != null) {
+                return index.getPatientsWithPrefix(normalizedTerm);
+            }
+        }
+        List<Patient> patients = patientController.searchPatientLocally(term, cohortUuid);
+        if (isSingleWord(normalizedTerm)) {
+            indexesByTerm.put(normalizedTerm, new PatientPrefixIndex(patients));
+        }
+        return patients;
+    }
+
+    /**
+     * Forgets the indexed results, for when the patients may have changed.
+     */
+    public synchronized void clear() {
+        indexesByTerm.clear();
+    }
+
+    private PatientPrefixIndex findIndexForRefinementOf(String normalizedTerm) {
+        for (int length = normalizedTerm.length() - 1; length > 0; length--) {
+            PatientPrefixIndex index = indexesByTerm.get(normalizedTerm.substring(0, length));
+            if (index != null) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSingleWord(String normalizedTerm) {
+        if (normalizedTerm.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < normalizedTerm.length(); i++) {
+            if (Character.isWhitespace(normalizedTerm.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
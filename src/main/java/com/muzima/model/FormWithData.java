@@ -14,6 +14,7 @@ public abstract class FormWithData extends BaseForm {
     private String formDataUuid;
     private String lastModifiedDate;
     private Patient patient;
+    private String uploadOutcome;
 
     public String getLastModifiedDate() {
         return lastModifiedDate;
@@ -38,4 +39,12 @@ public abstract class FormWithData extends BaseForm {
     public void setPatient(Patient patient) {
         this.patient = patient;
     }
+
+    public String getUploadOutcome() {
+        return uploadOutcome;
+    }
+
+    public void setUploadOutcome(String uploadOutcome) {
+        this.uploadOutcome = uploadOutcome;
+    }
 }
@@ -37,6 +37,11 @@ public abstract class FormWithDataBuilder<B extends FormWithDataBuilder, F exten
         return (B) this;
     }
 
+    public B withUploadOutcome(String uploadOutcome) {
+        formWithData.setUploadOutcome(uploadOutcome);
+        return (B) this;
+    }
+
     public F build() {
         return (F) formWithData;
     }
@@ -84,10 +84,7 @@ public class ConceptParser {
     }
 
     private static String getConceptName(String peek) {
-        if (!StringUtils.isEmpty(peek) && peek.split("\\^").length > 1) {
-            return peek.split("\\^")[1].trim();
-        }
-        return "";
+        return StringUtils.getField(peek, '^', 1).trim();
     }
 
     private static boolean endOfModelTag(XmlPullParser parser) throws XmlPullParserException, IOException {
@@ -19,12 +19,14 @@ import android.support.v4.content.LocalBroadcastManager;
 import com.muzima.MuzimaApplication;
 import com.muzima.R;
 import com.muzima.api.model.Patient;
+import com.muzima.controller.FormController;
 import com.muzima.utils.Constants;
 import com.muzima.view.BroadcastListenerActivity;
 import com.muzima.view.cohort.AllCohortsListFragment;
 import com.muzima.view.forms.AllAvailableFormsListFragment;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -41,20 +43,26 @@ public class DataSyncService extends IntentService {
     private final String notificationServiceFinished = "Muzima Sync Service Finished";
     private String notificationMsg;
     private MuzimaSyncService muzimaSyncService;
+    private SyncJournal syncJournal;
 
     public DataSyncService() {
         super("DataSyncService");
+        setIntentRedelivery(true);
     }
 
     @Override
     public void onCreate() {
         super.onCreate();
         muzimaSyncService = ((MuzimaApplication) getApplication()).getMuzimaSyncService();
+        syncJournal = ((MuzimaApplication) getApplication()).getSyncJournal();
         updateNotificationMsg("Sync service started");
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && intent.getIntExtra(DataSyncServiceConstants.SYNC_TYPE, -1) == DataSyncServiceConstants.CANCEL_SYNC) {
+            muzimaSyncService.cancelSync();
+        }
         return super.onStartCommand(intent, flags, startId);
     }
 
@@ -66,6 +74,13 @@ public class DataSyncService extends IntentService {
         broadcastIntent.setAction(BroadcastListenerActivity.MESSAGE_SENT_ACTION);
         broadcastIntent.putExtra(DataSyncServiceConstants.SYNC_TYPE, syncType);
 
+        if (muzimaSyncService.isCancelRequested() && syncType != DataSyncServiceConstants.CANCEL_SYNC) {
+            // queued ahead of the cancel request, so it belongs to the sync being cancelled
+            broadcastIntent.putExtra(DataSyncServiceConstants.SYNC_STATUS, SyncStatusConstants.CANCELLED);
+            LocalBroadcastManager.getInstance(this).sendBroadcast(broadcastIntent);
+            return;
+        }
+
         switch (syncType) {
             case DataSyncServiceConstants.SYNC_FORMS:
                 updateNotificationMsg("Downloading Forms Metadata");
@@ -100,8 +115,16 @@ public class DataSyncService extends IntentService {
                 String[] cohortIds = intent.getStringArrayExtra(DataSyncServiceConstants.COHORT_IDS);
                 updateNotificationMsg("Downloading Patients");
                 if (authenticationSuccessful(credentials, broadcastIntent)) {
-                    downloadPatients(broadcastIntent, cohortIds);
-                    downloadObservationsAndEncounters(broadcastIntent, cohortIds);
+                    syncJournal.startJob(getFullDataJobName(cohortIds));
+                    try {
+                        boolean patientsDownloaded = downloadPatients(broadcastIntent, cohortIds);
+                        boolean patientDataDownloaded = downloadObservationsAndEncounters(broadcastIntent, cohortIds);
+                        if (patientsDownloaded && patientDataDownloaded) {
+                            syncJournal.finishJob();
+                        }
+                    } finally {
+                        syncJournal.detach();
+                    }
                 }
                 break;
             case DataSyncServiceConstants.SYNC_PATIENTS_ONLY:
@@ -120,12 +143,23 @@ public class DataSyncService extends IntentService {
                 break;
             case DataSyncServiceConstants.SYNC_UPLOAD_FORMS:
                 updateNotificationMsg("Uploading Forms");
+                FormObservationService.resumeExtraction(this, ((MuzimaApplication) getApplication()).getFormObservationQueue());
                 if (authenticationSuccessful(credentials, broadcastIntent)) {
-                    int[] result = muzimaSyncService.uploadAllCompletedForms();
+                    int[] result = muzimaSyncService.uploadAllCompletedForms(new FormController.UploadProgressListener() {
+                        @Override
+                        public void onProgress(int processed, int total) {
+                            updateNotificationMsg("Uploading Forms (" + processed + "/" + total + ")");
+                        }
+                    });
                     broadcastIntent.putExtra(DataSyncServiceConstants.SYNC_TYPE, DataSyncServiceConstants.SYNC_UPLOAD_FORMS);
                     prepareBroadcastMsgForFormUpload(broadcastIntent, result, "Uploaded the forms Successfully");
                 }
                 break;
+            case DataSyncServiceConstants.CANCEL_SYNC:
+                muzimaSyncService.clearCancelRequest();
+                updateNotificationMsg("Sync cancelled");
+                broadcastIntent.putExtra(DataSyncServiceConstants.SYNC_STATUS, SyncStatusConstants.CANCELLED);
+                break;
             case DataSyncServiceConstants.DOWNLOAD_PATIENT_ONLY:
                 String[] patientsToBeDownloaded = intent.getStringArrayExtra(DataSyncServiceConstants.PATIENT_UUID_FOR_DOWNLOAD);
                 if (authenticationSuccessful(credentials, broadcastIntent)) {
@@ -173,17 +207,25 @@ public class DataSyncService extends IntentService {
         }
     }
 
-    private void downloadObservationsAndEncounters(Intent broadcastIntent, String[] savedCohortIds) {
+    private boolean downloadObservationsAndEncounters(Intent broadcastIntent, String[] savedCohortIds) {
         int[] resultForObservations = muzimaSyncService.downloadObservationsForPatientsByCohortUUIDs(savedCohortIds);
         broadCastMessageForObservationDownload(broadcastIntent, resultForObservations);
 
         int[] resultForEncounters = muzimaSyncService.downloadEncountersForPatientsByCohortUUIDs(savedCohortIds);
         broadCastMessageForEncounters(broadcastIntent, resultForEncounters);
+        return isSuccess(resultForObservations) && isSuccess(resultForEncounters);
     }
 
-    private void downloadPatients(Intent broadcastIntent, String[] cohortIds) {
+    private boolean downloadPatients(Intent broadcastIntent, String[] cohortIds) {
         int[] resultForPatients = muzimaSyncService.downloadPatientsForCohorts(cohortIds);
         broadCastMessageForPatients(broadcastIntent, resultForPatients);
+        return isSuccess(resultForPatients);
+    }
+
+    private String getFullDataJobName(String[] cohortIds) {
+        String[] sortedCohortIds = cohortIds.clone();
+        Arrays.sort(sortedCohortIds);
+        return "fullData:" + Arrays.toString(sortedCohortIds);
     }
 
     private void broadCastMessageForEncounters(Intent broadcastIntent, int[] resultForEncounters) {
@@ -272,6 +314,12 @@ public class DataSyncService extends IntentService {
                         .setSmallIcon(R.drawable.ic_launcher_logo)
                         .setContentTitle(title)
                         .setContentText(msg);
+        if (notificationServiceRunning.equals(title)) {
+            Intent cancelIntent = new Intent(this, DataSyncService.class)
+                    .putExtra(DataSyncServiceConstants.SYNC_TYPE, DataSyncServiceConstants.CANCEL_SYNC);
+            mBuilder.addAction(R.drawable.ic_cancel, "Cancel sync",
+                    PendingIntent.getService(this, 0, cancelIntent, PendingIntent.FLAG_UPDATE_CURRENT));
+        }
         NotificationManager mNotificationManager =
                 (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
         mNotificationManager.notify(MUZIMA_NOTIFICATION, mBuilder.getNotification());
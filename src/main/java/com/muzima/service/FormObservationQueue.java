@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.content.Context.MODE_PRIVATE;
+import static com.muzima.utils.Constants.FORM_OBSERVATION_QUEUE_PREF;
+
+/**
+ * Saved forms whose observations are still to be extracted, kept with the number of failed attempts so the
+ * queue outlives both the form activity and the process.
+ */
+public class FormObservationQueue {
+    private final SharedPreferences queueSharedPref;
+
+    public FormObservationQueue(Context context) {
+        queueSharedPref = context.getSharedPreferences(FORM_OBSERVATION_QUEUE_PREF, MODE_PRIVATE);
+    }
+
+    public synchronized void enqueue(String formDataUuid) {
+        queueSharedPref.edit().putInt(formDataUuid, 0).commit();
+    }
+
+    public synchronized List<String> getQueued() {
+        return new ArrayList<String>(queueSharedPref.getAll().keySet());
+    }
+
+    public synchronized boolean isEmpty() {
+        return queueSharedPref.getAll().isEmpty();
+    }
+
+    public synchronized int recordFailure(String formDataUuid) {
+        int attempts = queueSharedPref.getInt(formDataUuid, 0) + 1;
+        queueSharedPref.edit().putInt(formDataUuid, attempts).commit();
+        return attempts;
+    }
+
+    public synchronized void remove(String formDataUuid) {
+        queueSharedPref.edit().remove(formDataUuid).commit();
+    }
+
+    public synchronized void clear() {
+        queueSharedPref.edit().clear().commit();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+import com.muzima.MuzimaApplication;
+import com.muzima.R;
+import com.muzima.api.model.FormData;
+import com.muzima.controller.FormController;
+
+import static com.muzima.utils.Constants.STATUS_COMPLETE;
+
+/**
+ * Extracts and saves the observations of completed forms after the form itself has been saved, so submitting a
+ * form never waits on the parsers. Work is taken from the {@link FormObservationQueue}; a form that fails is kept
+ * for the next run, which starts with the application or a sync, until it has failed {@link #MAX_ATTEMPTS} times
+ * and the user is told its observations were not recorded.
+ */
+public class FormObservationService extends IntentService {
+    private static final String TAG = "FormObservationService";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int DROPPED_FORM_NOTIFICATION = 1;
+
+    public FormObservationService() {
+        super(TAG);
+        setIntentRedelivery(true);
+    }
+
+    public static void extractObservations(Context context, FormObservationQueue queue, String formDataUuid) {
+        queue.enqueue(formDataUuid);
+        context.startService(new Intent(context, FormObservationService.class));
+    }
+
+    public static void resumeExtraction(Context context, FormObservationQueue queue) {
+        if (!queue.isEmpty()) {
+            context.startService(new Intent(context, FormObservationService.class));
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        MuzimaApplication applicationContext = getMuzimaApplication();
+        FormObservationQueue queue = applicationContext.getFormObservationQueue();
+        for (String formDataUuid : queue.getQueued()) {
+            try {
+                extract(applicationContext, formDataUuid);
+                queue.remove(formDataUuid);
+            } catch (Throwable e) {
+                int attempts = queue.recordFailure(formDataUuid);
+                Log.e(TAG, "Attempt " + attempts + " to extract observations of form data " + formDataUuid + " failed", e);
+                if (attempts >= MAX_ATTEMPTS) {
+                    queue.remove(formDataUuid);
+                    notifyObservationsDropped();
+                }
+            }
+        }
+    }
+
+    private void extract(MuzimaApplication applicationContext, String formDataUuid) throws Throwable {
+        FormController formController = applicationContext.getFormController();
+        // an upload marks the form uploaded and drops its observations under the same lock
+        synchronized (formController.getFormStatusLock()) {
+            FormData formData = formController.getFormDataByUuid(formDataUuid);
+            if (formData == null || !STATUS_COMPLETE.equals(formData.getStatus())) {
+                // reopened as incomplete or already uploaded, in which case its observations were removed on purpose
+                return;
+            }
+            // an earlier attempt or submission of the form may have stored some of them already
+            applicationContext.getObservationController().deleteObservationsByFormData(formDataUuid);
+            if (formData.getPatientUuid() != null) {
+                applicationContext.getEncounterController().deleteEncountersByFormDataUuid(formData.getPatientUuid(), formDataUuid);
+            }
+            parseAndSaveObservations(applicationContext, formData);
+        }
+    }
+
+    protected MuzimaApplication getMuzimaApplication() {
+        return (MuzimaApplication) getApplication();
+    }
+
+    protected void parseAndSaveObservations(MuzimaApplication applicationContext, FormData formData) throws Throwable {
+        if (formData.getXmlPayload() != null) {
+            new FormParser(applicationContext.getPatientController(), applicationContext.getConceptController(),
+                    applicationContext.getEncounterController(), applicationContext.getObservationController())
+                    .parseAndSaveObservations(formData.getXmlPayload(), formData.getUuid());
+        } else {
+            new HTMLFormObservationCreator(applicationContext.getPatientController(), applicationContext.getConceptController(),
+                    applicationContext.getEncounterController(), applicationContext.getObservationController())
+                    .createAndPersistObservations(formData.getJsonPayload(), formData.getUuid());
+        }
+    }
+
+    protected void notifyObservationsDropped() {
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setContentIntent(PendingIntent.getActivity(this, 0, new Intent(), 0))
+                .setSmallIcon(R.drawable.ic_launcher_logo)
+                .setContentTitle("Observations not recorded")
+                .setContentText("A completed form was kept, but its observations will only show once it is uploaded and synced")
+                .setAutoCancel(true);
+        NotificationManager notificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(DROPPED_FORM_NOTIFICATION, builder.getNotification());
+    }
+}
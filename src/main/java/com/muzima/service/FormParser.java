@@ -8,7 +8,6 @@
 
 package com.muzima.service;
 
-import android.util.Log;
 import com.muzima.api.model.Concept;
 import com.muzima.api.model.Encounter;
 import com.muzima.api.model.Observation;
@@ -68,7 +67,8 @@ public class FormParser {
     }
 
     public List<Observation> parseAndSaveObservations(String xml, String formDataUuid) throws XmlPullParserException, IOException,
-            ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+            ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException,
+            EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         parser.setInput(new ByteArrayInputStream(xml.getBytes()), null);
         parser.nextTag();
         while (!isEndOf("form")) {
@@ -87,7 +87,8 @@ public class FormParser {
         return observations;
     }
 
-    private void associatePatientsWithEncountersAndObservations() {
+    private void associatePatientsWithEncountersAndObservations() throws EncounterController.SaveEncounterException,
+            ConceptController.ConceptSaveException, ObservationController.SaveObservationException {
         encounter.setPatient(patient);
 
         for (Observation observation : observations) {
@@ -97,17 +98,9 @@ public class FormParser {
             observation.setUuid(observationParserUtility.getObservationUuid());
         }
 
-        try {
-            encounterController.saveEncounter(encounter);
-            conceptController.saveConcepts(observationParserUtility.getNewConceptList());
-            observationController.saveObservations(observations);
-        } catch (EncounterController.SaveEncounterException e) {
-            Log.e(this.getClass().getSimpleName(), "Saving encounter throwing exception!", e);
-        } catch (ObservationController.SaveObservationException e) {
-            Log.e(this.getClass().getSimpleName(), "Saving encounter throwing exception!", e);
-        } catch (ConceptController.ConceptSaveException e) {
-            Log.e(this.getClass().getSimpleName(), "Saving encounter throwing exception!", e);
-        }
+        encounterController.saveEncounter(encounter);
+        conceptController.saveConcepts(observationParserUtility.getNewConceptList());
+        observationController.saveObservations(observations);
     }
 
     private Patient getPatient(XmlPullParser parser) throws XmlPullParserException, IOException, PatientController.PatientLoadException {
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import com.muzima.api.model.FormTemplate;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+
+import static android.content.Context.MODE_PRIVATE;
+import static com.muzima.utils.Constants.FORM_TEMPLATE_HASH_PREF;
+
+/**
+ * Keeps a digest of the html and model of every stored form template, so a template sync can tell which
+ * templates changed on the server without reading the stored templates back.
+ */
+public class FormTemplateHashStore {
+    private final SharedPreferences hashSharedPref;
+
+    public FormTemplateHashStore(Context context) {
+        hashSharedPref = context.getSharedPreferences(FORM_TEMPLATE_HASH_PREF, MODE_PRIVATE);
+    }
+
+    public boolean isUnchanged(FormTemplate formTemplate) {
+        return hash(formTemplate).equals(hashSharedPref.getString(formTemplate.getUuid(), null));
+    }
+
+    public synchronized void setHashes(Collection<FormTemplate> formTemplates) {
+        SharedPreferences.Editor editor = hashSharedPref.edit();
+        for (FormTemplate formTemplate : formTemplates) {
+            editor.putString(formTemplate.getUuid(), hash(formTemplate));
+        }
+        editor.commit();
+    }
+
+    public synchronized void removeHashes(Collection<String> formTemplateUuids) {
+        SharedPreferences.Editor editor = hashSharedPref.edit();
+        for (String formTemplateUuid : formTemplateUuids) {
+            editor.remove(formTemplateUuid);
+        }
+        editor.commit();
+    }
+
+    public synchronized void clear() {
+        hashSharedPref.edit().clear().commit();
+    }
+
+    static String hash(FormTemplate formTemplate) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            for (String content : new String[]{formTemplate.getHtml(), formTemplate.getModel(), formTemplate.getModelJson()}) {
+                if (content != null) {
+                    messageDigest.update(content.getBytes("UTF-8"));
+                }
+                messageDigest.update((byte) 0);
+            }
+            return new BigInteger(1, messageDigest.digest()).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Collection;
+
+import static android.content.Context.MODE_PRIVATE;
+import static com.muzima.utils.Constants.FORM_UPLOAD_OUTCOME_PREF;
+
+/**
+ * Remembers how the last upload attempt of each completed form ended, so a failed upload can be told apart
+ * from a form that is simply waiting for the next sync. Only failures are kept, the entry of a form goes away
+ * once it is uploaded, saved again or deleted. The server refusing a form does not tell whether it always will,
+ * so a form only counts as permanently rejected after {@link #MAX_REJECTIONS} refusals.
+ */
+public class FormUploadOutcomeStore {
+    public static final String UPLOADED = "uploaded";
+    public static final String RETRYABLE_FAILURE = "retryableFailure";
+    public static final String PERMANENT_FAILURE = "permanentFailure";
+    public static final int MAX_REJECTIONS = 3;
+    private static final String REJECTIONS_SUFFIX = ":rejections";
+
+    private final SharedPreferences outcomeSharedPref;
+
+    public FormUploadOutcomeStore(Context context) {
+        outcomeSharedPref = context.getSharedPreferences(FORM_UPLOAD_OUTCOME_PREF, MODE_PRIVATE);
+    }
+
+    public String getOutcome(String formDataUuid) {
+        return outcomeSharedPref.getString(formDataUuid, null);
+    }
+
+    public synchronized void setOutcome(String formDataUuid, String outcome) {
+        outcomeSharedPref.edit().putString(formDataUuid, outcome).commit();
+    }
+
+    public synchronized String recordRejection(String formDataUuid) {
+        int rejections = outcomeSharedPref.getInt(formDataUuid + REJECTIONS_SUFFIX, 0) + 1;
+        String outcome = rejections >= MAX_REJECTIONS ? PERMANENT_FAILURE : RETRYABLE_FAILURE;
+        outcomeSharedPref.edit()
+                .putInt(formDataUuid + REJECTIONS_SUFFIX, rejections)
+                .putString(formDataUuid, outcome)
+                .commit();
+        return outcome;
+    }
+
+    public synchronized void removeOutcomes(Collection<String> formDataUuids) {
+        SharedPreferences.Editor editor = outcomeSharedPref.edit();
+        for (String formDataUuid : formDataUuids) {
+            editor.remove(formDataUuid);
+            editor.remove(formDataUuid + REJECTIONS_SUFFIX);
+        }
+        editor.commit();
+    }
+
+    public synchronized void clear() {
+        outcomeSharedPref.edit().clear().commit();
+    }
+}
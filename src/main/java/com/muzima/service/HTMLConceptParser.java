@@ -9,34 +9,185 @@
 package com.muzima.service;
 
 import com.muzima.utils.StringUtils;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+/**
+ * Collects the concept names of the data-concept attributes on every element but divs, scanning the start
+ * tags of the template in one pass instead of building a document for it.
+ */
 public class HTMLConceptParser {
     public static final String DATA_CONCEPT_TAG = "data-concept";
+    // elements whose content is text, so a '<' inside them never starts a tag
+    private static final String[] RAW_TEXT_ELEMENTS = {"script", "style", "textarea", "title"};
 
     public List<String> parse(String html) {
         Set<String> concepts = new HashSet<String>();
-        Document htmlDoc = Jsoup.parse(html);
-        //Select all elements containing data-concept attr and is not a div.
-        Elements elements = htmlDoc.select("*:not(div)[" + DATA_CONCEPT_TAG + "]");
-        for (Element element : elements) {
-            concepts.add(getConceptName(element.attr(DATA_CONCEPT_TAG)));
+        if (html == null) {
+            return new ArrayList<String>();
+        }
+        int length = html.length();
+        int position = html.indexOf('<');
+        while (position >= 0) {
+            if (html.startsWith("<!--", position)) {
+                int commentEnd = html.indexOf("-->", position + 4);
+                position = commentEnd < 0 ? -1 : html.indexOf('<', commentEnd + 3);
+                continue;
+            }
+            int nameStart = position + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < length && isTagNameChar(html.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            if (nameEnd == nameStart || !Character.isLetter(html.charAt(nameStart))) {
+                // an end tag, a doctype or a stray '<' in text
+                position = html.indexOf('<', nameStart);
+                continue;
+            }
+            String tagName = html.substring(nameStart, nameEnd);
+            position = readAttributes(html, nameEnd, !"div".equalsIgnoreCase(tagName), concepts);
+            if (isRawTextElement(tagName)) {
+                position = endOfRawText(html, position, tagName);
+            }
+            position = html.indexOf('<', position);
         }
         return new ArrayList<String>(concepts);
     }
 
-    private static String getConceptName(String conceptName) {
-        if (!StringUtils.isEmpty(conceptName) && conceptName.split("\\^").length > 1) {
-            return conceptName.split("\\^")[1];
+    private static int readAttributes(String html, int position, boolean collect, Set<String> concepts) {
+        int length = html.length();
+        while (position < length) {
+            char c = html.charAt(position);
+            if (c == '>') {
+                return position + 1;
+            }
+            if (Character.isWhitespace(c) || c == '/') {
+                position++;
+                continue;
+            }
+            int nameStart = position;
+            while (position < length && !isAttributeNameEnd(html.charAt(position))) {
+                position++;
+            }
+            String name = html.substring(nameStart, position);
+            position = skipWhitespace(html, position);
+            String value = "";
+            if (position < length && html.charAt(position) == '=') {
+                position = skipWhitespace(html, position + 1);
+                if (position < length && (html.charAt(position) == '"' || html.charAt(position) == '\'')) {
+                    int valueEnd = html.indexOf(html.charAt(position), position + 1);
+                    if (valueEnd < 0) {
+                        valueEnd = length;
+                    }
+                    value = html.substring(position + 1, valueEnd);
+                    position = valueEnd + 1;
+                } else {
+                    int valueStart = position;
+                    while (position < length && !Character.isWhitespace(html.charAt(position)) && html.charAt(position) != '>') {
+                        position++;
+                    }
+                    value = html.substring(valueStart, position);
+                }
+            }
+            if (collect && DATA_CONCEPT_TAG.equalsIgnoreCase(name)) {
+                concepts.add(getConceptName(decodeEntities(value)));
+            }
+        }
+        return length;
+    }
+
+    private static int endOfRawText(String html, int position, String tagName) {
+        int length = html.length();
+        while (position >= 0 && position < length) {
+            position = html.indexOf("</", position);
+            if (position < 0 || html.regionMatches(true, position + 2, tagName, 0, tagName.length())) {
+                return position < 0 ? length : position;
+            }
+            position += 2;
+        }
+        return length;
+    }
+
+    private static String decodeEntities(String value) {
+        int ampersand = value.indexOf('&');
+        if (ampersand < 0) {
+            return value;
+        }
+        StringBuilder decoded = new StringBuilder(value.length());
+        int copiedUpTo = 0;
+        while (ampersand >= 0) {
+            int semicolon = value.indexOf(';', ampersand);
+            String replacement = semicolon < 0 ? null : decodeEntity(value.substring(ampersand + 1, semicolon));
+            if (replacement != null) {
+                decoded.append(value, copiedUpTo, ampersand).append(replacement);
+                copiedUpTo = semicolon + 1;
+            }
+            ampersand = value.indexOf('&', ampersand + 1);
+        }
+        return decoded.append(value, copiedUpTo, value.length()).toString();
+    }
+
+    private static String decodeEntity(String entity) {
+        if (entity.equals("amp")) {
+            return "&";
+        } else if (entity.equals("lt")) {
+            return "<";
+        } else if (entity.equals("gt")) {
+            return ">";
+        } else if (entity.equals("quot")) {
+            return "\"";
+        } else if (entity.equals("apos")) {
+            return "'";
+        } else if (entity.equals("nbsp")) {
+            return "\u00A0";
+        }
+        try {
+            if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                return fromCodePoint(Integer.parseInt(entity.substring(2), 16));
+            } else if (entity.startsWith("#")) {
+                return fromCodePoint(Integer.parseInt(entity.substring(1)));
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return null;
+    }
+
+    private static String fromCodePoint(int codePoint) {
+        if (!Character.isValidCodePoint(codePoint) || (codePoint >= 0xD800 && codePoint <= 0xDFFF)) {
+            return null;
+        }
+        return new String(Character.toChars(codePoint));
+    }
+
+    private static boolean isRawTextElement(String tagName) {
+        for (String rawTextElement : RAW_TEXT_ELEMENTS) {
+            if (rawTextElement.equalsIgnoreCase(tagName)) {
+                return true;
+            }
         }
-        return "";
+        return false;
+    }
+
+    private static boolean isTagNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == ':' || c == '_';
+    }
+
+    private static boolean isAttributeNameEnd(char c) {
+        return Character.isWhitespace(c) || c == '=' || c == '>' || c == '/';
+    }
+
+    private static int skipWhitespace(String html, int position) {
+        while (position < html.length() && Character.isWhitespace(html.charAt(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    private static String getConceptName(String conceptName) {
+        return StringUtils.getField(conceptName, '^', 1);
     }
 }
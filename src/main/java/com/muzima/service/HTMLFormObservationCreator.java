@@ -8,7 +8,6 @@
 
 package com.muzima.service;
 
-import android.util.Log;
 import com.muzima.api.model.Concept;
 import com.muzima.api.model.Encounter;
 import com.muzima.api.model.Observation;
@@ -41,7 +40,6 @@ public class HTMLFormObservationCreator {
     private Patient patient;
     private Encounter encounter;
     private List<Observation> observations;
-    private String TAG = "HTMLFormObservationCreator";
 
     public HTMLFormObservationCreator(PatientController patientController, ConceptController conceptController,
                                       EncounterController encounterController, ObservationController observationController) {
@@ -52,53 +50,30 @@ public class HTMLFormObservationCreator {
         this.observationParserUtility = new ObservationParserUtility(conceptController);
     }
 
-    public void createAndPersistObservations(String jsonResponse,String formDataUuid) {
-        parseJSONResponse(jsonResponse,formDataUuid);
-        try {
-            saveObservationsAndRelatedEntities();
-        } catch (ConceptController.ConceptSaveException e) {
-            Log.e(TAG, "Error while saving concept", e);
-        } catch (EncounterController.SaveEncounterException e) {
-            Log.e(TAG, "Error while saving Encounter", e);
-        } catch (ObservationController.SaveObservationException e) {
-            Log.e(TAG, "Error while saving Observation", e);
-        } catch (Exception e) {
-            Log.e(TAG, "Unexpected Exception occurred", e);
-        }
+    public void createAndPersistObservations(String jsonResponse, String formDataUuid) throws JSONException, ParseException,
+            PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException,
+            EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
+        parseJSONResponse(jsonResponse, formDataUuid);
+        saveObservationsAndRelatedEntities();
     }
 
     public List<Observation> getObservations() {
         return observations;
     }
 
-    private void parseJSONResponse(String jsonResponse, String formDataUuid) {
-        try {
-            JSONObject responseJSON = new JSONObject(jsonResponse);
-            patient = getPatient(responseJSON.getJSONObject("patient"));
-            encounter = createEncounter(responseJSON.getJSONObject("encounter"),formDataUuid);
-            observations = extractObservationFromJSONObject(responseJSON.getJSONObject("observation"));
-        } catch (PatientController.PatientLoadException e) {
-            Log.e(TAG, "Error while fetching Patient", e);
-        } catch (ConceptController.ConceptFetchException e) {
-            Log.e(TAG, "Error while fetching Concept", e);
-        } catch (JSONException e) {
-            Log.e(TAG, "Error while parsing response JSON", e);
-        } catch (ParseException e) {
-            Log.e(TAG, "Error while parsing response JSON", e);
-        } catch (ConceptController.ConceptSaveException e) {
-            Log.e(TAG, "Error while saving newly created concept", e);
-        }
+    private void parseJSONResponse(String jsonResponse, String formDataUuid) throws JSONException, ParseException,
+            PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+        JSONObject responseJSON = new JSONObject(jsonResponse);
+        patient = getPatient(responseJSON.getJSONObject("patient"));
+        encounter = createEncounter(responseJSON.getJSONObject("encounter"),formDataUuid);
+        observations = extractObservationFromJSONObject(responseJSON.getJSONObject("observation"));
     }
 
     private void saveObservationsAndRelatedEntities() throws EncounterController.SaveEncounterException,
             ObservationController.SaveObservationException, ConceptController.ConceptSaveException {
-        try {
-            encounterController.saveEncounters(asList(encounter));
-            conceptController.saveConcepts(observationParserUtility.getNewConceptList());
-            observationController.saveObservations(observations);
-        } catch (Exception e) {
-            Log.e(TAG, "Error while parsing and storing Observations.", e);
-        }
+        encounterController.saveEncounters(asList(encounter));
+        conceptController.saveConcepts(observationParserUtility.getNewConceptList());
+        observationController.saveObservations(observations);
     }
 
     private List<Observation> extractObservationFromJSONObject(JSONObject jsonObject) throws JSONException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
@@ -18,7 +18,6 @@ import com.muzima.api.model.Concept;
 import com.muzima.api.model.Encounter;
 import com.muzima.api.model.Form;
 import com.muzima.api.model.FormTemplate;
-import com.muzima.api.model.Notification;
 import com.muzima.api.model.Observation;
 import com.muzima.api.model.Patient;
 import com.muzima.controller.CohortController;
@@ -28,14 +27,23 @@ import com.muzima.controller.FormController;
 import com.muzima.controller.NotificationController;
 import com.muzima.controller.ObservationController;
 import com.muzima.controller.PatientController;
+import com.muzima.utils.BoundedParallelExecutor;
+import com.muzima.utils.VoidedPartition;
 import org.apache.lucene.queryParser.ParseException;
 
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import static com.muzima.utils.Constants.DataSyncServiceConstants.SyncStatusConstants;
 import static com.muzima.utils.Constants.LOCAL_PATIENT;
@@ -43,6 +51,38 @@ import static java.util.Collections.singleton;
 
 public class MuzimaSyncService {
     private static final String TAG = "MuzimaSyncService";
+    private static final long DOWNLOAD_RETRY_BACKOFF_IN_MILLIS = 1000;
+
+    private static final VoidedPartition.VoidedCheck<Form> FORM_VOIDED_CHECK = new VoidedPartition.VoidedCheck<Form>() {
+        @Override
+        public boolean isVoided(Form form) {
+            return form.isVoided();
+        }
+    };
+    private static final VoidedPartition.VoidedCheck<Cohort> COHORT_VOIDED_CHECK = new VoidedPartition.VoidedCheck<Cohort>() {
+        @Override
+        public boolean isVoided(Cohort cohort) {
+            return cohort.isVoided();
+        }
+    };
+    private static final VoidedPartition.VoidedCheck<Patient> PATIENT_VOIDED_CHECK = new VoidedPartition.VoidedCheck<Patient>() {
+        @Override
+        public boolean isVoided(Patient patient) {
+            return patient.isVoided();
+        }
+    };
+    private static final VoidedPartition.VoidedCheck<Observation> OBSERVATION_VOIDED_CHECK = new VoidedPartition.VoidedCheck<Observation>() {
+        @Override
+        public boolean isVoided(Observation observation) {
+            return observation.isVoided();
+        }
+    };
+    private static final VoidedPartition.VoidedCheck<Encounter> ENCOUNTER_VOIDED_CHECK = new VoidedPartition.VoidedCheck<Encounter>() {
+        @Override
+        public boolean isVoided(Encounter encounter) {
+            return encounter.isVoided();
+        }
+    };
 
     private MuzimaApplication muzimaApplication;
     private FormController formController;
@@ -53,6 +93,11 @@ public class MuzimaSyncService {
     private final CohortPrefixPreferenceService cohortPrefixPreferenceService;
     private EncounterController encounterController;
     private NotificationController notificationController;
+    private SyncPreferenceService syncPreferenceService;
+    private SyncJournal syncJournal;
+    private final TemplateConceptExtractor templateConceptExtractor = new TemplateConceptExtractor();
+    private volatile BoundedParallelExecutor<?, ?> runningDownloads;
+    private volatile boolean cancelRequested;
 
     public MuzimaSyncService(MuzimaApplication muzimaContext) {
         this.muzimaApplication = muzimaContext;
@@ -64,6 +109,8 @@ public class MuzimaSyncService {
         observationController = muzimaApplication.getObservationController();
         encounterController = muzimaApplication.getEncounterController();
         notificationController = muzimaApplication.getNotificationController();
+        syncPreferenceService = muzimaApplication.getSyncPreferenceService();
+        syncJournal = muzimaApplication.getSyncJournal();
     }
 
     public int authenticate(String[] credentials) {
@@ -121,15 +168,17 @@ public class MuzimaSyncService {
             long startDownloadForms = System.currentTimeMillis();
             List<Form> forms = formController.downloadAllForms();
             long endDownloadForms = System.currentTimeMillis();
-            List<Form> voidedForms = deleteVoidedForms(forms);
-            forms.removeAll(voidedForms);
-            formController.updateAllForms(forms);
+            VoidedPartition<Form> partition = new VoidedPartition<Form>(forms, FORM_VOIDED_CHECK);
+            formController.deleteForms(partition.getVoided());
+            Log.i(TAG, "Voided forms are deleted");
+            List<Form> liveForms = partition.getLive();
+            formController.updateAllForms(liveForms);
             long endSaveForms = System.currentTimeMillis();
             Log.d(TAG, "In downloading forms: " + (endDownloadForms - startDownloadForms) / 1000 + " sec\n" +
                     "In replacing forms: " + (endDownloadForms - endSaveForms) / 1000 + " sec");
 
             result[0] = SyncStatusConstants.SUCCESS;
-            result[1] = forms.size();
+            result[1] = liveForms.size();
 
         } catch (FormController.FormFetchException e) {
             Log.e(TAG, "Exception when trying to download forms", e);
@@ -147,18 +196,6 @@ public class MuzimaSyncService {
         return result;
     }
 
-    private List<Form> deleteVoidedForms(List<Form> forms) throws FormController.FormDeleteException {
-        Log.i(TAG, "Voided forms are deleted");
-        List<Form> voidedForms = new ArrayList<Form>();
-        for( Form form : forms){
-            if(form.isVoided()){
-                voidedForms.add(form);
-            }
-        }
-        formController.deleteForms(voidedForms);
-        return voidedForms;
-    }
-
     public int[] downloadFormTemplates(String[] formIds) {
         int[] result = new int[3];
 
@@ -183,9 +220,13 @@ public class MuzimaSyncService {
             Log.e(TAG, "Exception when trying to download forms", e);
             result[0] = SyncStatusConstants.DOWNLOAD_ERROR;
             return result;
-        } catch (ConceptController.ConceptDownloadException e) {
-            Log.e(TAG, "Exception while parsing Concepts", e);
-            result[0] = SyncStatusConstants.DOWNLOAD_ERROR;
+        } catch (BoundedParallelExecutor.TaskFailedException e) {
+            Log.e(TAG, "Exception while downloading concept " + e.getKey(), e.getCause());
+            result[0] = isCancelled(e) ? SyncStatusConstants.CANCELLED : SyncStatusConstants.DOWNLOAD_ERROR;
+            return result;
+        } catch (ConceptController.ConceptFetchException e) {
+            Log.e(TAG, "Exception while looking up local concepts", e);
+            result[0] = SyncStatusConstants.LOAD_ERROR;
             return result;
         } catch (ConceptController.ConceptSaveException e) {
             Log.e(TAG, "Exception when trying to download forms", e);
@@ -198,10 +239,12 @@ public class MuzimaSyncService {
     public int[] downloadCohorts() {
         int[] result = new int[3];
         try {
-            List<Cohort> cohorts = downloadCohortsList();
-            List<Cohort> voidedCohorts = deleteVoidedCohorts(cohorts);
-            cohorts.removeAll(voidedCohorts);
+            VoidedPartition<Cohort> partition = new VoidedPartition<Cohort>(downloadCohortsList(), COHORT_VOIDED_CHECK);
+            List<Cohort> voidedCohorts = partition.getVoided();
+            cohortController.deleteCohorts(voidedCohorts);
+            Log.i(TAG, "Voided cohorts are deleted");
 
+            List<Cohort> cohorts = partition.getLive();
             cohortController.saveAllCohorts(cohorts);
             Log.i(TAG, "New cohorts are saved");
             result[0] = SyncStatusConstants.SUCCESS;
@@ -223,30 +266,28 @@ public class MuzimaSyncService {
         return result;
     }
 
-    private List<Cohort> deleteVoidedCohorts(List<Cohort> cohorts) throws CohortController.CohortDeleteException {
-        Log.i(TAG, "Voided cohorts are deleted");
-        List<Cohort> voidedCohorts = new ArrayList<Cohort>();
-        for( Cohort cohort : cohorts){
-            if(cohort.isVoided()){
-                voidedCohorts.add(cohort);
-            }
+    private List<Concept> getRelatedConcepts(List<FormTemplate> formTemplates)
+            throws ConceptController.ConceptFetchException, BoundedParallelExecutor.TaskFailedException {
+        Set<String> names = new LinkedHashSet<String>();
+        for (FormTemplate formTemplate : formTemplates) {
+            names.addAll(templateConceptExtractor.getConceptNames(formTemplate));
         }
-        cohortController.deleteCohorts(voidedCohorts);
-        return voidedCohorts;
-    }
+        names.remove("");
 
-    private List<Concept> getRelatedConcepts(List<FormTemplate> formTemplates) throws ConceptController.ConceptDownloadException {
         HashSet<Concept> concepts = new HashSet<Concept>();
-        ConceptParser xmlParserUtils = new ConceptParser();
-        HTMLConceptParser htmlParserUtils = new HTMLConceptParser();
-        for (FormTemplate formTemplate : formTemplates) {
-            List<String> names = new ArrayList<String>();
-            if (formTemplate.isHTMLForm()) {
-                names = htmlParserUtils.parse(formTemplate.getHtml());
-            } else {
-                names = xmlParserUtils.parse(formTemplate.getModel());
+        BoundedParallelExecutor<String, List<Concept>> downloads = startDownloads(conceptController.getNamesMissingLocally(names),
+                new BoundedParallelExecutor.Task<String, List<Concept>>() {
+                    @Override
+                    public List<Concept> execute(String name) throws Throwable {
+                        return conceptController.downloadConceptsByName(name);
+                    }
+                });
+        try {
+            while (downloads.hasNext()) {
+                concepts.addAll(downloads.next().getValue());
             }
-            concepts.addAll(conceptController.downloadConceptsByNames(names));
+        } finally {
+            finishDownloads(downloads);
         }
         return new ArrayList<Concept>(concepts);
     }
@@ -258,38 +299,55 @@ public class MuzimaSyncService {
         try {
             long startDownloadCohortData = System.currentTimeMillis();
 
-            List<CohortData> cohortDataList = cohortController.downloadCohortData(cohortUuids);
-
-            long endDownloadCohortData = System.currentTimeMillis();
-            Log.i(TAG, "Cohort data download successful with " + cohortDataList.size() + " cohorts");
-            ArrayList<Patient> voidedPatients = new ArrayList<Patient>();
-            List<Patient> cohortPatients;
-            for (CohortData cohortData : cohortDataList) {
-                cohortController.addCohortMembers(cohortData.getCohortMembers());
-                cohortPatients = cohortData.getPatients();
-                getVoidedPatients(voidedPatients, cohortPatients);
-                cohortPatients.removeAll(voidedPatients);
-                patientController.replacePatients(cohortPatients);
-                patientCount += cohortData.getPatients().size();
+            List<String> pendingCohortUuids = getPendingCohortUuids(cohortUuids);
+            Date syncStartedAt = cohortController.getSyncStartTime();
+            BoundedParallelExecutor<String, CohortData> downloads = startDownloads(pendingCohortUuids,
+                    new BoundedParallelExecutor.Task<String, CohortData>() {
+                        @Override
+                        public CohortData execute(String cohortUuid) throws Throwable {
+                            return cohortController.downloadCohortDataByUuid(cohortUuid);
+                        }
+                    });
+            int cohortCount = 0;
+            int voidedPatientCount = 0;
+            try {
+                while (downloads.hasNext()) {
+                    BoundedParallelExecutor.Result<String, CohortData> download = downloads.next();
+                    CohortData cohortData = download.getValue();
+                    cohortController.addCohortMembers(cohortData.getCohortMembers());
+                    VoidedPartition<Patient> partition = new VoidedPartition<Patient>(cohortData.getPatients(), PATIENT_VOIDED_CHECK);
+                    patientController.replacePatients(partition.getLive());
+                    if (!partition.getVoided().isEmpty()) {
+                        patientController.deletePatient(partition.getVoided());
+                    }
+                    cohortController.markCohortDataSynced(download.getKey(), syncStartedAt);
+                    syncJournal.markCompleted(SyncJournal.cohortUnit(download.getKey()));
+                    voidedPatientCount += partition.getVoided().size();
+                    patientCount += partition.getLive().size();
+                    cohortCount++;
+                }
+            } finally {
+                finishDownloads(downloads);
             }
-            patientController.deletePatient(voidedPatients);
             long cohortMemberAndPatientReplaceTime = System.currentTimeMillis();
 
-            Log.i(TAG, "Cohort data replaced");
+            Log.i(TAG, "Cohort data download successful with " + cohortCount + " cohorts");
             Log.i(TAG, "Patients downloaded " + patientCount);
-            Log.d(TAG, "In Downloading cohort data: " + (endDownloadCohortData - startDownloadCohortData) / 1000 + " sec\n" +
-                    "In Replacing cohort members and patients: " + (cohortMemberAndPatientReplaceTime - endDownloadCohortData) / 1000 + " sec");
+            Log.d(TAG, "In Downloading and replacing cohort members and patients: " + (cohortMemberAndPatientReplaceTime - startDownloadCohortData) / 1000 + " sec");
 
             result[0] = SyncStatusConstants.SUCCESS;
             result[1] = patientCount;
-            result[2] = cohortDataList.size();
-            result[3] = voidedPatients.size();
-        } catch (CohortController.CohortDownloadException e) {
-            Log.e(TAG, "Exception thrown while downloading cohort data.", e);
-            result[0] = SyncStatusConstants.DOWNLOAD_ERROR;
+            result[2] = cohortCount;
+            result[3] = voidedPatientCount;
+        } catch (BoundedParallelExecutor.TaskFailedException e) {
+            Log.e(TAG, "Exception thrown while downloading cohort data for " + e.getKey(), e.getCause());
+            result[0] = isCancelled(e) ? SyncStatusConstants.CANCELLED : SyncStatusConstants.DOWNLOAD_ERROR;
         } catch (CohortController.CohortReplaceException e) {
             Log.e(TAG, "Exception thrown while replacing cohort data.", e);
             result[0] = SyncStatusConstants.REPLACE_ERROR;
+        } catch (CohortController.CohortSaveException e) {
+            Log.e(TAG, "Exception thrown while saving cohort sync time.", e);
+            result[0] = SyncStatusConstants.SAVE_ERROR;
         } catch (PatientController.PatientSaveException e) {
             Log.e(TAG, "Exception thrown while replacing patients.", e);
             result[0] = SyncStatusConstants.REPLACE_ERROR;
@@ -300,12 +358,14 @@ public class MuzimaSyncService {
         return result;
     }
 
-    private void getVoidedPatients(ArrayList<Patient> voidedPatients, List<Patient> cohortPatients) {
-        for(Patient patient : cohortPatients){
-            if(patient.isVoided()){
-                voidedPatients.add(patient);
+    private List<String> getPendingCohortUuids(String[] cohortUuids) {
+        List<String> pendingCohortUuids = new ArrayList<String>();
+        for (String cohortUuid : cohortUuids) {
+            if (!syncJournal.isCompleted(SyncJournal.cohortUnit(cohortUuid))) {
+                pendingCohortUuids.add(cohortUuid);
             }
         }
+        return pendingCohortUuids;
     }
 
     public int[] downloadPatients(String[] patientUUIDs) {
@@ -363,35 +423,53 @@ public class MuzimaSyncService {
         try {
             long startDownloadObservations = System.currentTimeMillis();
             List<String> conceptUuidsFromConcepts = getConceptUuidsFromConcepts(conceptController.getConcepts());
-            List<List<String>> slicedPatientUuids = split(patientUuids);
+            Date syncStartedAt = observationController.getSyncStartTime();
             List<List<String>> slicedConceptUuids = split(conceptUuidsFromConcepts);
-
-            List<Observation> allObservations = new ArrayList<Observation>();
-            for (List<String> slicedPatientUuid : slicedPatientUuids) {
-                for (List<String> slicedConceptUuid : slicedConceptUuids) {
-                    allObservations.addAll(
-                            observationController.downloadObservationsByPatientUuidsAndConceptUuids(
-                                    slicedPatientUuid, slicedConceptUuid));
+            List<ObservationSlice> slices = getObservationSlices(split(patientUuids), slicedConceptUuids);
+            Map<List<String>, Integer> pendingConceptSlices = countPendingConceptSlices(slices, slicedConceptUuids.size());
+
+            BoundedParallelExecutor<ObservationSlice, List<Observation>> downloads = startDownloads(slices,
+                    new BoundedParallelExecutor.Task<ObservationSlice, List<Observation>>() {
+                        @Override
+                        public List<Observation> execute(ObservationSlice slice) throws Throwable {
+                            return observationController.downloadObservationsByPatientUuidsAndConceptUuids(
+                                    slice.patientUuids, slice.conceptUuids);
+                        }
+                    });
+            int savedObservationsCount = 0;
+            int voidedObservationsCount = 0;
+            try {
+                while (downloads.hasNext()) {
+                    BoundedParallelExecutor.Result<ObservationSlice, List<Observation>> download = downloads.next();
+                    VoidedPartition<Observation> partition = new VoidedPartition<Observation>(download.getValue(), OBSERVATION_VOIDED_CHECK);
+                    List<Observation> voidedObservations = partition.getVoided();
+                    List<Observation> liveObservations = partition.getLive();
+                    if (!voidedObservations.isEmpty()) {
+                        observationController.deleteObservations(voidedObservations);
+                    }
+                    if (!liveObservations.isEmpty()) {
+                        observationController.replaceObservations(liveObservations);
+                    }
+                    syncJournal.markCompleted(download.getKey().getJournalUnit());
+                    markPatientsSyncedWhenAllConceptSlicesAreDone(download.getKey().patientUuids,
+                            pendingConceptSlices, syncStartedAt);
+                    savedObservationsCount += liveObservations.size();
+                    voidedObservationsCount += voidedObservations.size();
                 }
+            } finally {
+                finishDownloads(downloads);
             }
             long endDownloadObservations = System.currentTimeMillis();
-            Log.i(TAG, "Observations download successful with " + allObservations.size() + " observations");
-            List<Observation> voidedObservations = getVoidedObservations(allObservations);
-            observationController.deleteObservations(voidedObservations);
-            allObservations.removeAll(voidedObservations);
-            Log.i(TAG, "Voided observations delete successful with " + voidedObservations.size() + " observations");
-            observationController.replaceObservations(allObservations);
-            long replacedObservations = System.currentTimeMillis();
-
-            Log.d(TAG, "In Downloading observations : " + (endDownloadObservations - startDownloadObservations) / 1000 + " sec\n" +
-                    "In Replacing observations for patients: " + (replacedObservations - endDownloadObservations) / 1000 + " sec");
+            Log.i(TAG, "Observations download successful with " + savedObservationsCount + " observations");
+            Log.i(TAG, "Voided observations delete successful with " + voidedObservationsCount + " observations");
+            Log.d(TAG, "In Downloading and replacing observations for patients: " + (endDownloadObservations - startDownloadObservations) / 1000 + " sec");
 
             result[0] = SyncStatusConstants.SUCCESS;
-            result[1] = allObservations.size();
-            result[2] = voidedObservations.size();
-        } catch (ObservationController.DownloadObservationException e) {
-            Log.e(TAG, "Exception thrown while downloading observations.", e);
-            result[0] = SyncStatusConstants.DOWNLOAD_ERROR;
+            result[1] = savedObservationsCount;
+            result[2] = voidedObservationsCount;
+        } catch (BoundedParallelExecutor.TaskFailedException e) {
+            Log.e(TAG, "Exception thrown while downloading observations for " + e.getKey(), e.getCause());
+            result[0] = isCancelled(e) ? SyncStatusConstants.CANCELLED : SyncStatusConstants.DOWNLOAD_ERROR;
         } catch (ObservationController.ReplaceObservationException e) {
             Log.e(TAG, "Exception thrown while replacing observations.", e);
             result[0] = SyncStatusConstants.REPLACE_ERROR;
@@ -406,14 +484,95 @@ public class MuzimaSyncService {
         return result;
     }
 
-    private List<Observation> getVoidedObservations(List<Observation> allObservations) {
-        List<Observation> voidedObservations = new ArrayList<Observation>();
-        for(Observation observation : allObservations){
-            if(observation.isVoided()){
-                voidedObservations.add(observation);
+    /**
+     * Cancels the running download or form upload, and every one started until {@link #clearCancelRequest()} is
+     * called.
+     */
+    public void cancelSync() {
+        cancelRequested = true;
+        BoundedParallelExecutor<?, ?> downloads = runningDownloads;
+        if (downloads != null) {
+            downloads.cancel();
+        }
+        formController.cancelUploads();
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public void clearCancelRequest() {
+        cancelRequested = false;
+        formController.clearUploadCancelRequest();
+    }
+
+    private <K, V> BoundedParallelExecutor<K, V> startDownloads(List<K> keys, BoundedParallelExecutor.Task<K, V> task) {
+        BoundedParallelExecutor<K, V> downloads = new BoundedParallelExecutor<K, V>(keys, task,
+                syncPreferenceService.getDownloadThreads(), syncPreferenceService.getDownloadAttempts(),
+                DOWNLOAD_RETRY_BACKOFF_IN_MILLIS);
+        runningDownloads = downloads;
+        if (cancelRequested) {
+            downloads.cancel();
+        }
+        return downloads;
+    }
+
+    private void finishDownloads(BoundedParallelExecutor<?, ?> downloads) {
+        downloads.cancel();
+        if (runningDownloads == downloads) {
+            runningDownloads = null;
+        }
+    }
+
+    private boolean isCancelled(BoundedParallelExecutor.TaskFailedException e) {
+        return e.getCause() instanceof CancellationException || e.getCause() instanceof InterruptedException;
+    }
+
+    private List<ObservationSlice> getObservationSlices(List<List<String>> slicedPatientUuids, List<List<String>> slicedConceptUuids) {
+        List<ObservationSlice> slices = new ArrayList<ObservationSlice>();
+        for (List<String> slicedPatientUuid : slicedPatientUuids) {
+            for (List<String> slicedConceptUuid : slicedConceptUuids) {
+                ObservationSlice slice = new ObservationSlice(slicedPatientUuid, slicedConceptUuid);
+                if (!syncJournal.isCompleted(slice.getJournalUnit())) {
+                    slices.add(slice);
+                }
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * Counts the concept slices still to download for every patient slice. Patient slices that already completed
+     * some concept slices in an interrupted sync are left out, their watermark can't cover this run alone.
+     */
+    private Map<List<String>, Integer> countPendingConceptSlices(List<ObservationSlice> slices, int conceptSliceCount) {
+        Map<List<String>, Integer> pendingConceptSlices = new HashMap<List<String>, Integer>();
+        for (ObservationSlice slice : slices) {
+            Integer pending = pendingConceptSlices.get(slice.patientUuids);
+            pendingConceptSlices.put(slice.patientUuids, pending == null ? 1 : pending + 1);
+        }
+        Iterator<Integer> pendingCounts = pendingConceptSlices.values().iterator();
+        while (pendingCounts.hasNext()) {
+            if (pendingCounts.next() != conceptSliceCount) {
+                pendingCounts.remove();
             }
         }
-        return voidedObservations;
+        return pendingConceptSlices;
+    }
+
+    private void markPatientsSyncedWhenAllConceptSlicesAreDone(List<String> patientUuids,
+                                                               Map<List<String>, Integer> pendingConceptSlices,
+                                                               Date syncStartedAt) {
+        Integer pending = pendingConceptSlices.get(patientUuids);
+        if (pending == null) {
+            return;
+        }
+        if (pending == 1) {
+            pendingConceptSlices.remove(patientUuids);
+            observationController.markPatientsSynced(patientUuids, syncStartedAt);
+        } else {
+            pendingConceptSlices.put(patientUuids, pending - 1);
+        }
     }
 
     public int[] downloadEncountersForPatientsByCohortUUIDs(String[] cohortUuids) {
@@ -433,27 +592,34 @@ public class MuzimaSyncService {
         int[] result = new int[3];
         try {
             long startDownloadEncounters = System.currentTimeMillis();
-            List<Encounter> allEncounters = new ArrayList<Encounter>();
+            int savedEncountersCount = 0;
+            int voidedEncountersCount = 0;
             List<List<String>> slicedPatientUuids = split(patientUuids);
             for (List<String> slicedPatientUuid : slicedPatientUuids) {
-                allEncounters.addAll(encounterController.downloadEncountersByPatientUuids(slicedPatientUuid));
+                String journalUnit = SyncJournal.encounterUnit(slicedPatientUuid);
+                if (syncJournal.isCompleted(journalUnit)) {
+                    continue;
+                }
+                Date syncStartedAt = encounterController.getSyncStartTime();
+                VoidedPartition<Encounter> partition = new VoidedPartition<Encounter>(
+                        encounterController.downloadEncountersByPatientUuids(slicedPatientUuid), ENCOUNTER_VOIDED_CHECK);
+                List<Encounter> encounters = partition.getLive();
+                List<Encounter> voidedEncounters = partition.getVoided();
+                encounterController.deleteEncounters(voidedEncounters);
+                encounterController.replaceEncounters(encounters);
+                encounterController.markPatientsSynced(slicedPatientUuid, syncStartedAt);
+                syncJournal.markCompleted(journalUnit);
+                savedEncountersCount += encounters.size();
+                voidedEncountersCount += voidedEncounters.size();
             }
-            long endDownloadObservations = System.currentTimeMillis();
-            Log.i(TAG, "Encounters download successful with " + allEncounters.size() + " encounters");
-            ArrayList<Encounter> voidedEncounters = getVoidedEncounters(allEncounters);
-            allEncounters.removeAll(voidedEncounters);
-            encounterController.deleteEncounters(voidedEncounters);
-            Log.i(TAG, "Voided encounters delete successful with " + allEncounters.size() + " encounters");
-
-            encounterController.replaceEncounters(allEncounters);
             long replacedEncounters = System.currentTimeMillis();
-
-            Log.d(TAG, "In Downloading encounters : " + (endDownloadObservations - startDownloadEncounters) / 1000 + " sec\n" +
-                    "In Replacing encounters for patients: " + (replacedEncounters - endDownloadObservations) / 1000 + " sec");
+            Log.i(TAG, "Encounters download successful with " + savedEncountersCount + " encounters");
+            Log.i(TAG, "Voided encounters delete successful with " + voidedEncountersCount + " encounters");
+            Log.d(TAG, "In Downloading and replacing encounters for patients: " + (replacedEncounters - startDownloadEncounters) / 1000 + " sec");
 
             result[0] = SyncStatusConstants.SUCCESS;
-            result[1] = allEncounters.size();
-            result[2] = voidedEncounters.size();
+            result[1] = savedEncountersCount;
+            result[2] = voidedEncountersCount;
         } catch (EncounterController.DownloadEncounterException e) {
             Log.e(TAG, "Exception thrown while downloading encounters.", e);
             result[0] = SyncStatusConstants.DOWNLOAD_ERROR;
@@ -467,23 +633,18 @@ public class MuzimaSyncService {
         return result;
     }
 
-    private ArrayList<Encounter> getVoidedEncounters(List<Encounter> allEncounters) {
-        ArrayList<Encounter> voidedEncounters = new ArrayList<Encounter>();
-        for(Encounter encounter : allEncounters){
-            if(encounter.isVoided()){
-                voidedEncounters.add(encounter);
-            }
-        }
-        return voidedEncounters;
-    }
 
     public int[] uploadAllCompletedForms() {
+        return uploadAllCompletedForms(null);
+    }
+
+    public int[] uploadAllCompletedForms(FormController.UploadProgressListener progressListener) {
         int[] result = new int[1];
         try {
-            result[0] = formController.uploadAllCompletedForms() ? SyncStatusConstants.SUCCESS : SyncStatusConstants.UPLOAD_ERROR;
+            result[0] = formController.uploadAllCompletedForms(progressListener) ? SyncStatusConstants.SUCCESS : SyncStatusConstants.UPLOAD_ERROR;
         } catch (FormController.UploadFormDataException e) {
             Log.e(TAG, "Exception thrown while uploading forms.", e);
-            result[0] = SyncStatusConstants.UPLOAD_ERROR;
+            result[0] = e.getCause() instanceof CancellationException ? SyncStatusConstants.CANCELLED : SyncStatusConstants.UPLOAD_ERROR;
         }
         return result;
     }
@@ -580,29 +741,20 @@ public class MuzimaSyncService {
         int[] result = new int[2];
 
         try {
-            List<Notification> notifications;
-            notifications = notificationController.downloadNotificationByReceiver(receiverUuid);
-            Log.i(TAG, "Notifications download successful");
-            notificationController.deleteAllNotifications(receiverUuid);
-            Log.i(TAG, "Old notifications are deleted");
-            notificationController.saveNotifications(notifications);
-            Log.i(TAG, "New notifications are saved");
+            int savedNotifications = notificationController.syncNotificationsByReceiver(receiverUuid);
+            Log.i(TAG, "Changed notifications are saved and voided ones deleted");
 
             result[0] = SyncStatusConstants.SUCCESS;
-            result[1] = notifications.size();
+            result[1] = savedNotifications;
 
         } catch (NotificationController.NotificationDownloadException e) {
             Log.e(TAG, "Exception when trying to download notifications", e);
             result[0] = SyncStatusConstants.DOWNLOAD_ERROR;
             return result;
         } catch (NotificationController.NotificationDeleteException e) {
-            Log.e(TAG, "Exception occurred while deleting existing forms", e);
+            Log.e(TAG, "Exception occurred while deleting voided notifications", e);
             result[0] = SyncStatusConstants.DELETE_ERROR;
             return result;
-        } catch (NotificationController.NotificationFetchException e) {
-            Log.e(TAG, "Exception occurred while fetching existing notifications", e);
-            result[0] = SyncStatusConstants.DOWNLOAD_ERROR;
-            return result;
         } catch (NotificationController.NotificationSaveException e) {
             Log.e(TAG, "Exception when trying to save notifications", e);
             result[0] = SyncStatusConstants.SAVE_ERROR;
@@ -614,4 +766,23 @@ public class MuzimaSyncService {
         }
         return result;
     }
+
+    private static class ObservationSlice {
+        private final List<String> patientUuids;
+        private final List<String> conceptUuids;
+
+        private ObservationSlice(List<String> patientUuids, List<String> conceptUuids) {
+            this.patientUuids = patientUuids;
+            this.conceptUuids = conceptUuids;
+        }
+
+        private String getJournalUnit() {
+            return SyncJournal.observationUnit(patientUuids, conceptUuids);
+        }
+
+        @Override
+        public String toString() {
+            return patientUuids.size() + " patients and " + conceptUuids.size() + " concepts";
+        }
+    }
 }
@@ -26,7 +26,9 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static com.muzima.util.Constants.CONCEPT_CREATED_ON_PHONE;
@@ -37,10 +39,12 @@ public class ObservationParserUtility {
 
     private ConceptController conceptController;
     private List<Concept> newConceptList;
+    private Map<String, Concept> newConceptsByName;
 
     public ObservationParserUtility(ConceptController conceptController) {
         this.conceptController = conceptController;
         this.newConceptList = new ArrayList<Concept>();
+        this.newConceptsByName = new HashMap<String, Concept>();
     }
 
     public Encounter getEncounterEntity(Date encounterDateTime, Patient patient, String formDataUuid) {
@@ -60,7 +64,7 @@ public class ObservationParserUtility {
         if(StringUtil.isEmpty(conceptName)){
             return null;
         }
-        Concept conceptFromExistingList = getConceptFromExistingList(conceptName);
+        Concept conceptFromExistingList = newConceptsByName.get(conceptName);
         if (conceptFromExistingList != null) {
             return conceptFromExistingList;
         }
@@ -68,6 +72,7 @@ public class ObservationParserUtility {
         if (observedConcept == null) {
             observedConcept = buildDummyConcept(conceptName);
             newConceptList.add(observedConcept);
+            newConceptsByName.put(conceptName, observedConcept);
         }
         return observedConcept;
     }
@@ -149,20 +154,8 @@ public class ObservationParserUtility {
         return concept;
     }
 
-    private Concept getConceptFromExistingList(String conceptName) {
-        for (Concept concept : newConceptList) {
-            if (conceptName.equals(concept.getName())) {
-                return concept;
-            }
-        }
-        return null;
-    }
-
     private static String getConceptName(String peek) {
-        if (!StringUtils.isEmpty(peek) && peek.split("\\^").length > 1) {
-            return peek.split("\\^")[1];
-        }
-        return "";
+        return StringUtils.getField(peek, '^', 1);
     }
 
     private String getEncounterUUID() {
@@ -8,19 +8,106 @@
 
 package com.muzima.service;
 
-import java.util.Calendar;
+import android.os.SystemClock;
+import android.util.Log;
+
 import java.util.Date;
-import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Clock backed by a single NTP query whose offset is kept against {@link SystemClock#elapsedRealtime()}, so reading
+ * the time never touches the network. Queries always run in the background: the first one is started by the first
+ * read, which gets the device clock, and later ones once the offset is older than the refresh interval set in the
+ * sync preferences.
+ */
 public class SntpService {
+    private static final String TAG = "SntpService";
+    private static final String NTP_HOST = "0.africa.pool.ntp.org";
+    private static final int NTP_TIMEOUT_IN_MILLIS = 30000;
+    private static final long FAILED_SYNC_RETRY_INTERVAL_IN_MILLIS = 60 * 1000L;
+
+    private final SyncPreferenceService syncPreferenceService;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile NtpReading ntpReading;
+    private volatile boolean syncAttempted;
+    private volatile long lastSyncAttemptAt;
+
+    public SntpService(SyncPreferenceService syncPreferenceService) {
+        this.syncPreferenceService = syncPreferenceService;
+    }
 
     public Date getLocalTime() {
-        long nowAsPerDeviceTimeZone = 0;
-        SntpClient sntpClient = new SntpClient();
+        if (isStale()) {
+            refreshInBackground();
+        }
+        NtpReading reading = ntpReading;
+        if (reading == null) {
+            return new Date(currentTimeMillis());
+        }
+        return new Date(reading.ntpTime + elapsedRealtime() - reading.ntpTimeReference);
+    }
+
+    private boolean isStale() {
+        if (!syncAttempted) {
+            return true;
+        }
+        long retryInterval = ntpReading == null
+                ? FAILED_SYNC_RETRY_INTERVAL_IN_MILLIS : syncPreferenceService.getNtpRefreshIntervalInMillis();
+        return elapsedRealtime() - lastSyncAttemptAt > retryInterval;
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sync();
+                } finally {
+                    refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    private void sync() {
+        SntpClient sntpClient = newSntpClient();
+        if (sntpClient.requestTime(NTP_HOST, NTP_TIMEOUT_IN_MILLIS)) {
+            ntpReading = new NtpReading(sntpClient.getNtpTime(), sntpClient.getNtpTimeReference());
+        } else {
+            Log.w(TAG, "Could not reach " + NTP_HOST + ", keeping the " + (ntpReading == null ? "device clock" : "last NTP time"));
+        }
+        lastSyncAttemptAt = elapsedRealtime();
+        syncAttempted = true;
+    }
+
+    protected SntpClient newSntpClient() {
+        return new SntpClient();
+    }
+
+    protected long elapsedRealtime() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    protected void runInBackground(Runnable runnable) {
+        Thread thread = new Thread(runnable, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static class NtpReading {
+        private final long ntpTime;
+        private final long ntpTimeReference;
 
-        if (sntpClient.requestTime("0.africa.pool.ntp.org", 30000)) {
-            nowAsPerDeviceTimeZone = sntpClient.getNtpTime();
+        private NtpReading(long ntpTime, long ntpTimeReference) {
+            this.ntpTime = ntpTime;
+            this.ntpTimeReference = ntpTimeReference;
         }
-        return new Date(nowAsPerDeviceTimeZone);
     }
 }
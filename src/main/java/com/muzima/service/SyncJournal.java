@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+import static android.content.Context.MODE_PRIVATE;
+import static com.muzima.utils.Constants.SYNC_JOURNAL_PREF;
+
+/**
+ * Remembers which units of a long running sync job have been persisted, so that a job interrupted by
+ * process death or lost connectivity resumes from the last completed unit instead of starting over.
+ */
+public class SyncJournal extends PreferenceService {
+    private static final String JOB_NAME_KEY = "jobName";
+    private static final String JOB_STARTED_AT_KEY = "jobStartedAt";
+    private static final String UNIT_KEY_PREFIX = "unit:";
+    private static final long JOB_EXPIRY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final SharedPreferences journalSharedPref;
+    private volatile boolean active;
+
+    public SyncJournal(Context context) {
+        super(context);
+        journalSharedPref = context.getSharedPreferences(SYNC_JOURNAL_PREF, MODE_PRIVATE);
+    }
+
+    public synchronized void startJob(String jobName) {
+        long startedAt = journalSharedPref.getLong(JOB_STARTED_AT_KEY, 0);
+        boolean sameJob = jobName.equals(journalSharedPref.getString(JOB_NAME_KEY, null));
+        if (!sameJob || System.currentTimeMillis() - startedAt > JOB_EXPIRY_IN_MILLIS) {
+            journalSharedPref.edit()
+                    .clear()
+                    .putString(JOB_NAME_KEY, jobName)
+                    .putLong(JOB_STARTED_AT_KEY, System.currentTimeMillis())
+                    .commit();
+        }
+        active = true;
+    }
+
+    public boolean isCompleted(String unit) {
+        return active && journalSharedPref.getBoolean(UNIT_KEY_PREFIX + unit, false);
+    }
+
+    public synchronized void markCompleted(String unit) {
+        if (active) {
+            journalSharedPref.edit().putBoolean(UNIT_KEY_PREFIX + unit, true).commit();
+        }
+    }
+
+    public synchronized void finishJob() {
+        clear();
+    }
+
+    public synchronized void clear() {
+        journalSharedPref.edit().clear().commit();
+        active = false;
+    }
+
+    public void detach() {
+        active = false;
+    }
+
+    public static String cohortUnit(String cohortUuid) {
+        return "cohort:" + cohortUuid;
+    }
+
+    public static String observationUnit(List<String> patientUuids, List<String> conceptUuids) {
+        return "observations:" + digest(patientUuids) + ":" + digest(conceptUuids);
+    }
+
+    public static String encounterUnit(List<String> patientUuids) {
+        return "encounters:" + digest(patientUuids);
+    }
+
+    private static String digest(List<String> uuids) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            for (String uuid : uuids) {
+                messageDigest.update(uuid.getBytes("UTF-8"));
+                messageDigest.update((byte) ',');
+            }
+            return new BigInteger(1, messageDigest.digest()).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
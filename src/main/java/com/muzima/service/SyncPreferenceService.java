@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import com.muzima.R;
+
+public class SyncPreferenceService extends PreferenceService {
+    private final SharedPreferences settings;
+
+    public SyncPreferenceService(Context context) {
+        super(context);
+        settings = PreferenceManager.getDefaultSharedPreferences(context);
+    }
+
+    public int getDownloadThreads() {
+        return getPositiveInt(R.string.preference_download_threads, R.string.default_download_threads_value);
+    }
+
+    public int getDownloadAttempts() {
+        return getPositiveInt(R.string.preference_download_attempts, R.string.default_download_attempts_value);
+    }
+
+    public long getNtpRefreshIntervalInMillis() {
+        return getPositiveInt(R.string.preference_ntp_refresh_hours, R.string.default_ntp_refresh_hours_value) * 60 * 60 * 1000L;
+    }
+
+    private int getPositiveInt(int keyId, int defaultValueId) {
+        String key = context.getResources().getString(keyId);
+        String defaultValue = context.getResources().getString(defaultValueId);
+        try {
+            return Math.max(1, Integer.valueOf(settings.getString(key, defaultValue)));
+        } catch (NumberFormatException e) {
+            return Integer.valueOf(defaultValue);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Collection;
+import java.util.Date;
+
+import static com.muzima.utils.Constants.SYNC_WATERMARK_DB;
+
+/**
+ * Keeps one sync watermark per uuid for a sync type, so that the delta of a download can be worked out
+ * with a lookup per uuid instead of diffing the full list of uuids seen by previous downloads. The watermarks
+ * are rows of a SQLite table keyed by sync type, scope and uuid, so storing the watermarks of a slice costs
+ * one transaction over that slice, however many watermarks are stored already.
+ */
+public class SyncWatermarkStore {
+    public static final String OBSERVATIONS = "observations";
+    public static final String ENCOUNTERS = "encounters";
+    public static final String NOTIFICATIONS = "notifications";
+
+    private static final int DATABASE_VERSION = 1;
+    private static final String TABLE = "sync_watermark";
+    private static final String SYNC_TYPE = "sync_type";
+    private static final String SCOPE = "scope";
+    private static final String UUID = "uuid";
+    private static final String WATERMARK = "watermark";
+
+    private static WatermarkDatabase database;
+
+    private final SQLiteOpenHelper watermarkDatabase;
+    private final String syncType;
+
+    public SyncWatermarkStore(Context context, String syncType) {
+        this.watermarkDatabase = getDatabase(context);
+        this.syncType = syncType;
+    }
+
+    private static synchronized WatermarkDatabase getDatabase(Context context) {
+        if (database == null) {
+            database = new WatermarkDatabase(context.getApplicationContext());
+        }
+        return database;
+    }
+
+    public Date getWatermark(String scope, String uuid) {
+        Cursor cursor = watermarkDatabase.getReadableDatabase().query(TABLE, new String[]{WATERMARK},
+                SYNC_TYPE + " = ? AND " + SCOPE + " = ? AND " + UUID + " = ?", new String[]{syncType, scope, uuid},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? new Date(cursor.getLong(0)) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public boolean isEmpty() {
+        Cursor cursor = watermarkDatabase.getReadableDatabase().query(TABLE, new String[]{UUID},
+                SYNC_TYPE + " = ?", new String[]{syncType}, null, null, null, "1");
+        try {
+            return !cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void setWatermarks(String scope, Collection<String> uuids, Date watermark) {
+        insert("INSERT OR REPLACE", scope, uuids, watermark);
+    }
+
+    public void setWatermarksIfAbsent(String scope, Collection<String> uuids, Date watermark) {
+        insert("INSERT OR IGNORE", scope, uuids, watermark);
+    }
+
+    private void insert(String insert, String scope, Collection<String> uuids, Date watermark) {
+        SQLiteDatabase db = watermarkDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = db.compileStatement(insert + " INTO " + TABLE
+                    + " (" + SYNC_TYPE + ", " + SCOPE + ", " + UUID + ", " + WATERMARK + ") VALUES (?, ?, ?, ?)");
+            try {
+                for (String uuid : uuids) {
+                    statement.bindString(1, syncType);
+                    statement.bindString(2, scope);
+                    statement.bindString(3, uuid);
+                    statement.bindLong(4, watermark.getTime());
+                    statement.execute();
+                }
+            } finally {
+                statement.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void clear() {
+        watermarkDatabase.getWritableDatabase().delete(TABLE, SYNC_TYPE + " = ?", new String[]{syncType});
+    }
+
+    /**
+     * Drops the watermarks of every sync type along with the database file, for when the application data is wiped.
+     * The database is created again on its next use.
+     */
+    public static void deleteAll(Context context) {
+        getDatabase(context).close();
+        context.deleteDatabase(SYNC_WATERMARK_DB);
+    }
+
+    private static class WatermarkDatabase extends SQLiteOpenHelper {
+        private WatermarkDatabase(Context context) {
+            super(context, SYNC_WATERMARK_DB, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ("
+                    + SYNC_TYPE + " TEXT NOT NULL, "
+                    + SCOPE + " TEXT NOT NULL, "
+                    + UUID + " TEXT NOT NULL, "
+                    + WATERMARK + " INTEGER NOT NULL, "
+                    + "PRIMARY KEY (" + SYNC_TYPE + ", " + SCOPE + ", " + UUID + "))");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import com.muzima.api.model.FormTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts the concept names used by form templates, remembering them by template content so that a
+ * template which has not changed is never parsed twice.
+ */
+public class TemplateConceptExtractor {
+    private static final int MAX_CACHED_TEMPLATES = 64;
+
+    private final HTMLConceptParser htmlConceptParser = new HTMLConceptParser();
+    private final Map<String, List<String>> conceptNamesByTemplateHash = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > MAX_CACHED_TEMPLATES;
+        }
+    };
+
+    public List<String> getConceptNames(FormTemplate formTemplate) {
+        String templateHash = FormTemplateHashStore.hash(formTemplate);
+        List<String> conceptNames;
+        synchronized (conceptNamesByTemplateHash) {
+            conceptNames = conceptNamesByTemplateHash.get(templateHash);
+        }
+        if (conceptNames == null) {
+            if (formTemplate.isHTMLForm()) {
+                conceptNames = htmlConceptParser.parse(formTemplate.getHtml());
+            } else {
+                conceptNames = new ConceptParser().parse(formTemplate.getModel());
+            }
+            synchronized (conceptNamesByTemplateHash) {
+                conceptNamesByTemplateHash.put(templateHash, conceptNames);
+            }
+        }
+        return new ArrayList<String>(conceptNames);
+    }
+}
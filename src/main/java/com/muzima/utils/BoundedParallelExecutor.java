@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.utils;
+
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a task for every key on a fixed size worker pool, keeping at most {@code concurrency} keys in flight.
+ * Completed results are handed back to the calling thread, in completion order, through {@link #next()}.
+ */
+public class BoundedParallelExecutor<K, V> {
+    private static final String TAG = "BoundedParallelExecutor";
+
+    private final Iterator<K> pendingKeys;
+    private final Task<K, V> task;
+    private final int concurrency;
+    private final int maxAttempts;
+    private final long retryBackoffInMillis;
+    private volatile ExecutorService executorService;
+    private CompletionService<Result<K, V>> completionService;
+    private int inFlight;
+    private volatile boolean cancelled;
+    private volatile boolean draining;
+
+    public BoundedParallelExecutor(List<K> keys, Task<K, V> task, int concurrency, int maxAttempts, long retryBackoffInMillis) {
+        this.pendingKeys = keys.iterator();
+        this.task = task;
+        this.concurrency = Math.max(1, concurrency);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffInMillis = retryBackoffInMillis;
+    }
+
+    public boolean hasNext() {
+        submitPendingKeys();
+        return inFlight > 0 || (!draining && pendingKeys.hasNext());
+    }
+
+    public Result<K, V> next() throws TaskFailedException {
+        if (cancelled) {
+            throw new TaskFailedException(null, new CancellationException("Cancelled with " + inFlight + " tasks in flight"));
+        }
+        submitPendingKeys();
+        if (inFlight == 0) {
+            throw new IllegalStateException("No task is in flight");
+        }
+        Result<K, V> result;
+        try {
+            result = completionService.take().get();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new TaskFailedException(null, e);
+        } catch (ExecutionException e) {
+            cancel();
+            throw new TaskFailedException(null, e.getCause());
+        }
+        inFlight--;
+        if (result.error != null) {
+            cancel();
+            throw new TaskFailedException(result.key, result.error);
+        }
+        submitPendingKeys();
+        if (inFlight == 0) {
+            executorService.shutdown();
+        }
+        return result;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Starts no further tasks but, unlike {@link #cancel()}, lets the ones in flight finish so their results can
+     * still be taken.
+     */
+    public void drain() {
+        draining = true;
+    }
+
+    private void submitPendingKeys() {
+        if (cancelled || draining) {
+            return;
+        }
+        if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(concurrency);
+            completionService = new ExecutorCompletionService<Result<K, V>>(executorService);
+        }
+        while (inFlight < concurrency && pendingKeys.hasNext()) {
+            completionService.submit(new Attempts(pendingKeys.next()));
+            inFlight++;
+        }
+    }
+
+    private class Attempts implements Callable<Result<K, V>> {
+        private final K key;
+
+        private Attempts(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public Result<K, V> call() {
+            Throwable error = null;
+            for (int attempt = 1; attempt <= maxAttempts && !cancelled; attempt++) {
+                try {
+                    return new Result<K, V>(key, task.execute(key), null);
+                } catch (Throwable e) {
+                    error = e;
+                    Log.w(TAG, "Attempt " + attempt + " of " + maxAttempts + " failed for " + key, e);
+                }
+                if (attempt < maxAttempts) {
+                    try {
+                        Thread.sleep(retryBackoffInMillis * attempt);
+                    } catch (InterruptedException e) {
+                        return new Result<K, V>(key, null, e);
+                    }
+                }
+            }
+            if (error == null) {
+                error = new CancellationException("Cancelled before completing " + key);
+            }
+            return new Result<K, V>(key, null, error);
+        }
+    }
+
+    public interface Task<K, V> {
+        V execute(K key) throws Throwable;
+    }
+
+    public static class Result<K, V> {
+        private final K key;
+        private final V value;
+        private final Throwable error;
+
+        private Result(K key, V value, Throwable error) {
+            this.key = key;
+            this.value = value;
+            this.error = error;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return value;
+        }
+    }
+
+    public static class TaskFailedException extends Throwable {
+        private final Object key;
+
+        public TaskFailedException(Object key, Throwable throwable) {
+            super(throwable);
+            this.key = key;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+    }
+}
@@ -19,6 +19,11 @@ public class Constants {
     public static final String FORM_TAG_PREF = "FormTagPref";
     public static final String FORM_TAG_PREF_KEY = "FormTagPrefKey";
     public static final String CONCEPT_PREF = "ConceptPref";
+    public static final String SYNC_JOURNAL_PREF = "SyncJournal";
+    public static final String SYNC_WATERMARK_DB = "SyncWatermark.db";
+    public static final String FORM_UPLOAD_OUTCOME_PREF = "FormUploadOutcome";
+    public static final String FORM_TEMPLATE_HASH_PREF = "FormTemplateHash";
+    public static final String FORM_OBSERVATION_QUEUE_PREF = "FormObservationQueue";
     public static final String CONCEPT_PREF_KEY = "ConceptPrefKey";
     public static final String STATUS_INCOMPLETE = "incomplete";
     public static final String STATUS_COMPLETE = "complete";
@@ -60,6 +65,7 @@ public class Constants {
         public static final int SYNC_UPLOAD_FORMS = 8;
         public static final int DOWNLOAD_PATIENT_ONLY = 9;
         public static final int SYNC_NOTIFICATIONS = 10;
+        public static final int CANCEL_SYNC = 11;
 
         public static class SyncStatusConstants {
             public static final int DOWNLOAD_ERROR = 0;
@@ -11,21 +11,32 @@ package com.muzima.utils;
 import android.os.Build;
 import android.os.Environment;
 import android.util.Base64;
+import android.util.Base64InputStream;
 import android.util.Log;
 
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.security.spec.KeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class EnDeCrypt {
 	
@@ -46,46 +57,51 @@ public class EnDeCrypt {
 
     private static SecureRandom random = new SecureRandom();
 
-    private static String DELIMITER = "]";
+    private static final char DELIMITER = ']';
 
+    // marks the binary format: a header of magic, salt and IV followed by the raw cipher text
+    private static final byte[] MAGIC = {'M', 'Z', 'E', 0x01};
 
-    public static void encrypt(File plainFile, String password) {
-        try {
-            File tmpFolder = new File(TEMP_FOLDER);
-            if (!tmpFolder.exists())
-                tmpFolder.mkdirs();
+    private static final int BUFFER_SIZE = 8 * 1024;
 
-            File tempFile = new File(TEMP_FOLDER + plainFile.getName());
-            FileInputStream fis = new FileInputStream(plainFile);
-            FileOutputStream fos = new FileOutputStream(tempFile);
+    // salt and IV of the legacy format are short Base64 strings, anything longer is not a legacy header
+    private static final int MAX_LEGACY_FIELD_LENGTH = 64;
 
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            byte[] iv;
-            byte[] salt;
+    private static final int KEY_CACHE_SIZE = 32;
 
-            salt = generateSalt();
-            iv = generateIv(cipher.getBlockSize());
-            IvParameterSpec ivParams = new IvParameterSpec(iv);
-            SecretKey key = deriveKey(password, salt);
-            cipher.init(Cipher.ENCRYPT_MODE, key, ivParams);
+    // derived keys by a digest of salt and password, most recently used last
+    private static final Map<String, SecretKey> keyCache = new LinkedHashMap<String, SecretKey>(KEY_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SecretKey> eldest) {
+            return size() > KEY_CACHE_SIZE;
+        }
+    };
 
-            byte[] plainFileBytes = new byte[(int) plainFile.length()];
-            fis.read(plainFileBytes);
-            byte[] encryptedStream = cipher.doFinal(plainFileBytes);
+    // new files share one salt per session, so their key is derived once; every file still gets its own IV
+    private static byte[] sessionSalt;
 
-            String cipherText;
-            if (salt != null)
-                cipherText = String.format("%s%s%s%s%s", toBase64(salt), DELIMITER,
-                        toBase64(iv), DELIMITER, toBase64(encryptedStream));
-            else
-                cipherText = toBase64(encryptedStream);
 
-            // write the encrypted stream to file together with salt and IV
-            fos.write(cipherText.getBytes());
+    public static void encrypt(File plainFile, String password) {
+        InputStream plainStream = null;
+        OutputStream encryptedStream = null;
+        try {
+            File tempFile = getTempFile(plainFile);
+            plainStream = new FileInputStream(plainFile);
 
-            // and clean up
-            fos.flush();
-            fos.close();
+            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            byte[] salt = getSessionSalt();
+            byte[] iv = generateIv(cipher.getBlockSize());
+            cipher.init(Cipher.ENCRYPT_MODE, getKey(password, salt), new IvParameterSpec(iv));
+
+            // write the header with salt and IV, then the encrypted stream as it is produced
+            OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE);
+            fileStream.write(MAGIC);
+            fileStream.write(salt);
+            fileStream.write(iv);
+            encryptedStream = new CipherOutputStream(fileStream, cipher);
+            copy(plainStream, encryptedStream);
+            encryptedStream.close();
+            encryptedStream = null;
 
             // remove the temporary file by transferring the file as appropriate
             tempFile.renameTo(new File(plainFile.getAbsolutePath()));
@@ -93,54 +109,166 @@ public class EnDeCrypt {
 
         } catch (Exception e) {
             Log.e(TAG, e.getMessage(), e);
+        } finally {
+            closeQuietly(plainStream);
+            closeQuietly(encryptedStream);
         }
     }
 
     public static void decrypt(File encryptedFile, String password) {
+        InputStream plainStream = null;
+        OutputStream fos = null;
         try {
-            File tmpFolder = new File(TEMP_FOLDER);
-            if (!tmpFolder.exists())
-                tmpFolder.mkdirs();
-
-            File tempFile = new File(TEMP_FOLDER + encryptedFile.getName());
-            FileOutputStream fos = new FileOutputStream(tempFile);
-
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(encryptedFile));
-            StringBuilder builder = new StringBuilder();
-            String cipherText;
-            String line;
-            while ( (line = bufferedReader.readLine()) != null ) {
-                builder.append(line);
+            File tempFile = getTempFile(encryptedFile);
+            plainStream = openDecryptedStream(encryptedFile, password);
+            fos = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE);
+            copy(plainStream, fos);
+            fos.close();
+            fos = null;
+
+            tempFile.renameTo(encryptedFile);
+            Log.i(TAG, "Decrypted " + encryptedFile.getAbsolutePath());
+        } catch (Exception e) {
+            Log.e(TAG, e.getMessage(), e);
+        } finally {
+            closeQuietly(plainStream);
+            closeQuietly(fos);
+        }
+    }
+
+    /**
+     * Opens a stream of the plain content of a file encrypted either in the current binary format or in the
+     * legacy Base64 format, without decrypting the whole file in memory.
+     */
+    public static InputStream openDecryptedStream(File encryptedFile, String password) throws Exception {
+        InputStream fileStream = new BufferedInputStream(new FileInputStream(encryptedFile), BUFFER_SIZE);
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            byte[] salt;
+            byte[] iv;
+            InputStream cipherStream;
+            if (startsWithMagic(fileStream)) {
+                salt = readFully(fileStream, SALT_LENGTH);
+                iv = readFully(fileStream, cipher.getBlockSize());
+                cipherStream = fileStream;
+            } else {
+                fileStream.reset();
+                salt = fromBase64(readLegacyField(fileStream));
+                iv = fromBase64(readLegacyField(fileStream));
+                cipherStream = new Base64InputStream(fileStream, Base64.DEFAULT);
             }
+            cipher.init(Cipher.DECRYPT_MODE, getKey(password, salt), new IvParameterSpec(iv));
+            return new CipherInputStream(cipherStream, cipher);
+        } catch (Exception e) {
+            closeQuietly(fileStream);
+            throw e;
+        }
+    }
 
-            cipherText = builder.toString();
+    private static File getTempFile(File file) {
+        File tmpFolder = new File(TEMP_FOLDER);
+        if (!tmpFolder.exists())
+            tmpFolder.mkdirs();
+        return new File(TEMP_FOLDER + file.getName());
+    }
 
-            String[] fields = cipherText.split(DELIMITER);
-            if (fields.length != 3) {
+    private static String readLegacyField(InputStream stream) throws IOException {
+        StringBuilder field = new StringBuilder();
+        int character;
+        while ((character = stream.read()) != DELIMITER) {
+            if (character == -1 || field.length() == MAX_LEGACY_FIELD_LENGTH) {
                 throw new IllegalArgumentException("Invalid encrypted text format");
             }
+            field.append((char) character);
+        }
+        return field.toString();
+    }
+
+    private static boolean startsWithMagic(InputStream stream) throws IOException {
+        stream.mark(MAGIC.length);
+        for (byte magicByte : MAGIC) {
+            if (stream.read() != (magicByte & 0xff)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            byte[] salt = fromBase64(fields[0]);
-            byte[] iv = fromBase64(fields[1]);
-            byte[] cipherBytes = fromBase64(fields[2]);
+    private static byte[] readFully(InputStream stream, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int read = stream.read(bytes, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException("Encrypted file header is truncated");
+            }
+            offset += read;
+        }
+        return bytes;
+    }
 
-            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
-            IvParameterSpec ivParams = new IvParameterSpec(iv);
-            cipher.init(Cipher.DECRYPT_MODE, deriveKey(password, salt), ivParams);
-            byte[] plainText = cipher.doFinal(cipherBytes);
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
 
-            // write the decrypted stream to file
-            fos.write(plainText);
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close stream", e);
+            }
+        }
+    }
 
-            fos.flush();
-            fos.close();
+    /**
+     * Forgets the session salt and every derived key, so the next file operation derives its key again.
+     */
+    public static void clearKeys() {
+        synchronized (keyCache) {
+            keyCache.clear();
+            sessionSalt = null;
+        }
+    }
 
-            tempFile.renameTo(encryptedFile);
-            Log.i(TAG, "Decrypted " + encryptedFile.getAbsolutePath());
-        } catch (Exception e) {
-            Log.e(TAG, e.getMessage(), e);
+    private static byte[] getSessionSalt() {
+        synchronized (keyCache) {
+            if (sessionSalt == null) {
+                sessionSalt = generateSalt();
+            }
+            return sessionSalt;
         }
+    }
 
+    private static SecretKey getKey(String password, byte[] salt) throws Exception {
+        String cacheKey = cacheKey(password, salt);
+        synchronized (keyCache) {
+            SecretKey key = keyCache.get(cacheKey);
+            if (key != null) {
+                return key;
+            }
+        }
+        SecretKey key = deriveKey(password, salt);
+        synchronized (keyCache) {
+            keyCache.put(cacheKey, key);
+        }
+        return key;
+    }
+
+    // the cache only keeps a digest, so the plain password does not outlive the call in a heap dump
+    private static String cacheKey(String password, byte[] salt) throws Exception {
+        MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+        messageDigest.update(salt);
+        messageDigest.update(password.getBytes("UTF-8"));
+        return fromBytes(messageDigest.digest());
+    }
+
+    private static String fromBytes(byte[] bytes) {
+        return Base64.encodeToString(bytes, Base64.NO_WRAP);
     }
 
     private static SecretKey deriveKey(String password, byte[] salt) throws Exception {
@@ -176,10 +304,6 @@ public class EnDeCrypt {
         return saltBytes;
     }
 
-    private static String toBase64(byte[] bytes) {
-        return Base64.encodeToString(bytes, Base64.NO_WRAP);
-    }
-
     private static byte[] fromBase64(String base64) {
         return Base64.decode(base64, Base64.NO_WRAP);
     }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.utils;
+
+/**
+ * Rewrites the string values of object members in a JSON document in one pass over its text, copying everything
+ * else through untouched. Keys, numbers and strings inside arrays are never offered for replacement.
+ */
+public class JsonValueRewriter {
+
+    public interface ValueReplacer {
+        /**
+         * Returns the replacement for a decoded string value, or null to keep the value as it is.
+         */
+        String replace(String value);
+    }
+
+    public static String rewrite(String json, ValueReplacer replacer) {
+        StringBuilder rewritten = null;
+        int copiedUpTo = 0;
+        char lastToken = 0;
+        int length = json.length();
+        int i = 0;
+        while (i < length) {
+            char c = json.charAt(i);
+            if (c != '"') {
+                if (!Character.isWhitespace(c)) {
+                    lastToken = c;
+                }
+                i++;
+                continue;
+            }
+            int end = endOfString(json, i);
+            if (lastToken == ':') {
+                String replacement = replacer.replace(unescape(json, i + 1, end));
+                if (replacement != null) {
+                    if (rewritten == null) {
+                        rewritten = new StringBuilder(length + replacement.length());
+                    }
+                    rewritten.append(json, copiedUpTo, i);
+                    appendQuoted(rewritten, replacement);
+                    copiedUpTo = end + 1;
+                }
+            }
+            lastToken = '"';
+            i = end + 1;
+        }
+        if (rewritten == null) {
+            return json;
+        }
+        return rewritten.append(json, copiedUpTo, length).toString();
+    }
+
+    private static int endOfString(String json, int openingQuote) {
+        int i = openingQuote + 1;
+        while (i < json.length()) {
+            char c = json.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '"') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("Unterminated string at " + openingQuote);
+    }
+
+    private static String unescape(String json, int start, int end) {
+        int firstEscape = json.indexOf('\\', start);
+        if (firstEscape == -1 || firstEscape >= end) {
+            return json.substring(start, end);
+        }
+        StringBuilder value = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = json.charAt(i);
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            char escaped = json.charAt(++i);
+            switch (escaped) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    value.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    value.append(escaped);
+            }
+        }
+        return value.toString();
+    }
+
+    private static void appendQuoted(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+}
@@ -16,6 +16,7 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.provider.MediaStore;
 import android.util.Base64;
+import android.util.Base64OutputStream;
 import android.util.Log;
 
 import java.io.ByteArrayOutputStream;
@@ -24,6 +25,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
@@ -44,6 +46,18 @@ public class MediaUtils {
         return Base64.encodeToString(bytes, Base64.NO_WRAP);
     }
 
+    public static String toBase64(InputStream inputStream, long expectedLength) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE, expectedLength * 4 / 3 + 4));
+        Base64OutputStream encoder = new Base64OutputStream(encoded, Base64.NO_WRAP);
+        byte[] buffer = new byte[8 * 1024];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            encoder.write(buffer, 0, read);
+        }
+        encoder.close();
+        return encoded.toString("US-ASCII");
+    }
+
     public static byte[] fromBase64(String base64) {
         return Base64.decode(base64, Base64.NO_WRAP);
     }
@@ -44,4 +44,24 @@ public class StringUtils {
     public static String defaultString(String string) {
         return string == null ? "" : string;
     }
+
+    /**
+     * Returns the field at the given index of a separated value, or an empty string when there is no such field.
+     * Unlike String.split this compiles no pattern and only allocates the field that is returned.
+     */
+    public static String getField(String value, char separator, int index) {
+        if (value == null) {
+            return EMPTY;
+        }
+        int fieldStart = 0;
+        for (int i = 0; i < index; i++) {
+            int separatorAt = value.indexOf(separator, fieldStart);
+            if (separatorAt < 0) {
+                return EMPTY;
+            }
+            fieldStart = separatorAt + 1;
+        }
+        int fieldEnd = value.indexOf(separator, fieldStart);
+        return value.substring(fieldStart, fieldEnd < 0 ? value.length() : fieldEnd);
+    }
 }
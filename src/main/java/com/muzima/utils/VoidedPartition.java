@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a downloaded batch into its live and voided records in a single scan.
+ */
+public class VoidedPartition<T> {
+    private final List<T> live;
+    private final List<T> voided;
+
+    public VoidedPartition(List<T> records, VoidedCheck<T> voidedCheck) {
+        live = new ArrayList<T>(records.size());
+        voided = new ArrayList<T>();
+        for (T record : records) {
+            if (voidedCheck.isVoided(record)) {
+                voided.add(record);
+            } else {
+                live.add(record);
+            }
+        }
+    }
+
+    public List<T> getLive() {
+        return live;
+    }
+
+    public List<T> getVoided() {
+        return voided;
+    }
+
+    public interface VoidedCheck<T> {
+        boolean isVoided(T record);
+    }
+}
@@ -69,6 +69,8 @@ public abstract class BroadcastListenerActivity extends BaseFragmentActivity {
             msg = "Load exception has been thrown while loading data";
         } else if (syncStatus == SyncStatusConstants.UPLOAD_ERROR) {
             msg = "Exception has been thrown while uploading data";
+        } else if (syncStatus == SyncStatusConstants.CANCELLED) {
+            msg = "Sync has been cancelled";
         } else if(syncStatus == SyncStatusConstants.SUCCESS){
             int syncType = intent.getIntExtra(DataSyncServiceConstants.SYNC_TYPE, -1);
             int downloadCount = intent.getIntExtra(DataSyncServiceConstants.DOWNLOAD_COUNT_PRIMARY, 0);
@@ -15,16 +15,9 @@ import android.widget.Toast;
 import com.muzima.MuzimaApplication;
 import com.muzima.api.model.FormData;
 import com.muzima.api.model.Patient;
-import com.muzima.controller.ConceptController;
 import com.muzima.controller.FormController;
-import com.muzima.controller.PatientController;
-import com.muzima.service.FormParser;
-
+import com.muzima.service.FormObservationService;
 import com.muzima.utils.Constants;
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.io.IOException;
-import java.text.ParseException;
 
 import static com.muzima.utils.Constants.FORM_DISCRIMINATOR_REGISTRATION;
 import static com.muzima.utils.Constants.STATUS_COMPLETE;
@@ -47,6 +40,9 @@ public class FormDataStore {
 
     @JavascriptInterface
     public void save(String jsonData, String xmlData, String status) {
+        if (formWebViewActivity.isFinishing()) {
+            return;
+        }
         Patient newPatient = null;
         if (isRegistrationComplete(status)) {
             newPatient = formController.createNewPatient(jsonData);
@@ -59,47 +55,18 @@ public class FormDataStore {
         formData.setJsonPayload(jsonData);
         formData.setStatus(status);
         try {
-            parseForm(xmlData, status);
             formController.saveFormData(formData);
+            if (!status.equals(Constants.STATUS_INCOMPLETE)) {
+                FormObservationService.extractObservations(formWebViewActivity, applicationContext.getFormObservationQueue(), formData.getUuid());
+            }
             formWebViewActivity.setResult(FormsActivity.RESULT_OK);
             formWebViewActivity.finish();
         } catch (FormController.FormDataSaveException e) {
             Toast.makeText(formWebViewActivity, "An error occurred while saving the form", Toast.LENGTH_SHORT).show();
             Log.e(TAG, "Exception occurred while saving form data", e);
-        } catch (ConceptController.ConceptSaveException e) {
-            Toast.makeText(formWebViewActivity, "An error occurred while saving observations in the form", Toast.LENGTH_SHORT).show();
-            Log.e(TAG, "Exception occurred while saving a concept parsed from the form data", e);
-        } catch (ParseException e) {
-            Toast.makeText(formWebViewActivity, "An error occurred while saving observations in the form", Toast.LENGTH_SHORT).show();
-            Log.e(TAG, "Exception occurred while parsing the xml payload", e);
-        } catch (XmlPullParserException e) {
-            Toast.makeText(formWebViewActivity, "An error occurred while saving observations in the form", Toast.LENGTH_SHORT).show();
-            Log.e(TAG, "Exception occurred while exploring the xml payload", e);
-        } catch (PatientController.PatientLoadException e) {
-            Toast.makeText(formWebViewActivity, "An error occurred while saving observations in the form", Toast.LENGTH_SHORT).show();
-            Log.e(TAG, "Exception occurred while loading a patient parsed from the form data", e);
-        } catch (ConceptController.ConceptFetchException e) {
-            Toast.makeText(formWebViewActivity, "An error occurred while saving observations in the form", Toast.LENGTH_SHORT).show();
-            Log.e(TAG, "Exception occurred while fetching a concept parsed from the form data", e);
-        } catch (IOException e) {
-            Toast.makeText(formWebViewActivity, "An error occurred while saving observations in the form", Toast.LENGTH_SHORT).show();
-            Log.e(TAG, "IOException occurred while saving observations parsed from the form data", e);
         }
     }
 
-    private void parseForm(String xmlData, String status) throws ConceptController.ConceptSaveException, ParseException, XmlPullParserException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, IOException {
-        if (status.equals(Constants.STATUS_INCOMPLETE)){
-            return;
-        }
-        FormParser formParser = getFormParser();
-        formParser.parseAndSaveObservations(xmlData,formData.getUuid());
-    }
-
-    public FormParser getFormParser() {
-        return new FormParser(applicationContext.getPatientController(), applicationContext.getConceptController(), applicationContext.getEncounterController(), applicationContext.getObservationController());
-    }
-
-
     private boolean isRegistrationComplete(String status) {
         return isRegistrationForm() && status.equals(STATUS_COMPLETE);
     }
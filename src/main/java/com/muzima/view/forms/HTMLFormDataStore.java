@@ -14,7 +14,7 @@ import android.widget.Toast;
 import com.muzima.MuzimaApplication;
 import com.muzima.api.model.FormData;
 import com.muzima.controller.FormController;
-import com.muzima.service.HTMLFormObservationCreator;
+import com.muzima.service.FormObservationService;
 import com.muzima.utils.Constants;
 import com.muzima.utils.StringUtils;
 
@@ -43,11 +43,16 @@ public class HTMLFormDataStore {
 
     @JavascriptInterface
     public void saveHTML(String jsonPayload, String status, boolean keepFormOpen) {
+        if (formWebViewActivity.isFinishing()) {
+            return;
+        }
         formData.setJsonPayload(jsonPayload);
         formData.setStatus(status);
         try {
-            parseForm(jsonPayload, status);
             formController.saveFormData(formData);
+            if (!status.equals(Constants.STATUS_INCOMPLETE)) {
+                extractObservationsInBackground();
+            }
             formWebViewActivity.setResult(FormsActivity.RESULT_OK);
             Log.i(TAG, "Saving form data ...");
             if (!keepFormOpen) {
@@ -62,16 +67,8 @@ public class HTMLFormDataStore {
         }
     }
 
-    private void parseForm(String jsonPayload, String status) {
-        if (status.equals(Constants.STATUS_INCOMPLETE)) {
-            return;
-        }
-        getFormParser().createAndPersistObservations(jsonPayload, formData.getUuid());
-    }
-
-    public HTMLFormObservationCreator getFormParser() {
+    private void extractObservationsInBackground() {
         MuzimaApplication applicationContext = (MuzimaApplication) formWebViewActivity.getApplicationContext();
-        return new HTMLFormObservationCreator(applicationContext.getPatientController(), applicationContext.getConceptController(),
-                applicationContext.getEncounterController(), applicationContext.getObservationController());
+        FormObservationService.extractObservations(formWebViewActivity, applicationContext.getFormObservationQueue(), formData.getUuid());
     }
 }
@@ -35,12 +35,18 @@ public class SettingsActivity extends SherlockPreferenceActivity implements Shar
     private String timeoutPreferenceKey;
     private String passwordPreferenceKey;
     private String autoSavePreferenceKey;
+    private String downloadThreadsPreferenceKey;
+    private String downloadAttemptsPreferenceKey;
+    private String ntpRefreshHoursPreferenceKey;
 
     private EditTextPreference serverPreference;
     private EditTextPreference usernamePreference;
     private EditTextPreference timeoutPreference;
     private EditTextPreference passwordPreference;
     private EditTextPreference autoSaveIntervalPreference;
+    private EditTextPreference downloadThreadsPreference;
+    private EditTextPreference downloadAttemptsPreference;
+    private EditTextPreference ntpRefreshHoursPreference;
 
     private String newURL;
 
@@ -98,6 +104,18 @@ public class SettingsActivity extends SherlockPreferenceActivity implements Shar
         autoSaveIntervalPreference = (EditTextPreference) getPreferenceScreen().findPreference(autoSavePreferenceKey);
         autoSaveIntervalPreference.setSummary(autoSaveIntervalPreference.getText());
 
+        downloadThreadsPreferenceKey = getResources().getString(R.string.preference_download_threads);
+        downloadThreadsPreference = (EditTextPreference) getPreferenceScreen().findPreference(downloadThreadsPreferenceKey);
+        downloadThreadsPreference.setSummary(downloadThreadsPreference.getText());
+
+        downloadAttemptsPreferenceKey = getResources().getString(R.string.preference_download_attempts);
+        downloadAttemptsPreference = (EditTextPreference) getPreferenceScreen().findPreference(downloadAttemptsPreferenceKey);
+        downloadAttemptsPreference.setSummary(downloadAttemptsPreference.getText());
+
+        ntpRefreshHoursPreferenceKey = getResources().getString(R.string.preference_ntp_refresh_hours);
+        ntpRefreshHoursPreference = (EditTextPreference) getPreferenceScreen().findPreference(ntpRefreshHoursPreferenceKey);
+        ntpRefreshHoursPreference.setSummary(ntpRefreshHoursPreference.getText());
+
         passwordPreferenceKey = getResources().getString(R.string.preference_password);
         passwordPreference = (EditTextPreference) getPreferenceScreen().findPreference(passwordPreferenceKey);
         if (passwordPreference.getText() != null) {
@@ -135,6 +153,12 @@ public class SettingsActivity extends SherlockPreferenceActivity implements Shar
             passwordPreference.setSummary(value.replaceAll(".", "*"));
         } else if (StringUtil.equals(key, autoSavePreferenceKey)) {
             autoSaveIntervalPreference.setSummary(value);
+        } else if (StringUtil.equals(key, downloadThreadsPreferenceKey)) {
+            downloadThreadsPreference.setSummary(value);
+        } else if (StringUtil.equals(key, downloadAttemptsPreferenceKey)) {
+            downloadAttemptsPreference.setSummary(value);
+        } else if (StringUtil.equals(key, ntpRefreshHoursPreferenceKey)) {
+            ntpRefreshHoursPreference.setSummary(value);
         }else if (StringUtil.equals(key, timeoutPreferenceKey)) {
             Log.e("Tag","Inside shared pref");
             timeoutPreference.setSummary(value);
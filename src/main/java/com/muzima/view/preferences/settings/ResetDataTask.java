@@ -14,6 +14,9 @@ import com.muzima.MuzimaApplication;
 import com.muzima.domain.Credentials;
 import com.muzima.service.CohortPrefixPreferenceService;
 import com.muzima.service.CredentialsPreferenceService;
+import com.muzima.service.FormTemplateHashStore;
+import com.muzima.service.FormUploadOutcomeStore;
+import com.muzima.service.SyncWatermarkStore;
 import com.muzima.service.WizardFinishPreferenceService;
 import com.muzima.view.preferences.SettingsActivity;
 
@@ -34,10 +37,20 @@ public class ResetDataTask extends AsyncTask<String, Void, Void> {
     }
 
     private void resetData() {
-        ((MuzimaApplication)settingsActivity.getApplication()).clearApplicationData();
+        MuzimaApplication muzimaApplication = (MuzimaApplication) settingsActivity.getApplication();
+        muzimaApplication.clearApplicationData();
         SettingsActivity context = settingsActivity;
         new WizardFinishPreferenceService(context).resetWizard();
         new CohortPrefixPreferenceService(context).clearPrefixes();
+        SyncWatermarkStore.deleteAll(context);
+        muzimaApplication.getSyncJournal().clear();
+        new FormUploadOutcomeStore(context).clear();
+        new FormTemplateHashStore(context).clear();
+        muzimaApplication.getFormObservationQueue().clear();
+        muzimaApplication.getFormController().clearCaches();
+        muzimaApplication.getConceptController().clearCaches();
+        muzimaApplication.getPatientController().clearCaches();
+        muzimaApplication.getNotificationController().invalidateNotificationIndex();
     }
 
     @Override
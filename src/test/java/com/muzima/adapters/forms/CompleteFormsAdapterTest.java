@@ -87,6 +87,32 @@ public class CompleteFormsAdapterTest {
         assertThat(formsAdapter.getPatients(), is(asList(patient1, patient2)));
     }
 
+    @Test
+    public void shouldLookUpSectionsFromTablesBuiltWhenSortingForms() throws Exception, FormController.FormFetchException {
+        BackgroundQueryTask queryTask = new BackgroundQueryTask(formsAdapter);
+        final Patient alpha = patient("Alpha", "middleName", "givenName", "identifier1");
+        final Patient beta = patient("Beta", "middleName", "givenName", "identifier2");
+        CompleteFormsWithPatientData completeFormsWithPatientData = new CompleteFormsWithPatientData() {{
+            add(completeFormWithPatientData(beta));
+            add(completeFormWithPatientData(alpha));
+            add(completeFormWithPatientData(beta));
+        }};
+        when(formController.getAllCompleteForms()).thenReturn(completeFormsWithPatientData);
+        StickyListHeadersListView listView = new StickyListHeadersListView(Robolectric.application);
+        listView.setAdapter(formsAdapter);
+        formsAdapter.setListView(listView);
+
+        queryTask.execute();
+        Robolectric.runBackgroundTasks();
+        Robolectric.runUiThreadTasks();
+
+        assertThat(formsAdapter.getSections(), is(new Object[]{"A", "B"}));
+        assertThat(formsAdapter.getHeaderId(0), is(0L));
+        assertThat(formsAdapter.getHeaderId(1), is(1L));
+        assertThat(formsAdapter.getHeaderId(2), is(1L));
+        assertThat(formsAdapter.getPositionForSection(1), is(1));
+    }
+
     private CompleteFormWithPatientData completeFormWithPatientData(final Patient patient1) {
         return new CompleteFormWithPatientData() {{
             setPatient(patient1);
@@ -33,6 +33,7 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.matchers.JUnitMatchers.hasItem;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
@@ -163,13 +164,21 @@ public class CohortControllerTest {
     }
 
     @Test
-    public void shouldSaveLastSyncTimeOfCohortData() throws Exception, CohortController.CohortDownloadException {
+    public void downloadCohortDataByUuid_shouldNotMoveTheLastSyncTimeBeforeTheDataIsStored() throws Exception, CohortController.CohortDownloadException {
         String uuid = "uuid";
         when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_COHORTS_DATA, uuid)).thenReturn(mockDate);
-        when(sntpService.getLocalTime()).thenReturn(anotherMockDate);
 
         controller.downloadCohortDataByUuid(uuid);
 
+        verify(lastSyncTimeService, never()).saveLastSyncTime(any(LastSyncTime.class));
+    }
+
+    @Test
+    public void shouldSaveLastSyncTimeOfCohortDataWhenMarkedSynced() throws Exception, CohortController.CohortSaveException {
+        String uuid = "uuid";
+
+        controller.markCohortDataSynced(uuid, anotherMockDate);
+
         ArgumentCaptor<LastSyncTime> captor = ArgumentCaptor.forClass(LastSyncTime.class);
         verify(lastSyncTimeService).saveLastSyncTime(captor.capture());
         LastSyncTime savedLastSyncTime = captor.getValue();
@@ -23,6 +23,9 @@ import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -88,6 +91,57 @@ public class ConceptControllerTest {
         assertThat(conceptByName,nullValue());
     }
 
+    @Test
+    public void getConceptByName_shouldQueryTheIndexOncePerNameUntilConceptsAreSaved() throws Exception, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+        String conceptName = "conceptName";
+        when(service.getConceptsByName(conceptName)).thenReturn(new ArrayList<Concept>());
+
+        assertThat(controller.getConceptByName(conceptName), nullValue());
+        assertThat(controller.getConceptByName(conceptName), nullValue());
+        verify(service, times(1)).getConceptsByName(conceptName);
+
+        Concept savedConcept = createConceptByName(conceptName);
+        controller.saveConcepts(asList(savedConcept));
+        when(service.getConceptsByName(conceptName)).thenReturn(asList(savedConcept));
+
+        assertThat(controller.getConceptByName(conceptName), is(savedConcept));
+        verify(service, times(2)).getConceptsByName(conceptName);
+    }
+
+    @Test
+    public void getConceptByName_shouldQueryTheIndexAgainAfterTheCachesAreCleared() throws Exception, ConceptController.ConceptFetchException {
+        String conceptName = "conceptName";
+        Concept concept = createConceptByName(conceptName);
+        when(service.getConceptsByName(conceptName)).thenReturn(asList(concept));
+        assertThat(controller.getConceptByName(conceptName), is(concept));
+
+        when(service.getConceptsByName(conceptName)).thenReturn(new ArrayList<Concept>());
+        controller.clearCaches();
+
+        assertThat(controller.getConceptByName(conceptName), nullValue());
+    }
+
+    @Test
+    public void getNamesMissingLocally_shouldMatchAnyNameOfALocalConcept() throws Exception, ConceptController.ConceptFetchException {
+        Concept aConcept = new Concept() {{
+            setConceptNames(new ArrayList<ConceptName>() {{
+                add(new ConceptName() {{
+                    setName("PreferredName");
+                    setPreferred(true);
+                }});
+                add(new ConceptName() {{
+                    setName("NonPreferredName");
+                    setPreferred(false);
+                }});
+            }});
+        }};
+        when(service.getConceptsByName("NonPreferredName")).thenReturn(asList(aConcept));
+        when(service.getConceptsByName("MissingName")).thenReturn(new ArrayList<Concept>());
+
+        assertThat(controller.getNamesMissingLocally(asList("NonPreferredName", "MissingName")), is(asList("MissingName")));
+        verify(service, never()).getAllConcepts();
+    }
+
     private Concept createConceptByName(String name) {
         Concept concept = new Concept();
         ConceptName conceptName = new ConceptName();
@@ -13,9 +13,9 @@ import com.muzima.api.model.LastSyncTime;
 import com.muzima.api.service.EncounterService;
 import com.muzima.api.service.LastSyncTimeService;
 import com.muzima.service.SntpService;
+import com.muzima.service.SyncWatermarkStore;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -27,9 +27,13 @@ import static java.util.Arrays.asList;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.internal.matchers.IsCollectionContaining.hasItems;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -41,147 +45,105 @@ public class EncounterControllerTest {
     private LastSyncTimeService lastSyncTimeService;
     private EncounterService encounterService;
     private SntpService sntpService;
+    private SyncWatermarkStore syncWatermarkStore;
 
     @Before
     public void setUp() throws Exception {
         encounterService = mock(EncounterService.class);
         lastSyncTimeService = mock(LastSyncTimeService.class);
         sntpService = mock(SntpService.class);
-        encounterController = new EncounterController(encounterService, lastSyncTimeService, sntpService);
+        syncWatermarkStore = mock(SyncWatermarkStore.class);
+        encounterController = new EncounterController(encounterService, lastSyncTimeService, sntpService, syncWatermarkStore);
     }
 
     @Test
-    public void shouldGetLastSyncTimeOfEncounter() throws Exception, EncounterController.DownloadEncounterException {
+    public void shouldDownloadAllEncountersForPatientsWithoutWatermark() throws Exception, EncounterController.DownloadEncounterException {
         List<String> patientUuids = asList(new String[]{"patientUuid1", "patientUuid2"});
-        Date aDate = mock(Date.class);
-        when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_ENCOUNTERS,"patientUuid1,patientUuid2")).thenReturn(aDate);
+
         encounterController.downloadEncountersByPatientUuids(patientUuids);
 
-        verify(lastSyncTimeService).getLastSyncTimeFor(DOWNLOAD_ENCOUNTERS,"patientUuid1,patientUuid2");
-        verify(lastSyncTimeService, never()).getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS);
+        verify(encounterService).downloadEncountersByPatientUuidsAndSyncDate(patientUuids, null);
+        verify(lastSyncTimeService, never()).getLastSyncTimeFor(eq(DOWNLOAD_ENCOUNTERS), anyString());
     }
 
     @Test
-    public void shouldUseTheLastSyncTimeWhenDownloadingEncounters() throws Exception, EncounterController.DownloadEncounterException {
-        Date lastSyncDate = mock(Date.class);
-        when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_ENCOUNTERS,"patientUuid1,patientUuid2")).thenReturn(lastSyncDate);
-
+    public void shouldUseTheEarliestWatermarkWhenDownloadingEncountersForKnownPatients() throws Exception, EncounterController.DownloadEncounterException {
         List<String> patientUuids = asList(new String[]{"patientUuid1", "patientUuid2"});
-        encounterController.downloadEncountersByPatientUuids(patientUuids);
-        verify(encounterService, never()).downloadEncountersByPatientUuids(anyList());
-        verify(encounterService).downloadEncountersByPatientUuidsAndSyncDate(patientUuids, lastSyncDate);
-    }
+        Date earlierSync = new Date(1000);
+        when(syncWatermarkStore.getWatermark("patient", "patientUuid1")).thenReturn(new Date(2000));
+        when(syncWatermarkStore.getWatermark("patient", "patientUuid2")).thenReturn(earlierSync);
 
-    @Test
-    public void shouldSaveTheUpdatedLastSyncTime() throws Exception, EncounterController.DownloadEncounterException {
-        List<String> patientUuids = asList(new String[]{"patientUuid1", "patientUuid2"});
-        Date updatedDate = mock(Date.class);
-        when(sntpService.getLocalTime()).thenReturn(updatedDate);
-        Date lastSyncDate = mock(Date.class);
-        when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_ENCOUNTERS,"patientUuid1,patientUuid2")).thenReturn(lastSyncDate);
         encounterController.downloadEncountersByPatientUuids(patientUuids);
 
-        ArgumentCaptor<LastSyncTime> argumentCaptor = ArgumentCaptor.forClass(LastSyncTime.class);
-        verify(lastSyncTimeService).saveLastSyncTime(argumentCaptor.capture());
-        LastSyncTime savedLastSyncTime = argumentCaptor.getValue();
-        assertThat(savedLastSyncTime.getApiName(), is(DOWNLOAD_ENCOUNTERS));
-        assertThat(savedLastSyncTime.getLastSyncDate(), is(updatedDate));
-        assertThat(savedLastSyncTime.getParamSignature(), is("patientUuid1,patientUuid2"));
+        verify(encounterService, never()).downloadEncountersByPatientUuids(anyList());
+        verify(encounterService).downloadEncountersByPatientUuidsAndSyncDate(patientUuids, earlierSync);
     }
 
     @Test
-    public void shouldUpdateLastSyncTimeParamSignatureWhenThereIsAChangeInKnownPatient() throws EncounterController.DownloadEncounterException, IOException {
-        List<String> patientUuids = new ArrayList<String>(asList(new String[]{"patientUuid1", "patientUuid2"}));
-        List<String> previouslySynchedPatient = asList(new String[]{"patientUuid1", "patientUuid3"});
-        List<String> newPatients = asList(new String[]{"patientUuid2"});
-        when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_ENCOUNTERS,"patientUuid1,patientUuid2")).thenReturn(null);
-        LastSyncTime fullLastSyncTime = mock(LastSyncTime.class);
-        when(fullLastSyncTime.getParamSignature()).thenReturn("patientUuid1,patientUuid3");
-        Date lastSyncTime = mock(Date.class);
-        when(fullLastSyncTime.getLastSyncDate()).thenReturn(lastSyncTime);
-        when(lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS)).thenReturn(fullLastSyncTime);
+    public void shouldReturnEncountersDownloadedForKnownPatientsAndNewOnes() throws IOException, EncounterController.DownloadEncounterException {
+        List<String> patientUuids = asList(new String[]{"patientUuid1", "patientUuid2"});
+        Date lastSyncTime = new Date(1000);
+        when(syncWatermarkStore.getWatermark("patient", "patientUuid1")).thenReturn(lastSyncTime);
         Encounter anEncounter = mock(Encounter.class);
         Encounter anotherEncounter = mock(Encounter.class);
         ArrayList<Encounter> someEncounters = new ArrayList<Encounter>();
         someEncounters.add(anEncounter);
         ArrayList<Encounter> someOtherEncounters = new ArrayList<Encounter>();
         someOtherEncounters.add(anotherEncounter);
-        when(encounterService.downloadEncountersByPatientUuidsAndSyncDate(previouslySynchedPatient, lastSyncTime)).thenReturn(someEncounters);
-        when(encounterService.downloadEncountersByPatientUuidsAndSyncDate(newPatients, null)).thenReturn(someOtherEncounters);
-        Date updatedDate = mock(Date.class);
-        when(sntpService.getLocalTime()).thenReturn(updatedDate);
+        when(encounterService.downloadEncountersByPatientUuidsAndSyncDate(asList("patientUuid1"), lastSyncTime)).thenReturn(someEncounters);
+        when(encounterService.downloadEncountersByPatientUuidsAndSyncDate(asList("patientUuid2"), null)).thenReturn(someOtherEncounters);
 
-        encounterController.downloadEncountersByPatientUuids(patientUuids);
+        List<Encounter> encounters = encounterController.downloadEncountersByPatientUuids(patientUuids);
 
-        ArgumentCaptor<LastSyncTime> argumentCaptor = ArgumentCaptor.forClass(LastSyncTime.class);
-        verify(lastSyncTimeService).saveLastSyncTime(argumentCaptor.capture());
-        LastSyncTime savedLastSyncTime = argumentCaptor.getValue();
-        assertThat(savedLastSyncTime.getApiName(), is(DOWNLOAD_ENCOUNTERS));
-        assertThat(savedLastSyncTime.getLastSyncDate(), is(updatedDate));
-        assertThat(savedLastSyncTime.getParamSignature(), is("patientUuid1,patientUuid2,patientUuid3"));
+        assertThat(encounters, hasItems(anEncounter, anotherEncounter));
+        assertThat(encounters.size(), is(2));
     }
 
     @Test
-    public void shouldReturnEncountersDownloadedForOldPatientAndNewOnes() throws IOException, EncounterController.DownloadEncounterException {
-        List<String> patientUuids = new ArrayList<String>(asList(new String[]{"patientUuid1", "patientUuid2"}));
-        List<String> previouslySynchedPatient = asList(new String[]{"patientUuid1", "patientUuid3"});
-        List<String> newPatients = asList(new String[]{"patientUuid2"});
-        LastSyncTime fullLastSyncTime = mock(LastSyncTime.class);
-        Date lastSyncTime = mock(Date.class);
-        when(lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS)).thenReturn(fullLastSyncTime);
-        when(fullLastSyncTime.getParamSignature()).thenReturn("patientUuid1,patientUuid3");
-        when(fullLastSyncTime.getLastSyncDate()).thenReturn(lastSyncTime);
-        Encounter anotherEncounter = mock(Encounter.class);
-        Encounter anEncounter = mock(Encounter.class);
-        ArrayList<Encounter> someEncounters = new ArrayList<Encounter>();
-        someEncounters.add(anEncounter);
-        ArrayList<Encounter> someOtherEncounters = new ArrayList<Encounter>();
-        someOtherEncounters.add(anotherEncounter);
-        when(encounterService.downloadEncountersByPatientUuidsAndSyncDate(previouslySynchedPatient, lastSyncTime)).thenReturn(someEncounters);
-        when(encounterService.downloadEncountersByPatientUuidsAndSyncDate(newPatients, null)).thenReturn(someOtherEncounters);
+    public void shouldNotMoveTheWatermarksBeforeTheEncountersAreStored() throws Exception, EncounterController.DownloadEncounterException {
+        List<String> patientUuids = asList(new String[]{"patientUuid1", "patientUuid2"});
 
-        List<Encounter> encounters = encounterController.downloadEncountersByPatientUuids(patientUuids);
+        encounterController.downloadEncountersByPatientUuids(patientUuids);
 
-        assertThat(encounters, hasItems(anEncounter, anotherEncounter));
-        assertThat(encounters.size(), is(2));
+        verify(syncWatermarkStore, never()).setWatermarks(anyString(), anyList(), any(Date.class));
     }
 
     @Test
-    public void shouldMakeTwoSeparateDownloadCallsForAChangeInKnownPatient() throws EncounterController.DownloadEncounterException, IOException {
-        List<String> patientUuids = new ArrayList<String>(asList(new String[]{"patientUuid1", "patientUuid2"}));
-        List<String> previouslySynchedPatient = asList(new String[]{"patientUuid1", "patientUuid3"});
-        List<String> newPatients = asList(new String[]{"patientUuid2"});
-        LastSyncTime fullLastSyncTime = mock(LastSyncTime.class);
-        Date lastSyncTime = mock(Date.class);
-        when(lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS)).thenReturn(fullLastSyncTime);
-        when(fullLastSyncTime.getParamSignature()).thenReturn("patientUuid1,patientUuid3");
-        when(fullLastSyncTime.getLastSyncDate()).thenReturn(lastSyncTime);
+    public void shouldSaveTheUpdatedWatermarksWhenMarkedSynced() throws Exception {
+        List<String> patientUuids = asList(new String[]{"patientUuid1", "patientUuid2"});
+        Date syncStartedAt = new Date();
 
-        encounterController.downloadEncountersByPatientUuids(patientUuids);
+        encounterController.markPatientsSynced(patientUuids, syncStartedAt);
 
-        verify(encounterService).downloadEncountersByPatientUuidsAndSyncDate(previouslySynchedPatient, lastSyncTime);
-        verify(encounterService).downloadEncountersByPatientUuidsAndSyncDate(newPatients, null);
+        verify(syncWatermarkStore).setWatermarks("patient", patientUuids, syncStartedAt);
     }
 
     @Test
-    public void shouldGetLastRecordedEntryForEncounterLastSyncTimeWhenCurrentPatientListDoesntHaveLastSyncTime() throws EncounterController.DownloadEncounterException, IOException {
-        List<String> patientUuids = new ArrayList<String>(asList(new String[]{"patientUuid1", "patientUuid2"}));
-        when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_ENCOUNTERS,"patientUuid1,patientUuid2")).thenReturn(null);
+    public void shouldDeleteOnlyTheEncountersCreatedFromTheGivenForm() throws Exception, EncounterController.DeleteEncounterException {
+        Encounter formEncounter = new Encounter();
+        formEncounter.setFormDataUuid("formDataUuid");
+        Encounter otherEncounter = new Encounter();
+        otherEncounter.setFormDataUuid("otherFormDataUuid");
+        when(encounterService.getEncountersByPatientUuid("patientUuid")).thenReturn(asList(formEncounter, otherEncounter, new Encounter()));
 
-        encounterController.downloadEncountersByPatientUuids(patientUuids);
+        encounterController.deleteEncountersByFormDataUuid("patientUuid", "formDataUuid");
 
-        verify(lastSyncTimeService).getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS);
+        verify(encounterService).deleteEncounters(asList(formEncounter));
     }
 
     @Test
-    public void shouldRecognisedAnInitiallyNonInitialisedLastSyncTime() throws EncounterController.DownloadEncounterException, IOException {
-        List<String> newPatients = asList(new String[]{"patientUuid2"});
-        when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_ENCOUNTERS,"patientUuid1,patientUuid2")).thenReturn(null);
-        when(lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS)).thenReturn(null);
+    public void shouldSeedWatermarksFromLegacyParamSignature() throws EncounterController.DownloadEncounterException, IOException {
+        LastSyncTime fullLastSyncTime = mock(LastSyncTime.class);
+        Date lastSyncTime = new Date(1000);
+        when(fullLastSyncTime.getParamSignature()).thenReturn("patientUuid1,patientUuid3");
+        when(fullLastSyncTime.getLastSyncDate()).thenReturn(lastSyncTime);
+        when(lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS)).thenReturn(fullLastSyncTime);
+        when(syncWatermarkStore.isEmpty()).thenReturn(true);
 
-        List<String> patientUuids = asList(new String[]{"patientUuid1", "patientUuid2"});
-        encounterController.downloadEncountersByPatientUuids(patientUuids);
+        encounterController.downloadEncountersByPatientUuids(asList("patientUuid1"));
+        encounterController.downloadEncountersByPatientUuids(asList("patientUuid1"));
 
-        verify(encounterService, never()).downloadEncountersByPatientUuidsAndSyncDate(newPatients, null);
+        verify(lastSyncTimeService, times(1)).getFullLastSyncTimeInfoFor(DOWNLOAD_ENCOUNTERS);
+        verify(syncWatermarkStore).setWatermarks("patient", asList("patientUuid1", "patientUuid3"), lastSyncTime);
     }
 }
@@ -25,14 +25,18 @@ import com.muzima.model.AvailableForm;
 import com.muzima.model.BaseForm;
 import com.muzima.model.collections.AvailableForms;
 import com.muzima.model.collections.DownloadedForms;
+import com.muzima.model.collections.IncompleteFormsWithPatientData;
 import com.muzima.search.api.util.StringUtil;
+import com.muzima.service.FormTemplateHashStore;
+import com.muzima.service.FormUploadOutcomeStore;
 import com.muzima.service.SntpService;
+import com.muzima.testSupport.CustomTestRunner;
 import com.muzima.utils.Constants;
 import com.muzima.utils.StringUtils;
 import org.apache.lucene.queryParser.ParseException;
 import org.junit.Before;
-import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 
@@ -40,25 +44,30 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import static java.util.Arrays.asList;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.matchers.JUnitMatchers.hasItem;
 
 import static com.muzima.api.model.APIName.DOWNLOAD_FORMS;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+@RunWith(CustomTestRunner.class)
 public class FormControllerTest {
     private FormController formController;
     private FormService formService;
@@ -66,6 +75,8 @@ public class FormControllerTest {
     private LastSyncTimeService lastSyncTimeService;
     private ObservationService observationService;
     private SntpService sntpService;
+    private FormUploadOutcomeStore uploadOutcomeStore;
+    private FormTemplateHashStore templateHashStore;
     private LastSyncTime lastSyncTime;
     private Date mockDate;
 
@@ -76,7 +87,10 @@ public class FormControllerTest {
         lastSyncTimeService = mock(LastSyncTimeService.class);
         sntpService = mock(SntpService.class);
         observationService = mock(ObservationService.class);
-        formController = new FormController(formService, patientService, lastSyncTimeService, sntpService,observationService);
+        uploadOutcomeStore = mock(FormUploadOutcomeStore.class);
+        templateHashStore = mock(FormTemplateHashStore.class);
+        formController = new FormController(formService, patientService, lastSyncTimeService, sntpService, observationService, uploadOutcomeStore,
+                templateHashStore);
         lastSyncTime = mock(LastSyncTime.class);
         mockDate = mock(Date.class);
     }
@@ -144,6 +158,24 @@ public class FormControllerTest {
         assertThat(availableFormByTags.size(), is(5));
     }
 
+    @Test
+    public void shouldServeFormListsFromOneCatalogLoadUntilTemplatesChange() throws Exception, FormController.FormFetchException, FormController.FormDeleteException {
+        List<Form> forms = buildForms();
+        when(formService.getAllForms()).thenReturn(forms);
+        when(formService.isFormTemplateDownloaded(forms.get(1).getUuid())).thenReturn(true);
+
+        assertThat(formController.getAvailableFormByTags(asList("tag3")).size(), is(3));
+        assertThat(formController.getAllDownloadedForms().size(), is(1));
+        assertThat(formController.getRecommendedFormsCount(), is(1));
+        assertThat(formController.getAllTags().size(), is(5));
+        verify(formService).getAllForms();
+
+        when(formService.isFormTemplateDownloaded(forms.get(2).getUuid())).thenReturn(true);
+        formController.deleteFormTemplatesByUUID(asList("uuid1"));
+
+        assertThat(formController.getAllDownloadedForms().size(), is(2));
+    }
+
     @Test
     public void downloadAllForms_shouldDownloadAllForms() throws IOException, ParseException, FormController.FormFetchException {
         List<Form> forms = new ArrayList<Form>();
@@ -236,6 +268,17 @@ public class FormControllerTest {
         formController.saveAllForms(forms);
     }
 
+    @Test
+    public void getAllTags_shouldLoadTheFormsAgainAfterTheCachesAreCleared() throws Exception, FormController.FormFetchException {
+        when(formService.getAllForms()).thenReturn(buildForms());
+        assertThat(formController.getAllTags().size(), is(5));
+
+        when(formService.getAllForms()).thenReturn(new ArrayList<Form>());
+        formController.clearCaches();
+
+        assertThat(formController.getAllTags().size(), is(0));
+    }
+
     @Test
     public void getAllTags_shouldFetchAllUsedTags() throws FormController.FormFetchException, IOException, ParseException {
         when(formService.getAllForms()).thenReturn(buildForms());
@@ -275,21 +318,43 @@ public class FormControllerTest {
     public void replaceFormTemplates_shouldReplaceAnyExistingFormTemplateWithSameId() throws IOException, FormController.FormFetchException, FormController.FormSaveException {
         List<FormTemplate> newFormTemplates = buildFormTemplates();
 
-        FormTemplate existingFormTemplate1 = FormTemplateBuilder.formTemplate().withUuid("uuid1").build();
-        FormTemplate existingFormTemplate2 = FormTemplateBuilder.formTemplate().withUuid("uuid2").build();
+        formController.replaceFormTemplates(newFormTemplates);
+
+        verify(formService).deleteFormTemplateByUUIDs(asList("uuid1", "uuid2", "uuid3"));
+        verify(formService).saveFormTemplate(newFormTemplates.get(0));
+        verify(formService).saveFormTemplate(newFormTemplates.get(1));
+        verify(formService).saveFormTemplate(newFormTemplates.get(2));
+        verify(templateHashStore).setHashes(newFormTemplates);
+    }
 
-        when(formService.getFormTemplateByUuid(newFormTemplates.get(0).getUuid())).thenReturn(existingFormTemplate1);
-        when(formService.getFormTemplateByUuid(newFormTemplates.get(1).getUuid())).thenReturn(existingFormTemplate2);
-        when(formService.getFormTemplateByUuid(newFormTemplates.get(2).getUuid())).thenReturn(null);
+    @Test
+    public void replaceFormTemplates_shouldSkipTemplatesThatHaveNotChanged() throws IOException, FormController.FormFetchException, FormController.FormSaveException {
+        List<FormTemplate> newFormTemplates = buildFormTemplates();
+        when(templateHashStore.isUnchanged(newFormTemplates.get(0))).thenReturn(true);
+        when(templateHashStore.isUnchanged(newFormTemplates.get(2))).thenReturn(true);
+        when(formService.isFormTemplateDownloaded("uuid1")).thenReturn(true);
+        when(formService.isFormTemplateDownloaded("uuid3")).thenReturn(true);
 
         formController.replaceFormTemplates(newFormTemplates);
 
-        verify(formService).deleteFormTemplate(existingFormTemplate1);
-        verify(formService).deleteFormTemplate(existingFormTemplate2);
+        verify(formService).deleteFormTemplateByUUIDs(asList("uuid2"));
+        verify(formService).saveFormTemplate(newFormTemplates.get(1));
+        verify(formService, never()).saveFormTemplate(newFormTemplates.get(0));
+        verify(formService, never()).saveFormTemplate(newFormTemplates.get(2));
+    }
 
-        verify(formService).saveFormTemplate(newFormTemplates.get(0));
+    @Test
+    public void replaceFormTemplates_shouldSaveTemplatesWithAKnownHashThatAreNotStored() throws IOException, FormController.FormFetchException, FormController.FormSaveException {
+        List<FormTemplate> newFormTemplates = buildFormTemplates();
+        when(templateHashStore.isUnchanged(any(FormTemplate.class))).thenReturn(true);
+        when(formService.isFormTemplateDownloaded("uuid1")).thenReturn(true);
+        when(formService.isFormTemplateDownloaded("uuid3")).thenReturn(true);
+
+        formController.replaceFormTemplates(newFormTemplates);
+
+        verify(formService).deleteFormTemplateByUUIDs(asList("uuid2"));
         verify(formService).saveFormTemplate(newFormTemplates.get(1));
-        verify(formService).saveFormTemplate(newFormTemplates.get(2));
+        verify(templateHashStore).setHashes(asList(newFormTemplates.get(1)));
     }
 
     @Test
@@ -452,6 +517,65 @@ public class FormControllerTest {
         assertTrue(containsFormWithUuid(formController.getAllIncompleteForms(), form2.getUuid()));
     }
 
+    @Test
+    public void getAllIncompleteForms_shouldLookUpEachFormAndPatientOnlyOnce() throws Exception, FormController.FormFetchException {
+        Form form = new Form();
+        form.setUuid("formUuid");
+        Patient patient = new Patient();
+        List<FormData> formDataList = new ArrayList<FormData>();
+        for (int i = 0; i < 3; i++) {
+            FormData formData = new FormData();
+            formData.setUuid("formDataUuid" + i);
+            formData.setTemplateUuid("formUuid");
+            formData.setPatientUuid("patientUuid");
+            formDataList.add(formData);
+        }
+        when(formService.getAllFormData(Constants.STATUS_INCOMPLETE)).thenReturn(formDataList);
+        when(formService.getFormByUuid("formUuid")).thenReturn(form);
+        when(patientService.getPatientByUuid("patientUuid")).thenReturn(patient);
+
+        IncompleteFormsWithPatientData incompleteForms = formController.getAllIncompleteForms();
+
+        assertThat(incompleteForms.size(), is(3));
+        assertThat(incompleteForms.get(2).getPatient(), is(patient));
+        verify(formService).getFormByUuid("formUuid");
+        verify(patientService).getPatientByUuid("patientUuid");
+    }
+
+    @Test
+    public void getAllIncompleteFormsSize_shouldCountFormDataWithoutLookingUpFormsOrPatients() throws Exception, FormController.FormFetchException {
+        when(formService.getAllFormData(Constants.STATUS_INCOMPLETE)).thenReturn(asList(new FormData(), new FormData()));
+
+        assertThat(formController.getAllIncompleteFormsSize(), is(2));
+        assertThat(formController.getAllIncompleteFormsSize(), is(2));
+
+        verify(formService).getAllFormData(Constants.STATUS_INCOMPLETE);
+        verify(formService, never()).getFormByUuid(anyString());
+        verify(patientService, never()).getPatientByUuid(anyString());
+    }
+
+    @Test
+    public void getIncompleteFormsCountForPatient_shouldCountAgainAfterFormDataIsSaved() throws Exception, FormController.FormFetchException, FormController.FormDataSaveException {
+        when(formService.getFormDataByPatient("patientUuid", Constants.STATUS_INCOMPLETE)).thenReturn(asList(new FormData()));
+        assertThat(formController.getIncompleteFormsCountForPatient("patientUuid"), is(1));
+
+        when(formService.getFormDataByPatient("patientUuid", Constants.STATUS_INCOMPLETE)).thenReturn(asList(new FormData(), new FormData()));
+        formController.saveFormData(new FormData());
+
+        assertThat(formController.getIncompleteFormsCountForPatient("patientUuid"), is(2));
+    }
+
+    @Test
+    public void getAllCompleteFormsSize_shouldCountAgainAfterTheCachesAreCleared() throws Exception, FormController.FormFetchException {
+        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(asList(new FormData()));
+        assertThat(formController.getAllCompleteFormsSize(), is(1));
+
+        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(new ArrayList<FormData>());
+        formController.clearCaches();
+
+        assertThat(formController.getAllCompleteFormsSize(), is(0));
+    }
+
     @Test (expected = FormController.FormFetchException.class)
     public void getAllIncompleteForms_shouldThrowFormFetchExceptionIfExceptionThrownByService() throws Exception, FormController.FormFetchException {
         doThrow(new IOException()).when(formService).getAllFormData(anyString());
@@ -551,21 +675,113 @@ public class FormControllerTest {
     }
 
     @Test
-    @Ignore
     public void shouldUploadRegistrationFormsBeforeEncounterForms() throws Exception, FormController.UploadFormDataException {
-        FormData registrationFormData = formDataWithStatusAndDiscriminator(Constants.STATUS_COMPLETE, Constants.FORM_DISCRIMINATOR_REGISTRATION);
-        FormData encounterFormData = formDataWithStatusAndDiscriminator(Constants.STATUS_COMPLETE, Constants.FORM_XML_DISCRIMINATOR_ENCOUNTER);
-        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(asList(registrationFormData,encounterFormData));
+        FormData encounterFormData = formDataToUpload("encounterUuid", "patientUuid", Constants.FORM_XML_DISCRIMINATOR_ENCOUNTER);
+        FormData registrationFormData = formDataToUpload("registrationUuid", "patientUuid", Constants.FORM_DISCRIMINATOR_REGISTRATION);
+        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(asList(encounterFormData, registrationFormData));
+        when(formService.syncFormData(any(FormData.class))).thenReturn(true);
+
+        assertTrue(formController.uploadAllCompletedForms());
+
+        InOrder inOrder = inOrder(formService);
+        inOrder.verify(formService).syncFormData(registrationFormData);
+        inOrder.verify(formService).syncFormData(encounterFormData);
+        assertThat(encounterFormData.getStatus(), is(Constants.STATUS_UPLOADED));
+        assertThat(encounterFormData.getJsonPayload(), is("{}"));
+        verify(formService).saveFormData(encounterFormData);
+        verify(observationService).deleteObservationsByFormData("encounterUuid");
+        verify(uploadOutcomeStore).removeOutcomes(asList("registrationUuid"));
+        verify(uploadOutcomeStore).removeOutcomes(asList("encounterUuid"));
+    }
+
+    @Test
+    public void uploadAllCompletedForms_shouldSkipFormsTheServerRejectedUntilTheyAreSavedAgain() throws Exception, FormController.UploadFormDataException, FormController.FormDataSaveException {
+        FormData rejectedFormData = formDataToUpload("rejectedUuid", "patientUuid", Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER);
+        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(asList(rejectedFormData));
+        when(uploadOutcomeStore.getOutcome("rejectedUuid")).thenReturn(FormUploadOutcomeStore.PERMANENT_FAILURE);
+
+        assertThat(formController.uploadAllCompletedForms(), is(false));
+        verify(formService, never()).syncFormData(rejectedFormData);
+
+        formController.saveFormData(rejectedFormData);
+        verify(uploadOutcomeStore).removeOutcomes(asList("rejectedUuid"));
+    }
+
+    @Test
+    public void uploadAllCompletedForms_shouldRecordWhetherAFailedUploadCanBeRetried() throws Exception, FormController.UploadFormDataException {
+        FormData rejectedFormData = formDataToUpload("rejectedUuid", "patientUuid1", Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER);
+        FormData unsentFormData = formDataToUpload("unsentUuid", "patientUuid2", Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER);
+        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(asList(rejectedFormData, unsentFormData));
+        when(formService.syncFormData(rejectedFormData)).thenReturn(false);
+        when(formService.syncFormData(unsentFormData)).thenThrow(new IOException());
 
-        FormController spyController = spy(formController);
-        when(spyController.uploadFormDataToServer(asList(registrationFormData),true)).thenReturn(true);
+        assertThat(formController.uploadAllCompletedForms(), is(false));
 
-        InOrder inOrder = inOrder(spyController.uploadAllCompletedForms());
+        verify(uploadOutcomeStore).recordRejection("rejectedUuid");
+        verify(uploadOutcomeStore, never()).setOutcome("rejectedUuid", FormUploadOutcomeStore.PERMANENT_FAILURE);
+        verify(uploadOutcomeStore).setOutcome("unsentUuid", FormUploadOutcomeStore.RETRYABLE_FAILURE);
+        verify(formService, never()).saveFormData(any(FormData.class));
+        assertThat(unsentFormData.getStatus(), is(Constants.STATUS_COMPLETE));
+    }
+
+    @Test
+    public void uploadAllCompletedForms_shouldHoldBackFormsOfAPatientWhoseRegistrationFailed() throws Exception, FormController.UploadFormDataException {
+        FormData registrationFormData = formDataToUpload("registrationUuid", "patientUuid", Constants.FORM_DISCRIMINATOR_REGISTRATION);
+        FormData encounterFormData = formDataToUpload("encounterUuid", "patientUuid", Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER);
+        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(asList(registrationFormData, encounterFormData));
+        when(formService.syncFormData(registrationFormData)).thenReturn(false);
+        FormController.UploadProgressListener progressListener = mock(FormController.UploadProgressListener.class);
+
+        assertThat(formController.uploadAllCompletedForms(progressListener), is(false));
+
+        verify(formService, never()).syncFormData(encounterFormData);
+        verify(uploadOutcomeStore).setOutcome("encounterUuid", FormUploadOutcomeStore.RETRYABLE_FAILURE);
+        verify(progressListener).onProgress(1, 2);
+        verify(progressListener).onProgress(2, 2);
+    }
+
+    @Test
+    public void uploadAllCompletedForms_shouldStillUploadOtherFormsOfAPatientInTheSamePhase() throws Exception, FormController.UploadFormDataException {
+        FormData rejectedFormData = formDataToUpload("rejectedUuid", "patientUuid", Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER);
+        FormData failedFormData = formDataToUpload("failedUuid", "patientUuid", Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER);
+        FormData encounterFormData = formDataToUpload("encounterUuid", "patientUuid", Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER);
+        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(asList(rejectedFormData, failedFormData, encounterFormData));
+        when(uploadOutcomeStore.getOutcome("rejectedUuid")).thenReturn(FormUploadOutcomeStore.PERMANENT_FAILURE);
+        when(formService.syncFormData(failedFormData)).thenReturn(false);
+        when(formService.syncFormData(encounterFormData)).thenReturn(true);
 
-        spyController.uploadAllCompletedForms();
+        assertThat(formController.uploadAllCompletedForms(), is(false));
 
-        inOrder.verify(spyController).uploadFormDataToServer(asList(registrationFormData), true);
-        inOrder.verify(spyController).uploadFormDataToServer(asList(encounterFormData),true);
+        verify(formService).syncFormData(encounterFormData);
+        verify(uploadOutcomeStore).recordRejection("failedUuid");
+        assertThat(encounterFormData.getStatus(), is(Constants.STATUS_UPLOADED));
+    }
+
+    @Test
+    public void uploadAllCompletedForms_shouldNotSendFormsUntilTheCancelRequestIsCleared() throws Exception, FormController.UploadFormDataException {
+        FormData formData = formDataToUpload("encounterUuid", "patientUuid", Constants.FORM_JSON_DISCRIMINATOR_ENCOUNTER);
+        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(asList(formData));
+        when(formService.syncFormData(formData)).thenReturn(true);
+        formController.cancelUploads();
+
+        try {
+            formController.uploadAllCompletedForms();
+            fail("Expected the upload to be cancelled");
+        } catch (FormController.UploadFormDataException e) {
+            assertTrue(e.getCause() instanceof CancellationException);
+        }
+        verify(formService, never()).syncFormData(formData);
+
+        formController.clearUploadCancelRequest();
+        assertTrue(formController.uploadAllCompletedForms());
+    }
+
+    private FormData formDataToUpload(String uuid, String patientUuid, String discriminator) {
+        FormData formData = formDataWithStatusAndDiscriminator(Constants.STATUS_COMPLETE, discriminator);
+        formData.setUuid(uuid);
+        formData.setPatientUuid(patientUuid);
+        formData.setJsonPayload("{}");
+        return formData;
     }
 
     private FormData formDataWithStatusAndDiscriminator(String status, String formDiscriminatorEncounter) {
@@ -597,7 +813,29 @@ public class FormControllerTest {
 
         formController.deleteCompleteAndIncompleteForms(asList(uuid));
         verify(formService).deleteFormData(asList(completeFormToDelete));
+        verify(uploadOutcomeStore).removeOutcomes(asList(uuid));
+    }
 
+    @Test
+    public void shouldTellTheFormChangeListenerWhenFormsAreUploadedDeletedOrReplaced() throws Exception, FormController.UploadFormDataException,
+            FormController.FormDeleteException, FormController.FormSaveException {
+        FormController.FormChangeListener formChangeListener = mock(FormController.FormChangeListener.class);
+        formController.setFormChangeListener(formChangeListener);
+        FormData formData = formDataToUpload("uuid", "patientUuid", Constants.FORM_JSON_DISCRIMINATOR_CONSULTATION);
+        when(formService.getAllFormData(Constants.STATUS_COMPLETE)).thenReturn(asList(formData));
+        when(formService.syncFormData(formData)).thenReturn(true);
+        when(formService.getFormDataByUuid("uuid")).thenReturn(formData);
+
+        formController.uploadAllCompletedForms();
+        verify(formChangeListener, atLeastOnce()).onFormsChanged();
+
+        reset(formChangeListener);
+        formController.deleteCompleteAndIncompleteForms(asList("uuid"));
+        verify(formChangeListener, atLeastOnce()).onFormsChanged();
+
+        reset(formChangeListener);
+        formController.replaceFormTemplates(buildFormTemplates());
+        verify(formChangeListener, atLeastOnce()).onFormsChanged();
     }
 
     private List<Form> buildForms() {
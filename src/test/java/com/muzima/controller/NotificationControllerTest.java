@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.controller;
+
+import com.muzima.api.model.Form;
+import com.muzima.api.model.FormData;
+import com.muzima.api.model.Notification;
+import com.muzima.api.model.Tag;
+import com.muzima.api.service.FormService;
+import com.muzima.api.service.NotificationService;
+import com.muzima.service.SntpService;
+import com.muzima.service.SyncWatermarkStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import static com.muzima.utils.Constants.FORM_DISCRIMINATOR_CONSULTATION;
+import static com.muzima.utils.Constants.NotificationStatusConstants.NOTIFICATION_UNREAD;
+import static com.muzima.utils.Constants.STATUS_UPLOADED;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class NotificationControllerTest {
+
+    @Mock
+    private NotificationService notificationService;
+
+    @Mock
+    private FormService formService;
+
+    @Mock
+    private SntpService sntpService;
+
+    @Mock
+    private SyncWatermarkStore syncWatermarkStore;
+
+    private NotificationController controller;
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        controller = new NotificationController(notificationService, formService, sntpService, syncWatermarkStore);
+
+        Form consultationForm = new Form();
+        consultationForm.setTags(new Tag[]{new Tag() {{
+            setName(FORM_DISCRIMINATOR_CONSULTATION);
+        }}});
+        when(formService.getFormByUuid("consultationTemplateUuid")).thenReturn(consultationForm);
+        when(formService.getFormByUuid("encounterTemplateUuid")).thenReturn(new Form());
+        when(formService.getAllFormData(STATUS_UPLOADED)).thenReturn(asList(
+                formData("formData1", "patient1", "consultationTemplateUuid"),
+                formData("formData2", "patient2", "consultationTemplateUuid"),
+                formData("formData3", "patient3", "encounterTemplateUuid")));
+        when(notificationService.getNotificationByReceiver("receiverUuid", null)).thenReturn(asList(
+                notification("formData1", NOTIFICATION_UNREAD),
+                notification("formData2", "read"),
+                notification("formData3", NOTIFICATION_UNREAD)));
+    }
+
+    @Test
+    public void shouldAnswerPatientNotificationQueriesFromOneIndex() throws Exception, NotificationController.NotificationFetchException {
+        assertThat(controller.patientHasNotifications("patient1", "receiverUuid", NOTIFICATION_UNREAD), is(true));
+        assertThat(controller.patientHasNotifications("patient2", "receiverUuid", NOTIFICATION_UNREAD), is(false));
+        assertThat(controller.getNotificationsCountForPatient("patient2", "receiverUuid", null), is(1));
+        assertThat(controller.getNotificationsForPatient("patient3", "receiverUuid", null).size(), is(0));
+
+        verify(notificationService, times(1)).getNotificationByReceiver("receiverUuid", null);
+        verify(formService, times(1)).getAllFormData(STATUS_UPLOADED);
+        verify(formService, times(1)).getFormByUuid("consultationTemplateUuid");
+    }
+
+    @Test
+    public void shouldRebuildTheIndexAfterANotificationIsSaved() throws Exception, NotificationController.NotificationFetchException, NotificationController.NotificationSaveException {
+        controller.patientHasNotifications("patient1", "receiverUuid", NOTIFICATION_UNREAD);
+        controller.saveNotification(new Notification());
+        controller.patientHasNotifications("patient1", "receiverUuid", NOTIFICATION_UNREAD);
+
+        verify(notificationService, times(2)).getNotificationByReceiver("receiverUuid", null);
+    }
+
+    @Test
+    public void shouldRebuildTheIndexOnceItIsInvalidated() throws Exception, NotificationController.NotificationFetchException {
+        assertThat(controller.patientHasNotifications("patient1", "receiverUuid", NOTIFICATION_UNREAD), is(true));
+
+        when(notificationService.getNotificationByReceiver("receiverUuid", null)).thenReturn(new ArrayList<Notification>());
+        controller.invalidateNotificationIndex();
+
+        assertThat(controller.patientHasNotifications("patient1", "receiverUuid", NOTIFICATION_UNREAD), is(false));
+    }
+
+    @Test
+    public void shouldSaveChangedAndDeleteVoidedNotificationsSinceTheLastSync() throws Exception, NotificationController.NotificationDownloadException,
+            NotificationController.NotificationSaveException, NotificationController.NotificationDeleteException {
+        Date lastSyncedAt = new Date(1000);
+        Date syncStartedAt = new Date(2000);
+        when(sntpService.getLocalTime()).thenReturn(syncStartedAt);
+        when(syncWatermarkStore.getWatermark("receiver", "receiverUuid")).thenReturn(lastSyncedAt);
+        Notification changedNotification = notification("formData1", "read");
+        Notification voidedNotification = notification("formData2", NOTIFICATION_UNREAD);
+        when(voidedNotification.isVoided()).thenReturn(true);
+        when(notificationService.downloadNotificationByReceiver("receiverUuid", lastSyncedAt))
+                .thenReturn(asList(changedNotification, voidedNotification));
+
+        assertThat(controller.syncNotificationsByReceiver("receiverUuid"), is(1));
+
+        verify(notificationService).saveNotifications(singletonList(changedNotification));
+        verify(notificationService).deleteNotifications(singletonList(voidedNotification));
+        verify(syncWatermarkStore).setWatermarks("receiver", singletonList("receiverUuid"), syncStartedAt);
+    }
+
+    private static FormData formData(String uuid, String patientUuid, String templateUuid) {
+        FormData formData = new FormData();
+        formData.setUuid(uuid);
+        formData.setPatientUuid(patientUuid);
+        formData.setTemplateUuid(templateUuid);
+        return formData;
+    }
+
+    private static Notification notification(String source, String status) {
+        Notification notification = mock(Notification.class);
+        when(notification.getSource()).thenReturn(source);
+        when(notification.getStatus()).thenReturn(status);
+        return notification;
+    }
+}
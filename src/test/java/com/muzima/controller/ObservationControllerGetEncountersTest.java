@@ -16,6 +16,7 @@ import com.muzima.api.service.EncounterService;
 import com.muzima.api.service.LastSyncTimeService;
 import com.muzima.api.service.ObservationService;
 import com.muzima.service.SntpService;
+import com.muzima.service.SyncWatermarkStore;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -47,7 +48,7 @@ public class ObservationControllerGetEncountersTest {
         observations.add(observation);
         when(observationService.getObservationsByPatient(patientUuid)).thenReturn(observations);
 
-        ObservationController observationController = new ObservationController(observationService, conceptService, encounterService, lastSyncTimeService, sntpService);
+        ObservationController observationController = new ObservationController(observationService, conceptService, encounterService, lastSyncTimeService, sntpService, mock(SyncWatermarkStore.class));
         observationController.getEncountersWithObservations(patientUuid);
 
         verify(conceptService).getConceptByUuid(conceptUuid);
@@ -17,15 +17,13 @@ import com.muzima.api.service.LastSyncTimeService;
 import com.muzima.api.service.ObservationService;
 import com.muzima.model.observation.ConceptWithObservations;
 import com.muzima.service.SntpService;
+import com.muzima.service.SyncWatermarkStore;
 import org.junit.Before;
 import org.junit.Test;
-import org.mockito.ArgumentCaptor;
 
-import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
@@ -34,9 +32,14 @@ import static java.util.Arrays.asList;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.matchers.JUnitMatchers.hasItems;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -47,6 +50,7 @@ public class ObservationControllerTest {
     private ConceptService conceptService;
     private LastSyncTimeService lastSyncTimeService;
     private SntpService sntpService;
+    private SyncWatermarkStore syncWatermarkStore;
 
     @Before
     public void setUp() throws Exception {
@@ -55,104 +59,104 @@ public class ObservationControllerTest {
         EncounterService encounterService = mock(EncounterService.class);
         lastSyncTimeService = mock(LastSyncTimeService.class);
         sntpService = mock(SntpService.class);
+        syncWatermarkStore = mock(SyncWatermarkStore.class);
         observationController = new ObservationController(observationService, conceptService,
-                encounterService, lastSyncTimeService, sntpService);
+                encounterService, lastSyncTimeService, sntpService, syncWatermarkStore);
     }
 
     @Test
-    public void shouldCheckLastSyncTimeBeforeDownloadingObservations() throws Exception, ObservationController.DownloadObservationException {
+    public void shouldDownloadAllObservationsForPatientsWithoutWatermark() throws Exception, ObservationController.DownloadObservationException {
         List<String> patientUuids = asList(new String[]{"PatientUuid1", "PatientUuid2"});
         List<String> conceptUuids = asList(new String[]{"ConceptUuid1", "ConceptUuid2"});
-        Date aDate = mock(Date.class);
-        when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_OBSERVATIONS, "PatientUuid1,PatientUuid2;ConceptUuid1,ConceptUuid2")).thenReturn(aDate);
+
         observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids);
-        verify(lastSyncTimeService).getLastSyncTimeFor(DOWNLOAD_OBSERVATIONS, "PatientUuid1,PatientUuid2;ConceptUuid1,ConceptUuid2");
-        verify(lastSyncTimeService, never()).getFullLastSyncTimeInfoFor(DOWNLOAD_OBSERVATIONS);
+
+        verify(observationService).downloadObservations(patientUuids, conceptUuids, null);
+        verify(lastSyncTimeService, never()).getLastSyncTimeFor(eq(DOWNLOAD_OBSERVATIONS), anyString());
     }
 
     @Test
-    public void shouldUseLastSyncTimeToDownloadObservations() throws Exception, ObservationController.DownloadObservationException {
+    public void shouldDownloadObservationsSinceEarliestWatermarkOfKnownPatients() throws Exception, ObservationController.DownloadObservationException {
         List<String> patientUuids = asList(new String[]{"PatientUuid1", "PatientUuid2"});
-        List<String> conceptUuids = asList(new String[]{"ConceptUuid1", "ConceptUuid2"});
-        Date lastSyncTime = mock(Date.class);
-        when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_OBSERVATIONS, "PatientUuid1,PatientUuid2;ConceptUuid1,ConceptUuid2")).thenReturn(lastSyncTime);
+        List<String> conceptUuids = asList(new String[]{"ConceptUuid1"});
+        Date conceptAddedAt = new Date(1000);
+        Date earlierSync = new Date(2000);
+        Date laterSync = new Date(3000);
+        when(syncWatermarkStore.getWatermark("patient", "PatientUuid1")).thenReturn(laterSync);
+        when(syncWatermarkStore.getWatermark("patient", "PatientUuid2")).thenReturn(earlierSync);
+        when(syncWatermarkStore.getWatermark("conceptAdded", "ConceptUuid1")).thenReturn(conceptAddedAt);
+        when(syncWatermarkStore.getWatermark("concept", "ConceptUuid1")).thenReturn(laterSync);
 
         observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids);
-        verify(observationService, never()).downloadObservationsByPatientUuidsAndConceptUuids(anyList(), anyList());
-        verify(observationService).downloadObservations(patientUuids, conceptUuids, lastSyncTime);
+
+        verify(observationService).downloadObservations(patientUuids, conceptUuids, earlierSync);
+        verify(observationService, never()).downloadObservations(anyList(), anyList(), (Date) isNull());
     }
 
     @Test
-    public void shouldUpdateLastSyncTimeForObservation() throws Exception, ObservationController.DownloadObservationException {
+    public void shouldDownloadNewPatientsAndNewConceptsInFull() throws Exception, ObservationController.DownloadObservationException {
         List<String> patientUuids = asList(new String[]{"PatientUuid1", "PatientUuid2"});
         List<String> conceptUuids = asList(new String[]{"ConceptUuid1", "ConceptUuid2"});
-        Date currentDate = mock(Date.class);
-        when(sntpService.getLocalTime()).thenReturn(currentDate);
+        Date lastSync = new Date(2000);
+        when(syncWatermarkStore.getWatermark("patient", "PatientUuid1")).thenReturn(lastSync);
+        when(syncWatermarkStore.getWatermark("conceptAdded", "ConceptUuid1")).thenReturn(new Date(1000));
+        when(syncWatermarkStore.getWatermark("concept", "ConceptUuid1")).thenReturn(lastSync);
+        Observation anObservation = mock(Observation.class);
+        Observation anotherObservation = mock(Observation.class);
+        Observation yetAnotherObservation = mock(Observation.class);
+        when(observationService.downloadObservations(asList("PatientUuid2"), conceptUuids, null))
+                .thenReturn(new ArrayList<Observation>(asList(anObservation)));
+        when(observationService.downloadObservations(asList("PatientUuid1"), asList("ConceptUuid2"), null))
+                .thenReturn(new ArrayList<Observation>(asList(anotherObservation)));
+        when(observationService.downloadObservations(asList("PatientUuid1"), asList("ConceptUuid1"), lastSync))
+                .thenReturn(new ArrayList<Observation>(asList(yetAnotherObservation)));
 
-        observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids);
-        ArgumentCaptor<LastSyncTime> argumentCaptor = ArgumentCaptor.forClass(LastSyncTime.class);
-        verify(lastSyncTimeService).saveLastSyncTime(argumentCaptor.capture());
-        LastSyncTime savedLastSyncTime = argumentCaptor.getValue();
-        assertThat(savedLastSyncTime.getApiName(), is(DOWNLOAD_OBSERVATIONS));
-        assertThat(savedLastSyncTime.getLastSyncDate(), is(currentDate));
-        assertThat(savedLastSyncTime.getParamSignature(), is("PatientUuid1,PatientUuid2;ConceptUuid1,ConceptUuid2"));
+        List<Observation> observations = observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids);
+
+        assertThat(observations.size(), is(3));
+        assertThat(observations, hasItems(anObservation, anotherObservation, yetAnotherObservation));
     }
 
     @Test
-    public void shouldProperlyProcessChangeInKnownPatientOrConcept() throws ObservationController.DownloadObservationException, IOException {
+    public void shouldUpdateWatermarksForObservation() throws Exception, ObservationController.DownloadObservationException {
         List<String> patientUuids = asList(new String[]{"PatientUuid1", "PatientUuid2"});
         List<String> conceptUuids = asList(new String[]{"ConceptUuid1", "ConceptUuid2"});
-        List<String> previousPatientUuids = asList(new String[]{"PatientUuid1", "PatientUuid3"});
-        List<String> previousConceptUuids = asList(new String[]{"ConceptUuid1", "ConceptUuid3"});
-        List<String> newPatientUuids = asList(new String[]{"PatientUuid2"});
-        List<String> newConceptUuids = asList(new String[]{"ConceptUuid2"});
-        LastSyncTime lastSyncTimeInFull = mock(LastSyncTime.class);
-        when(lastSyncTimeInFull.getParamSignature()).thenReturn("PatientUuid1,PatientUuid3;ConceptUuid1,ConceptUuid3");
-        Date aDate =  mock(Date.class);
-        when(lastSyncTimeInFull.getLastSyncDate()).thenReturn(aDate);
-        when(lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_OBSERVATIONS)).thenReturn(lastSyncTimeInFull);
-        List<Observation> anObservationSet = new ArrayList<Observation>();
-        Observation anObservation = mock(Observation.class);
-        anObservationSet.add(anObservation);
-        when(observationService.downloadObservations(previousPatientUuids, previousConceptUuids, aDate)).thenReturn(anObservationSet);
-        List<Observation> anotherObservationSet = new ArrayList<Observation>();
-        Observation anotherObservation = mock(Observation.class);
-        anotherObservationSet.add(anotherObservation);
-        List<String> allConceptUuids = new ArrayList<String>();
-        allConceptUuids.addAll(previousConceptUuids);
-        allConceptUuids.addAll(newConceptUuids);
-        Collections.sort(allConceptUuids);
-        when(observationService.downloadObservations(newPatientUuids, allConceptUuids, null)).thenReturn(anotherObservationSet);
-        Date currentDate = mock(Date.class);
+        Date currentDate = new Date();
         when(sntpService.getLocalTime()).thenReturn(currentDate);
 
-        List<Observation> observations = observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids);
+        observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids);
 
-        verify(lastSyncTimeService).getFullLastSyncTimeInfoFor(DOWNLOAD_OBSERVATIONS);
-        verify(observationService).downloadObservations(previousPatientUuids, previousConceptUuids, aDate);
-        verify(observationService).downloadObservations(previousPatientUuids, newConceptUuids, null);
-        verify(observationService).downloadObservations(newPatientUuids, allConceptUuids, null);
-        assertThat(observations.size(), is(2));
-        assertThat(observations, hasItems(anObservation, anotherObservation));
-
-        ArgumentCaptor<LastSyncTime> argumentCaptor = ArgumentCaptor.forClass(LastSyncTime.class);
-        verify(lastSyncTimeService).saveLastSyncTime(argumentCaptor.capture());
-        LastSyncTime savedLastSyncTime = argumentCaptor.getValue();
-        assertThat(savedLastSyncTime.getApiName(), is(DOWNLOAD_OBSERVATIONS));
-        assertThat(savedLastSyncTime.getLastSyncDate(), is(currentDate));
-        assertThat(savedLastSyncTime.getParamSignature(), is("PatientUuid1,PatientUuid2,PatientUuid3;ConceptUuid1,ConceptUuid2,ConceptUuid3"));
+        verify(syncWatermarkStore, never()).setWatermarks(eq("patient"), anyList(), any(Date.class));
+        verify(syncWatermarkStore).setWatermarks("concept", conceptUuids, currentDate);
+        verify(syncWatermarkStore).setWatermarksIfAbsent("conceptAdded", conceptUuids, currentDate);
     }
 
     @Test
-    public void shouldRecognisedNonInitialisedLastSyncTime() throws ObservationController.DownloadObservationException, IOException {
+    public void shouldAdvancePatientWatermarksWhenMarkedSynced() throws Exception {
         List<String> patientUuids = asList(new String[]{"PatientUuid1", "PatientUuid2"});
-        List<String> conceptUuids = asList(new String[]{"ConceptUuid1", "ConceptUuid2"});
-        when(lastSyncTimeService.getLastSyncTimeFor(DOWNLOAD_OBSERVATIONS, "PatientUuid1,PatientUuid2;ConceptUuid1,ConceptUuid2")).thenReturn(null);
-        when(lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_OBSERVATIONS)).thenReturn(null);
+        Date syncStartedAt = new Date(5000);
 
-        observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids);
+        observationController.markPatientsSynced(patientUuids, syncStartedAt);
 
-        verify(observationService).downloadObservations(patientUuids, conceptUuids, null);
+        verify(syncWatermarkStore).setWatermarks("patient", patientUuids, syncStartedAt);
+    }
+
+    @Test
+    public void shouldSeedWatermarksFromLegacyParamSignature() throws Exception, ObservationController.DownloadObservationException {
+        LastSyncTime legacyLastSyncTime = mock(LastSyncTime.class);
+        Date legacyDate = new Date(1000);
+        when(legacyLastSyncTime.getParamSignature()).thenReturn("PatientUuid1,PatientUuid3;ConceptUuid1,ConceptUuid3");
+        when(legacyLastSyncTime.getLastSyncDate()).thenReturn(legacyDate);
+        when(lastSyncTimeService.getFullLastSyncTimeInfoFor(DOWNLOAD_OBSERVATIONS)).thenReturn(legacyLastSyncTime);
+        when(syncWatermarkStore.isEmpty()).thenReturn(true);
+
+        observationController.downloadObservationsByPatientUuidsAndConceptUuids(asList("PatientUuid1"), asList("ConceptUuid1"));
+        observationController.downloadObservationsByPatientUuidsAndConceptUuids(asList("PatientUuid1"), asList("ConceptUuid1"));
+
+        verify(lastSyncTimeService, times(1)).getFullLastSyncTimeInfoFor(DOWNLOAD_OBSERVATIONS);
+        verify(syncWatermarkStore).setWatermarks("patient", asList("PatientUuid1", "PatientUuid3"), legacyDate);
+        verify(syncWatermarkStore).setWatermarks("concept", asList("ConceptUuid1", "ConceptUuid3"), legacyDate);
+        verify(syncWatermarkStore).setWatermarks("conceptAdded", asList("ConceptUuid1", "ConceptUuid3"), legacyDate);
     }
 
     @Test
@@ -8,6 +8,7 @@
 
 package com.muzima.controller;
 
+import com.muzima.api.model.Cohort;
 import com.muzima.api.model.CohortMember;
 import com.muzima.api.model.Patient;
 import com.muzima.api.model.PatientIdentifier;
@@ -102,6 +103,35 @@ public class PatientControllerTest {
         assertThat(patients.size(), is(1));
     }
 
+    @Test
+    public void getPatientCursor_shouldPageThroughCohortMembersOnceEachThenPatientsNotInCohorts() throws IOException, PatientController.PatientLoadException {
+        Cohort cohort1 = new Cohort();
+        cohort1.setUuid("cohort1");
+        Cohort cohort2 = new Cohort();
+        cohort2.setUuid("cohort2");
+        when(cohortService.getAllCohorts()).thenReturn(asList(cohort1, cohort2));
+        CohortMember member1 = cohortMember("cohort1", "patient1");
+        CohortMember member2 = cohortMember("cohort1", "patient2");
+        CohortMember member3 = cohortMember("cohort2", "patient3");
+        when(cohortService.getCohortMembers("cohort1")).thenReturn(asList(member1, member2));
+        when(cohortService.getCohortMembers("cohort2")).thenReturn(asList(cohortMember("cohort2", "patient2"), member3));
+        Patient patient1 = new Patient();
+        Patient patient2 = new Patient();
+        Patient patient3 = new Patient();
+        Patient patientNotInCohort = new Patient();
+        when(patientService.getPatientsFromCohortMembers(asList(member1, member2))).thenReturn(asList(patient1, patient2));
+        when(patientService.getPatientsFromCohortMembers(asList(member3))).thenReturn(asList(patient3));
+        when(patientService.getPatientsNotInCohorts()).thenReturn(asList(patientNotInCohort));
+
+        PatientCursor cursor = patientController.getPatientCursor(null);
+
+        assertThat(cursor.nextPage(2), is(asList(patient1, patient2)));
+        assertThat(cursor.nextPage(2), is(asList(patient3)));
+        assertThat(cursor.hasMore(), is(true));
+        assertThat(cursor.nextPage(2), is(asList(patientNotInCohort)));
+        assertThat(cursor.hasMore(), is(false));
+    }
+
     @Test
     public void shouldSearchWithOutCohortUUIDIsNull() throws IOException, ParseException, PatientController.PatientLoadException {
         String searchString = "searchString";
@@ -138,6 +168,13 @@ public class PatientControllerTest {
         verify(patientService).searchPatients(searchString, cohortUUID);
     }
 
+    private CohortMember cohortMember(String cohortUuid, String patientUuid) {
+        CohortMember cohortMember = new CohortMember();
+        cohortMember.setCohortUuid(cohortUuid);
+        cohortMember.setPatientUuid(patientUuid);
+        return cohortMember;
+    }
+
     private List<CohortMember> buildCohortMembers(String cohortId) {
         List<CohortMember> cohortMembers = new ArrayList<CohortMember>();
         CohortMember member1 = new CohortMember();
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.controller;
+
+import com.muzima.api.model.Patient;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PatientSearchEngineTest {
+
+    private PatientController patientController;
+    private PatientSearchEngine searchEngine;
+    private Patient mohamed;
+    private Patient moses;
+    private Patient amos;
+
+    @Before
+    public void setUp() throws Exception {
+        patientController = mock(PatientController.class);
+        searchEngine = new PatientSearchEngine(patientController, "cohortUuid");
+        mohamed = patient("Mohamed", "Ali", "1234-5");
+        moses = patient("Moses", "Kip", "2234-1");
+        amos = patient("Juma", "Mosoti", "3234-1");
+        when(patientController.searchPatientLocally("mo", "cohortUuid")).thenReturn(asList(mohamed, moses, amos));
+    }
+
+    @Test
+    public void shouldNarrowTheResultsOfAShorterTermInsteadOfQueryingAgain() throws Exception, PatientController.PatientLoadException {
+        assertThat(searchEngine.search("mo").size(), is(3));
+        assertThat(searchEngine.search("Mos"), is(asList(moses, amos)));
+        assertThat(searchEngine.search("moh"), is(asList(mohamed)));
+        assertThat(searchEngine.search("mo").size(), is(3));
+
+        verify(patientController, times(1)).searchPatientLocally("mo", "cohortUuid");
+        verify(patientController, times(0)).searchPatientLocally("Mos", "cohortUuid");
+        verify(patientController, times(0)).searchPatientLocally("moh", "cohortUuid");
+    }
+
+    @Test
+    public void shouldQueryAgainOncePatientsHaveChanged() throws Exception, PatientController.PatientLoadException {
+        searchEngine.search("mo");
+        when(patientController.getPatientDataGeneration()).thenReturn(1);
+        when(patientController.searchPatientLocally("mo", "cohortUuid")).thenReturn(asList(moses));
+
+        assertThat(searchEngine.search("moh").size(), is(0));
+        assertThat(searchEngine.search("mo"), is(asList(moses)));
+    }
+
+    @Test
+    public void shouldMatchIdentifierPrefixesAcrossPunctuation() throws Exception, PatientController.PatientLoadException {
+        when(patientController.searchPatientLocally("1", "cohortUuid")).thenReturn(asList(mohamed, moses));
+        searchEngine.search("1");
+
+        List<Patient> patients = searchEngine.search("1234-");
+
+        assertThat(patients, is(asList(mohamed)));
+    }
+
+    @Test
+    public void shouldQueryAgainForTermsOfMoreThanOneWordAndAfterBeingCleared() throws Exception, PatientController.PatientLoadException {
+        searchEngine.search("mo");
+        searchEngine.search("mo ali");
+        searchEngine.clear();
+        searchEngine.search("moh");
+
+        verify(patientController).searchPatientLocally("mo ali", "cohortUuid");
+        verify(patientController).searchPatientLocally("moh", "cohortUuid");
+    }
+
+    private static Patient patient(String givenName, String familyName, String identifier) {
+        Patient patient = mock(Patient.class);
+        when(patient.getGivenName()).thenReturn(givenName);
+        when(patient.getFamilyName()).thenReturn(familyName);
+        when(patient.getIdentifier()).thenReturn(identifier);
+        return patient;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import com.muzima.MuzimaApplication;
+import com.muzima.api.model.FormData;
+import com.muzima.controller.EncounterController;
+import com.muzima.controller.FormController;
+import com.muzima.controller.ObservationController;
+import com.muzima.testSupport.CustomTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.muzima.utils.Constants.STATUS_COMPLETE;
+import static com.muzima.utils.Constants.STATUS_INCOMPLETE;
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(CustomTestRunner.class)
+public class FormObservationServiceTest {
+    private MuzimaApplication muzimaApplication;
+    private FormObservationQueue queue;
+    private FormController formController;
+    private ObservationController observationController;
+    private EncounterController encounterController;
+    private TestFormObservationService service;
+
+    @Before
+    public void setUp() throws Exception {
+        muzimaApplication = mock(MuzimaApplication.class);
+        queue = mock(FormObservationQueue.class);
+        formController = mock(FormController.class);
+        observationController = mock(ObservationController.class);
+        encounterController = mock(EncounterController.class);
+        when(muzimaApplication.getFormObservationQueue()).thenReturn(queue);
+        when(muzimaApplication.getFormController()).thenReturn(formController);
+        when(muzimaApplication.getObservationController()).thenReturn(observationController);
+        when(muzimaApplication.getEncounterController()).thenReturn(encounterController);
+        when(formController.getFormStatusLock()).thenReturn(new Object());
+        when(queue.getQueued()).thenReturn(asList("formDataUuid"));
+        service = new TestFormObservationService();
+    }
+
+    @Test
+    public void shouldReplaceWhatEarlierAttemptsStoredAndDequeueTheForm() throws Exception, FormController.FormDataFetchException,
+            ObservationController.DeleteObservationException, EncounterController.DeleteEncounterException {
+        FormData formData = formData(STATUS_COMPLETE);
+        when(formController.getFormDataByUuid("formDataUuid")).thenReturn(formData);
+
+        service.onHandleIntent(null);
+
+        verify(observationController).deleteObservationsByFormData("formDataUuid");
+        verify(encounterController).deleteEncountersByFormDataUuid("patientUuid", "formDataUuid");
+        assertThat(service.parsedForms, is(asList(formData)));
+        verify(queue).remove("formDataUuid");
+    }
+
+    @Test
+    public void shouldKeepAFailedFormQueuedForTheNextRun() throws Exception, FormController.FormDataFetchException {
+        when(formController.getFormDataByUuid("formDataUuid")).thenReturn(formData(STATUS_COMPLETE));
+        when(queue.recordFailure("formDataUuid")).thenReturn(1);
+        service.failure = new RuntimeException();
+
+        service.onHandleIntent(null);
+
+        verify(queue).recordFailure("formDataUuid");
+        verify(queue, never()).remove(anyString());
+        assertThat(service.droppedNotifications, is(0));
+    }
+
+    @Test
+    public void shouldDropAFormAndTellTheUserAfterTheLastAttemptFailed() throws Exception, FormController.FormDataFetchException {
+        when(formController.getFormDataByUuid("formDataUuid")).thenReturn(formData(STATUS_COMPLETE));
+        when(queue.recordFailure("formDataUuid")).thenReturn(3);
+        service.failure = new RuntimeException();
+
+        service.onHandleIntent(null);
+
+        verify(queue).remove("formDataUuid");
+        assertThat(service.droppedNotifications, is(1));
+    }
+
+    @Test
+    public void shouldSkipFormsThatAreNoLongerComplete() throws Exception, FormController.FormDataFetchException,
+            ObservationController.DeleteObservationException {
+        when(formController.getFormDataByUuid("formDataUuid")).thenReturn(formData(STATUS_INCOMPLETE));
+
+        service.onHandleIntent(null);
+
+        verify(observationController, never()).deleteObservationsByFormData(anyString());
+        assertThat(service.parsedForms.size(), is(0));
+        verify(queue).remove("formDataUuid");
+    }
+
+    private FormData formData(String status) {
+        FormData formData = new FormData();
+        formData.setUuid("formDataUuid");
+        formData.setPatientUuid("patientUuid");
+        formData.setStatus(status);
+        formData.setJsonPayload("{}");
+        return formData;
+    }
+
+    private class TestFormObservationService extends FormObservationService {
+        private List<FormData> parsedForms = new ArrayList<FormData>();
+        private RuntimeException failure;
+        private int droppedNotifications;
+
+        @Override
+        protected MuzimaApplication getMuzimaApplication() {
+            return muzimaApplication;
+        }
+
+        @Override
+        protected void parseAndSaveObservations(MuzimaApplication applicationContext, FormData formData) {
+            if (failure != null) {
+                throw failure;
+            }
+            parsedForms.add(formData);
+        }
+
+        @Override
+        protected void notifyObservationsDropped() {
+            droppedNotifications++;
+        }
+    }
+}
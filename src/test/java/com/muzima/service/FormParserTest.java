@@ -62,7 +62,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldCreateMultipleObservations() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldCreateMultipleObservations() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/histo_xml_payload.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
 
@@ -71,7 +71,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldAssociateCorrectConceptForObservation() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldAssociateCorrectConceptForObservation() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/one_date_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
         Concept aConcept = mock(Concept.class);
@@ -84,7 +84,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldParseObservationOfTypeConcept() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldParseObservationOfTypeConcept() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/value_concept_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
         Concept aConcept = mock(Concept.class);
@@ -99,7 +99,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldParsePayloadWithMultipleSelectObservations() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldParsePayloadWithMultipleSelectObservations() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/multiple_select_value_concept_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
         Concept aConcept = mock(Concept.class);
@@ -114,7 +114,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldParsePayloadWithMultipleSelectObservationsAndNoneSelected() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldParsePayloadWithMultipleSelectObservationsAndNoneSelected() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/multiple_select_value_concept_observation_with_no_selection.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
         Concept aConcept = mock(Concept.class);
@@ -125,7 +125,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldNotCreateObservationWithEmptyValue() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException {
+    public void shouldNotCreateObservationWithEmptyValue() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/observation_with_empty_value.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
         Concept aConcept = mock(Concept.class);
@@ -136,7 +136,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldParseNonPreciseNumericObservation() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException {
+    public void shouldParseNonPreciseNumericObservation() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/numeric_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
         Concept aConcept = mock(Concept.class);
@@ -150,7 +150,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldParsePreciseNumericObservationToTwoDecimalPlaces() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException {
+    public void shouldParsePreciseNumericObservationToTwoDecimalPlaces() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/numeric_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
         Concept aConcept = mock(Concept.class);
@@ -166,7 +166,7 @@ public class FormParserTest {
 
 
     @Test
-    public void shouldBuildDummyConceptForObservationOfTypeConcept() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldBuildDummyConceptForObservationOfTypeConcept() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/value_concept_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
         Concept aConcept = mock(Concept.class);
@@ -183,7 +183,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldPrefixCreatedObservationsUuidWithCustomPrefix() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldPrefixCreatedObservationsUuidWithCustomPrefix() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/one_date_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
 
@@ -192,7 +192,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldAssociateCorrectEncounterForObservation() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldAssociateCorrectEncounterForObservation() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/one_date_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
 
@@ -201,7 +201,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldSetAssociateEncounterTimeAsObservationDateTime() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException {
+    public void shouldSetAssociateEncounterTimeAsObservationDateTime() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/one_date_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
 
@@ -210,7 +210,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldAssociateEncountersToDummyProvider() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException {
+    public void shouldAssociateEncountersToDummyProvider() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/one_date_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
 
@@ -224,7 +224,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldAssociateEncountersToDummyLocation() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException {
+    public void shouldAssociateEncountersToDummyLocation() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/one_date_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
 
@@ -235,7 +235,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldAssociateEncountersToDummyEncounterType() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException {
+    public void shouldAssociateEncountersToDummyEncounterType() throws ConceptController.ConceptFetchException, XmlPullParserException, PatientController.PatientLoadException, ParseException, IOException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/one_date_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
 
@@ -246,7 +246,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldSaveAssociateCorrectEncounterForObservation() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, EncounterController.SaveEncounterException, ConceptController.ConceptSaveException {
+    public void shouldSaveAssociateCorrectEncounterForObservation() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, EncounterController.SaveEncounterException, ConceptController.ConceptSaveException, ObservationController.SaveObservationException {
         String xml = readFile("xml/one_date_observation.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
 
@@ -257,7 +257,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldSaveCreatedObservation() throws IOException, XmlPullParserException, ParseException, ObservationController.SaveObservationException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldSaveCreatedObservation() throws IOException, XmlPullParserException, ParseException, ObservationController.SaveObservationException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException {
         String xml = readFile("xml/histo_xml_payload.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
 
@@ -266,7 +266,7 @@ public class FormParserTest {
     }
 
     @Test
-    public void shouldAssociateCorrectPatient() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException {
+    public void shouldAssociateCorrectPatient() throws IOException, XmlPullParserException, ParseException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         String xml = readFile("xml/histo_xml_payload.xml");
         formParser = new FormParser(new MXParser(), patientController, conceptController, encounterController, observationController);
         Patient patient = new Patient();
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import com.muzima.testSupport.CustomTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(CustomTestRunner.class)
+public class FormUploadOutcomeStoreTest {
+    private FormUploadOutcomeStore outcomeStore;
+
+    @Before
+    public void setUp() throws Exception {
+        outcomeStore = new FormUploadOutcomeStore(Robolectric.application);
+        outcomeStore.clear();
+    }
+
+    @Test
+    public void shouldTreatARejectionAsPermanentOnlyAfterRepeatedRejections() throws Exception {
+        for (int i = 1; i < FormUploadOutcomeStore.MAX_REJECTIONS; i++) {
+            assertThat(outcomeStore.recordRejection("formUuid"), is(FormUploadOutcomeStore.RETRYABLE_FAILURE));
+        }
+
+        assertThat(outcomeStore.recordRejection("formUuid"), is(FormUploadOutcomeStore.PERMANENT_FAILURE));
+        assertThat(outcomeStore.getOutcome("formUuid"), is(FormUploadOutcomeStore.PERMANENT_FAILURE));
+    }
+
+    @Test
+    public void shouldStartCountingRejectionsAgainOnceTheOutcomeIsRemoved() throws Exception {
+        for (int i = 1; i < FormUploadOutcomeStore.MAX_REJECTIONS; i++) {
+            outcomeStore.recordRejection("formUuid");
+        }
+
+        outcomeStore.removeOutcomes(asList("formUuid"));
+
+        assertThat(outcomeStore.getOutcome("formUuid"), is(nullValue()));
+        assertThat(outcomeStore.recordRejection("formUuid"), is(FormUploadOutcomeStore.RETRYABLE_FAILURE));
+    }
+}
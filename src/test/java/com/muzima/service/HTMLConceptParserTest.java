@@ -14,6 +14,7 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.Scanner;
 
+import static java.util.Arrays.asList;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.matchers.JUnitMatchers.hasItem;
@@ -35,6 +36,48 @@ public class HTMLConceptParserTest {
         assertThat(concepts,hasItem("RETURN VISIT DATE"));
     }
 
+    @Test
+    public void shouldIgnoreConceptsOfDivs() {
+        List<String> concepts = new HTMLConceptParser().parse(
+                "<div data-concept='1^SECTION^99DCT'><input data-concept='2^WEIGHT (KG)^99DCT'/></div>");
+
+        assertThat(concepts, is(asList("WEIGHT (KG)")));
+    }
+
+    @Test
+    public void shouldSkipCommentsAndRawTextBodies() {
+        String html = "<!-- <input data-concept='1^COMMENTED^99DCT'> -->"
+                + "<script>if (a <input data-concept='2^SCRIPTED^99DCT'>) {}</script>"
+                + "<style>p { content: '<input data-concept=\"3^STYLED^99DCT\">'; }</style>"
+                + "<title><input data-concept='4^TITLED^99DCT'></title>"
+                + "<textarea data-concept='5^NOTES^99DCT'><input data-concept='6^TYPED^99DCT'></textarea>"
+                + "<input data-concept='7^HEIGHT (CM)^99DCT'>";
+
+        List<String> concepts = new HTMLConceptParser().parse(html);
+
+        assertThat(concepts.size(), is(2));
+        assertThat(concepts, hasItem("NOTES"));
+        assertThat(concepts, hasItem("HEIGHT (CM)"));
+    }
+
+    @Test
+    public void shouldReadUnquotedAndCaseInsensitiveAttributes() {
+        List<String> concepts = new HTMLConceptParser().parse(
+                "<INPUT type=text DATA-CONCEPT=1^WEIGHT^99DCT><select data-concept = \"2^TEMP^99DCT\" >");
+
+        assertThat(concepts.size(), is(2));
+        assertThat(concepts, hasItem("WEIGHT"));
+        assertThat(concepts, hasItem("TEMP"));
+    }
+
+    @Test
+    public void shouldDecodeEntitiesInConceptNames() {
+        List<String> concepts = new HTMLConceptParser().parse(
+                "<input data-concept='1^A &amp; B &#40;&#x41;&#x1F600;&#xD800;&bogus;&#99999999999;^99DCT'>");
+
+        assertThat(concepts, is(asList("A & B (A\uD83D\uDE00&#xD800;&bogus;&#99999999999;")));
+    }
+
     public String readFile() {
         InputStream fileStream = getClass().getClassLoader().getResourceAsStream("html/histo_form.html");
         Scanner s = new Scanner(fileStream).useDelimiter("\\A");
@@ -35,6 +35,8 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.matchers.JUnitMatchers.hasItem;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -91,7 +93,7 @@ public class HTMLFormObservationCreatorTest {
 
     @Test
     public void shouldParseJSONResponseAndCreateObservation() throws PatientController.PatientLoadException,
-            JSONException, ParseException, ConceptController.ConceptFetchException {
+            JSONException, ParseException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
 
         htmlFormObservationCreator.createAndPersistObservations(readFile(),formDataUuid);
         List<Observation> observations = htmlFormObservationCreator.getObservations();
@@ -100,7 +102,7 @@ public class HTMLFormObservationCreatorTest {
     }
 
     @Test
-    public void shouldCheckIfAllObservationsHaveEncounterObservationTimeAndPatient() throws Exception, PatientController.PatientLoadException, ConceptController.ConceptFetchException {
+    public void shouldCheckIfAllObservationsHaveEncounterObservationTimeAndPatient() throws Exception, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         htmlFormObservationCreator.createAndPersistObservations(readFile(),formDataUuid);
         List<Observation> observations = htmlFormObservationCreator.getObservations();
 
@@ -114,7 +116,7 @@ public class HTMLFormObservationCreatorTest {
     }
 
     @Test
-    public void shouldCheckIfEncounterHasMinimumAttributes() throws Exception, PatientController.PatientLoadException, ConceptController.ConceptFetchException {
+    public void shouldCheckIfEncounterHasMinimumAttributes() throws Exception, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         htmlFormObservationCreator.createAndPersistObservations(readFile(),formDataUuid);
         Encounter encounter = htmlFormObservationCreator.getObservations().get(0).getEncounter();
         assertThat(encounter.getEncounterDatetime(), notNullValue());
@@ -124,7 +126,7 @@ public class HTMLFormObservationCreatorTest {
     }
 
     @Test
-    public void shouldCheckIfAllObservationsHasEitherAFetchedConceptOrNewConcept() throws Exception, PatientController.PatientLoadException, ConceptController.ConceptFetchException {
+    public void shouldCheckIfAllObservationsHasEitherAFetchedConceptOrNewConcept() throws Exception, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         htmlFormObservationCreator.createAndPersistObservations(readFile(),formDataUuid);
         List<Observation> observations = htmlFormObservationCreator.getObservations();
 
@@ -138,7 +140,7 @@ public class HTMLFormObservationCreatorTest {
 
     @Test
     public void shouldCheckIfMultipleObservationsAreCreatedForMultiValuedConcepts() throws Exception, PatientController.PatientLoadException,
-            ConceptController.ConceptFetchException {
+            ConceptController.ConceptFetchException, ConceptController.ConceptSaveException, EncounterController.SaveEncounterException, ObservationController.SaveObservationException {
         htmlFormObservationCreator.createAndPersistObservations(readFile(),formDataUuid);
         List<Observation> observations = htmlFormObservationCreator.getObservations();
         List<Observation> multiValuedObservations = new ArrayList<Observation>();
@@ -154,7 +156,8 @@ public class HTMLFormObservationCreatorTest {
     }
 
     @Test
-    public void shouldVerifyAllObservationsAndRelatedEntitiesAreSaved() throws EncounterController.SaveEncounterException, ConceptController.ConceptSaveException, ObservationController.SaveObservationException {
+    public void shouldVerifyAllObservationsAndRelatedEntitiesAreSaved() throws Exception, EncounterController.SaveEncounterException, ConceptController.ConceptSaveException,
+            ObservationController.SaveObservationException, PatientController.PatientLoadException, ConceptController.ConceptFetchException {
         htmlFormObservationCreator.createAndPersistObservations(readFile(),formDataUuid);
 
         verify(encounterController).saveEncounters(encounterArgumentCaptor.capture());
@@ -169,6 +172,13 @@ public class HTMLFormObservationCreatorTest {
         assertThat(observationArgumentCaptor.getValue().size(), is(30));
     }
 
+    @Test(expected = ObservationController.SaveObservationException.class)
+    public void shouldPropagateFailureToSaveObservations() throws Exception, EncounterController.SaveEncounterException, ConceptController.ConceptSaveException,
+            ObservationController.SaveObservationException, PatientController.PatientLoadException, ConceptController.ConceptFetchException {
+        doThrow(new ObservationController.SaveObservationException(null)).when(observationController).saveObservations(anyList());
+
+        htmlFormObservationCreator.createAndPersistObservations(readFile(), formDataUuid);
+    }
 
     private boolean isMockConceptPresent(String mockConceptName, String mockConceptUUID,
                                          boolean conceptUuidAsserted, Observation observation) {
@@ -36,9 +36,11 @@ import org.junit.runner.RunWith;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 
 import static com.muzima.controller.ObservationController.ReplaceObservationException;
 import static com.muzima.utils.Constants.COHORT_PREFIX_PREF;
@@ -46,12 +48,15 @@ import static com.muzima.utils.Constants.DataSyncServiceConstants.SyncStatusCons
 import static java.util.Arrays.asList;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyList;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -71,6 +76,8 @@ public class MuzimaSyncServiceTest {
     private ConceptController conceptController;
     private EncounterController encounterController;
     private CohortPrefixPreferenceService prefixesPreferenceService;
+    private SyncPreferenceService syncPreferenceService;
+    private SyncJournal syncJournal;
 
     @Before
     public void setUp() throws Exception {
@@ -84,6 +91,8 @@ public class MuzimaSyncServiceTest {
         conceptController = mock(ConceptController.class);
         encounterController = mock(EncounterController.class);
         prefixesPreferenceService = mock(CohortPrefixPreferenceService.class);
+        syncPreferenceService = mock(SyncPreferenceService.class);
+        syncJournal = mock(SyncJournal.class);
 
         when(muzimaApplication.getMuzimaContext()).thenReturn(muzimaContext);
         when(muzimaApplication.getFormController()).thenReturn(formContorller);
@@ -93,7 +102,11 @@ public class MuzimaSyncServiceTest {
         when(muzimaApplication.getConceptController()).thenReturn(conceptController);
         when(muzimaApplication.getEncounterController()).thenReturn(encounterController);
         when(muzimaApplication.getCohortPrefixesPreferenceService()).thenReturn(prefixesPreferenceService);
+        when(muzimaApplication.getSyncPreferenceService()).thenReturn(syncPreferenceService);
+        when(muzimaApplication.getSyncJournal()).thenReturn(syncJournal);
         when(muzimaApplication.getSharedPreferences(anyString(), anyInt())).thenReturn(sharedPref);
+        when(syncPreferenceService.getDownloadThreads()).thenReturn(2);
+        when(syncPreferenceService.getDownloadAttempts()).thenReturn(1);
         muzimaSyncService = new MuzimaSyncService(muzimaApplication);
     }
 
@@ -369,6 +382,29 @@ public class MuzimaSyncServiceTest {
         assertThat(muzimaSyncService.downloadFormTemplates(formIds), is(result));
     }
 
+    @Test
+    public void downloadFormTemplates_shouldDownloadEachConceptMissingLocallyOnce() throws Exception, FormController.FormFetchException,
+            ConceptController.ConceptFetchException, ConceptController.ConceptDownloadException, ConceptController.ConceptSaveException {
+        FormTemplate vitals = new FormTemplate();
+        vitals.setHtml("<input data-concept=\"5089^WEIGHT (KG)^99DCT\"/><input data-concept=\"5090^HEIGHT (CM)^99DCT\"/>");
+        FormTemplate growth = new FormTemplate();
+        growth.setHtml("<input data-concept=\"5089^WEIGHT (KG)^99DCT\"/>");
+        String[] formIds = {};
+        when(formContorller.downloadFormTemplates(formIds)).thenReturn(asList(vitals, growth));
+        when(conceptController.getNamesMissingLocally(new HashSet<String>(asList("WEIGHT (KG)", "HEIGHT (CM)"))))
+                .thenReturn(asList("HEIGHT (CM)"));
+        Concept height = new Concept();
+        when(conceptController.downloadConceptsByName("HEIGHT (CM)")).thenReturn(asList(height));
+
+        int[] result = muzimaSyncService.downloadFormTemplates(formIds);
+
+        assertThat(result[0], is(SyncStatusConstants.SUCCESS));
+        assertThat(result[2], is(1));
+        verify(conceptController).downloadConceptsByName("HEIGHT (CM)");
+        verify(conceptController, never()).downloadConceptsByName("WEIGHT (KG)");
+        verify(conceptController).saveConcepts(asList(height));
+    }
+
     @Test
     public void downloadFormTemplates_shouldReturnDownloadErrorIfDownloadExceptionOccur() throws FormController.FormFetchException {
         String[] formUuids = {};
@@ -473,7 +509,7 @@ public class MuzimaSyncServiceTest {
     }
 
     @Test
-    public void downloadPatientsForCohorts_shouldDownloadAndReplaceCohortMembersAndPatients() throws Exception, CohortController.CohortDownloadException, CohortController.CohortReplaceException, PatientController.PatientSaveException {
+    public void downloadPatientsForCohorts_shouldDownloadAndReplaceCohortMembersAndPatients() throws Exception, CohortController.CohortDownloadException, CohortController.CohortReplaceException, CohortController.CohortSaveException, PatientController.PatientSaveException {
         String[] cohortUuids = new String[]{"uuid1", "uuid2"};
         List<CohortData> cohortDataList = new ArrayList<CohortData>() {{
             add(new CohortData() {{
@@ -486,18 +522,44 @@ public class MuzimaSyncServiceTest {
             }});
         }};
 
-        when(cohortController.downloadCohortData(cohortUuids)).thenReturn(cohortDataList);
+        when(cohortController.downloadCohortDataByUuid("uuid1")).thenReturn(cohortDataList.get(0));
+        when(cohortController.downloadCohortDataByUuid("uuid2")).thenReturn(cohortDataList.get(1));
 
         muzimaSyncService.downloadPatientsForCohorts(cohortUuids);
 
-        verify(cohortController).downloadCohortData(cohortUuids);
+        verify(cohortController).downloadCohortDataByUuid("uuid1");
+        verify(cohortController).downloadCohortDataByUuid("uuid2");
         verify(cohortController).addCohortMembers(cohortDataList.get(0).getCohortMembers());
         verify(cohortController).addCohortMembers(cohortDataList.get(1).getCohortMembers());
         verify(patientController).replacePatients(cohortDataList.get(0).getPatients());
         verify(patientController).replacePatients(cohortDataList.get(1).getPatients());
+        verify(cohortController).getSyncStartTime();
+        verify(cohortController).markCohortDataSynced("uuid1", null);
+        verify(cohortController).markCohortDataSynced("uuid2", null);
         verifyNoMoreInteractions(cohortController);
     }
 
+    @Test
+    public void downloadPatientsForCohorts_shouldMarkOnlyStoredCohortsSyncedAtTheTimeTheSyncStarted() throws Exception, CohortController.CohortDownloadException, CohortController.CohortSaveException, PatientController.PatientSaveException {
+        String[] cohortUuids = new String[]{"uuid1"};
+        CohortData cohortData = new CohortData() {{
+            addCohortMember(new CohortMember());
+            addPatient(new Patient());
+        }};
+        Date syncStartedAt = new Date(1000);
+        when(cohortController.getSyncStartTime()).thenReturn(syncStartedAt);
+        when(cohortController.downloadCohortDataByUuid("uuid1")).thenReturn(cohortData);
+        doThrow(new PatientController.PatientSaveException(null)).when(patientController).replacePatients(anyList());
+
+        assertThat(muzimaSyncService.downloadPatientsForCohorts(cohortUuids)[0], is(SyncStatusConstants.REPLACE_ERROR));
+        verify(cohortController, never()).markCohortDataSynced(anyString(), any(Date.class));
+        verify(syncJournal, never()).markCompleted(SyncJournal.cohortUnit("uuid1"));
+
+        reset(patientController);
+        muzimaSyncService.downloadPatientsForCohorts(cohortUuids);
+        verify(cohortController).markCohortDataSynced("uuid1", syncStartedAt);
+    }
+
     @Test
     public void shouldDeleteVoidedPatientsDuringPatientDownload() throws Exception, CohortController.CohortDownloadException, PatientController.PatientDeleteException {
         String[] cohortUuids = new String[]{"uuid1", "uuid2"};
@@ -515,13 +577,33 @@ public class MuzimaSyncServiceTest {
             }});
         }};
 
-        when(cohortController.downloadCohortData(cohortUuids)).thenReturn(cohortDataList);
+        when(cohortController.downloadCohortDataByUuid("uuid1")).thenReturn(cohortDataList.get(0));
+        when(cohortController.downloadCohortDataByUuid("uuid2")).thenReturn(cohortDataList.get(1));
 
         muzimaSyncService.downloadPatientsForCohorts(cohortUuids);
 
         verify(patientController).deletePatient(asList(voidedPatient));
     }
 
+    @Test
+    public void shouldSkipCohortsAlreadyCompletedInSyncJournal() throws Exception, CohortController.CohortDownloadException {
+        String[] cohortUuids = new String[]{"uuid1", "uuid2"};
+        final CohortData cohortData = new CohortData() {{
+            addCohortMember(new CohortMember());
+            addPatient(new Patient());
+        }};
+        when(syncJournal.isCompleted(SyncJournal.cohortUnit("uuid1"))).thenReturn(true);
+        when(cohortController.downloadCohortDataByUuid("uuid2")).thenReturn(cohortData);
+
+        int[] result = muzimaSyncService.downloadPatientsForCohorts(cohortUuids);
+
+        verify(cohortController, never()).downloadCohortDataByUuid("uuid1");
+        verify(cohortController).downloadCohortDataByUuid("uuid2");
+        verify(patientController).replacePatients(cohortData.getPatients());
+        verify(syncJournal).markCompleted(SyncJournal.cohortUnit("uuid2"));
+        assertThat(result[0], is(SyncStatusConstants.SUCCESS));
+    }
+
     @Test
     public void downloadPatientsForCohorts_shouldReturnSuccessStatusAndCohortAndPatinetCountIfDownloadIsSuccessful() throws Exception, CohortController.CohortDownloadException {
         String[] cohortUuids = new String[]{"uuid1", "uuid2"};
@@ -537,7 +619,8 @@ public class MuzimaSyncServiceTest {
             }});
         }};
 
-        when(cohortController.downloadCohortData(cohortUuids)).thenReturn(cohortDataList);
+        when(cohortController.downloadCohortDataByUuid("uuid1")).thenReturn(cohortDataList.get(0));
+        when(cohortController.downloadCohortDataByUuid("uuid2")).thenReturn(cohortDataList.get(1));
 
         int[] result = muzimaSyncService.downloadPatientsForCohorts(cohortUuids);
         assertThat(result[0], is(SyncStatusConstants.SUCCESS));
@@ -549,7 +632,7 @@ public class MuzimaSyncServiceTest {
     public void downloadPatientsForCohorts_shouldReturnDownloadErrorIfDownloadExceptionIsThrown() throws CohortController.CohortDownloadException {
         String[] cohortUuids = new String[]{"uuid1", "uuid2"};
 
-        doThrow(new CohortController.CohortDownloadException(null)).when(cohortController).downloadCohortData(cohortUuids);
+        doThrow(new CohortController.CohortDownloadException(null)).when(cohortController).downloadCohortDataByUuid(anyString());
 
         assertThat(muzimaSyncService.downloadPatientsForCohorts(cohortUuids)[0], is(SyncStatusConstants.DOWNLOAD_ERROR));
     }
@@ -569,7 +652,8 @@ public class MuzimaSyncServiceTest {
             }});
         }};
 
-        when(cohortController.downloadCohortData(cohortUuids)).thenReturn(cohortDataList);
+        when(cohortController.downloadCohortDataByUuid("uuid1")).thenReturn(cohortDataList.get(0));
+        when(cohortController.downloadCohortDataByUuid("uuid2")).thenReturn(cohortDataList.get(1));
         doThrow(new CohortController.CohortReplaceException(null)).when(cohortController).addCohortMembers(anyList());
 
         assertThat(muzimaSyncService.downloadPatientsForCohorts(cohortUuids)[0], is(SyncStatusConstants.REPLACE_ERROR));
@@ -590,7 +674,8 @@ public class MuzimaSyncServiceTest {
             }});
         }};
 
-        when(cohortController.downloadCohortData(cohortUuids)).thenReturn(cohortDataList);
+        when(cohortController.downloadCohortDataByUuid("uuid1")).thenReturn(cohortDataList.get(0));
+        when(cohortController.downloadCohortDataByUuid("uuid2")).thenReturn(cohortDataList.get(1));
         doThrow(new PatientController.PatientSaveException(null)).when(patientController).replacePatients(anyList());
 
         assertThat(muzimaSyncService.downloadPatientsForCohorts(cohortUuids)[0], is(SyncStatusConstants.REPLACE_ERROR));
@@ -627,9 +712,10 @@ public class MuzimaSyncServiceTest {
 
         muzimaSyncService.downloadObservationsForPatientsByCohortUUIDs(cohortUuids);
 
+        verify(observationController).getSyncStartTime();
         verify(observationController).downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids);
-        verify(observationController).deleteObservations(new ArrayList<Observation>());
         verify(observationController).replaceObservations(allObservations);
+        verify(observationController).markPatientsSynced(eq(patientUuids), any(Date.class));
         verifyNoMoreInteractions(observationController);
     }
 
@@ -700,9 +786,19 @@ public class MuzimaSyncServiceTest {
     }
 
     @Test
-    public void downloadObservationsForPatients_shouldReturnReplaceErrorWhenReplaceExceptionIsThrownForObservations() throws Exception, ReplaceObservationException {
-        String[] cohortUuids = new String[]{};
+    public void downloadObservationsForPatients_shouldReturnReplaceErrorWhenReplaceExceptionIsThrownForObservations() throws Exception, ReplaceObservationException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, ObservationController.DownloadObservationException {
+        String[] cohortUuids = new String[]{"uuid1"};
+        List<Patient> patients = asList(patient("patient1"));
+        List<Concept> conceptList = new ArrayList<Concept>(){{
+            add(new Concept(){{
+                setUuid("concept1");
+            }});
+        }};
 
+        when(patientController.getPatientsForCohorts(cohortUuids)).thenReturn(patients);
+        when(conceptController.getConcepts()).thenReturn(conceptList);
+        when(observationController.downloadObservationsByPatientUuidsAndConceptUuids(anyList(), anyList()))
+                .thenReturn(asList(new Observation()));
         doThrow(new ObservationController.ReplaceObservationException(null)).when(observationController).replaceObservations(anyList());
 
         int[] result = muzimaSyncService.downloadObservationsForPatientsByCohortUUIDs(cohortUuids);
@@ -730,9 +826,23 @@ public class MuzimaSyncServiceTest {
 
         verify(encounterController).downloadEncountersByPatientUuids(patientUuids);
         verify(encounterController).replaceEncounters(encounters);
+        verify(encounterController).markPatientsSynced(patientUuids, null);
         verifyNoMoreInteractions(observationController);
     }
 
+    @Test
+    public void shouldNotMarkPatientsSyncedWhenTheirEncountersCouldNotBeStored() throws Exception, EncounterController.DownloadEncounterException, EncounterController.ReplaceEncounterException {
+        List<String> patientUuids = asList("patientUuid1");
+        when(encounterController.downloadEncountersByPatientUuids(patientUuids)).thenReturn(asList(new Encounter()));
+        doThrow(encounterController.new ReplaceEncounterException(null)).when(encounterController).replaceEncounters(anyList());
+
+        int[] result = muzimaSyncService.downloadEncountersForPatientsByPatientUUIDs(patientUuids);
+
+        assertThat(result[0], is(SyncStatusConstants.REPLACE_ERROR));
+        verify(encounterController, never()).markPatientsSynced(anyList(), any(Date.class));
+        verify(syncJournal, never()).markCompleted(SyncJournal.encounterUnit(patientUuids));
+    }
+
     @Test
     public void shouldDeleteVoidedEncountersWhenDownloadingEncounters() throws EncounterController.DeleteEncounterException, EncounterController.DownloadEncounterException {
         String[] patientUuids = new String[]{"patientUuid1", "patientUuid2"};
@@ -838,6 +948,144 @@ public class MuzimaSyncServiceTest {
         verify(observationController).replaceObservations(asList(anObservation));
     }
 
+    @Test
+    public void downloadObservationsForPatients_shouldDownloadEveryPatientAndConceptSlice() throws Exception, ObservationController.DownloadObservationException, ConceptController.ConceptFetchException, ReplaceObservationException {
+        List<String> patientUuids = new ArrayList<String>();
+        for (int i = 0; i < 60; i++) {
+            patientUuids.add("patient" + i);
+        }
+        List<Concept> conceptList = new ArrayList<Concept>(){{
+            add(new Concept(){{
+                setUuid("concept1");
+            }});
+        }};
+        when(conceptController.getConcepts()).thenReturn(conceptList);
+        when(observationController.downloadObservationsByPatientUuidsAndConceptUuids(anyList(), anyList()))
+                .thenReturn(new ArrayList<Observation>());
+
+        int[] result = muzimaSyncService.downloadObservationsForPatientsByPatientUUIDs(patientUuids);
+
+        assertThat(result[0], is(SyncStatusConstants.SUCCESS));
+        verify(observationController).downloadObservationsByPatientUuidsAndConceptUuids(patientUuids.subList(0, 50), asList("concept1"));
+        verify(observationController).downloadObservationsByPatientUuidsAndConceptUuids(patientUuids.subList(50, 60), asList("concept1"));
+    }
+
+    @Test
+    public void downloadObservationsForPatients_shouldMarkPatientsSyncedOnlyAfterEveryConceptSlice() throws Exception, ObservationController.DownloadObservationException, ConceptController.ConceptFetchException {
+        List<String> patientUuids = asList("newPatient");
+        List<Concept> conceptList = new ArrayList<Concept>();
+        List<String> conceptUuids = new ArrayList<String>();
+        for (int i = 0; i < 60; i++) {
+            Concept concept = new Concept();
+            concept.setUuid("concept" + i);
+            conceptList.add(concept);
+            conceptUuids.add("concept" + i);
+        }
+        Date syncStartedAt = new Date(5000);
+        when(conceptController.getConcepts()).thenReturn(conceptList);
+        when(observationController.getSyncStartTime()).thenReturn(syncStartedAt);
+        when(observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids.subList(0, 50)))
+                .thenReturn(new ArrayList<Observation>());
+        when(observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids.subList(50, 60)))
+                .thenThrow(new ObservationController.DownloadObservationException(null));
+
+        int[] result = muzimaSyncService.downloadObservationsForPatientsByPatientUUIDs(patientUuids);
+
+        assertThat(result[0], is(SyncStatusConstants.DOWNLOAD_ERROR));
+        verify(observationController, never()).markPatientsSynced(anyList(), any(Date.class));
+
+        reset(observationController);
+        when(observationController.getSyncStartTime()).thenReturn(syncStartedAt);
+        when(observationController.downloadObservationsByPatientUuidsAndConceptUuids(anyList(), anyList()))
+                .thenReturn(new ArrayList<Observation>());
+
+        result = muzimaSyncService.downloadObservationsForPatientsByPatientUUIDs(patientUuids);
+
+        assertThat(result[0], is(SyncStatusConstants.SUCCESS));
+        verify(observationController).downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids.subList(0, 50));
+        verify(observationController).downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, conceptUuids.subList(50, 60));
+        verify(observationController, times(1)).markPatientsSynced(patientUuids, syncStartedAt);
+    }
+
+    @Test
+    public void downloadObservationsForPatients_shouldRetryFailedSliceDownload() throws Exception, ObservationController.DownloadObservationException, ConceptController.ConceptFetchException {
+        List<String> patientUuids = asList("patientUuid");
+        List<Concept> conceptList = new ArrayList<Concept>(){{
+            add(new Concept(){{
+                setUuid("concept1");
+            }});
+        }};
+        List<Observation> observations = asList(new Observation());
+        when(syncPreferenceService.getDownloadAttempts()).thenReturn(2);
+        when(conceptController.getConcepts()).thenReturn(conceptList);
+        when(observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, asList("concept1")))
+                .thenThrow(new ObservationController.DownloadObservationException(null))
+                .thenReturn(observations);
+
+        int[] result = muzimaSyncService.downloadObservationsForPatientsByPatientUUIDs(patientUuids);
+
+        assertThat(result[0], is(SyncStatusConstants.SUCCESS));
+        assertThat(result[1], is(1));
+        verify(observationController, times(2)).downloadObservationsByPatientUuidsAndConceptUuids(patientUuids, asList("concept1"));
+    }
+
+    @Test
+    public void downloadObservationsForPatients_shouldReplaceObservationsSliceBySlice() throws Exception, ObservationController.DownloadObservationException, ConceptController.ConceptFetchException, ReplaceObservationException {
+        List<String> patientUuids = new ArrayList<String>();
+        for (int i = 0; i < 60; i++) {
+            patientUuids.add("patient" + i);
+        }
+        List<Concept> conceptList = new ArrayList<Concept>(){{
+            add(new Concept(){{
+                setUuid("concept1");
+            }});
+        }};
+        List<Observation> firstSliceObservations = asList(new Observation());
+        List<Observation> secondSliceObservations = asList(new Observation(), new Observation());
+        when(conceptController.getConcepts()).thenReturn(conceptList);
+        when(observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids.subList(0, 50), asList("concept1")))
+                .thenReturn(firstSliceObservations);
+        when(observationController.downloadObservationsByPatientUuidsAndConceptUuids(patientUuids.subList(50, 60), asList("concept1")))
+                .thenReturn(secondSliceObservations);
+
+        int[] result = muzimaSyncService.downloadObservationsForPatientsByPatientUUIDs(patientUuids);
+
+        assertThat(result[1], is(3));
+        verify(observationController).replaceObservations(firstSliceObservations);
+        verify(observationController).replaceObservations(secondSliceObservations);
+    }
+
+    @Test
+    public void downloadObservationsForPatients_shouldReturnCancelledUntilTheCancelRequestIsCleared() throws Exception, ObservationController.DownloadObservationException, ConceptController.ConceptFetchException {
+        List<String> patientUuids = asList("patientUuid");
+        List<Concept> conceptList = new ArrayList<Concept>(){{
+            add(new Concept(){{
+                setUuid("concept1");
+            }});
+        }};
+        when(conceptController.getConcepts()).thenReturn(conceptList);
+        when(observationController.downloadObservationsByPatientUuidsAndConceptUuids(anyList(), anyList()))
+                .thenReturn(new ArrayList<Observation>());
+
+        muzimaSyncService.cancelSync();
+
+        assertThat(muzimaSyncService.downloadObservationsForPatientsByPatientUUIDs(patientUuids)[0], is(SyncStatusConstants.CANCELLED));
+        muzimaSyncService.clearCancelRequest();
+        assertThat(muzimaSyncService.downloadObservationsForPatientsByPatientUUIDs(patientUuids)[0], is(SyncStatusConstants.SUCCESS));
+    }
+
+    @Test
+    public void cancelSync_shouldAlsoCancelTheFormUpload() throws Exception, FormController.UploadFormDataException {
+        when(formContorller.uploadAllCompletedForms(null)).thenThrow(new FormController.UploadFormDataException(new CancellationException()));
+
+        muzimaSyncService.cancelSync();
+
+        verify(formContorller).cancelUploads();
+        assertThat(muzimaSyncService.uploadAllCompletedForms()[0], is(SyncStatusConstants.CANCELLED));
+        muzimaSyncService.clearCancelRequest();
+        verify(formContorller).clearUploadCancelRequest();
+    }
+
     private Patient patient(String patientUUID) {
         Patient patient1 = new Patient();
         patient1.setUuid(patientUUID);
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.service;
+
+import com.muzima.testSupport.CustomTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(CustomTestRunner.class)
+public class SntpServiceTest {
+    private static final long REFRESH_INTERVAL = 10000;
+
+    private SntpClient sntpClient;
+    private SyncPreferenceService syncPreferenceService;
+    private TestSntpService sntpService;
+
+    @Before
+    public void setUp() throws Exception {
+        sntpClient = mock(SntpClient.class);
+        syncPreferenceService = mock(SyncPreferenceService.class);
+        when(syncPreferenceService.getNtpRefreshIntervalInMillis()).thenReturn(REFRESH_INTERVAL);
+        sntpService = new TestSntpService();
+        sntpService.currentTimeMillis = 5000000;
+    }
+
+    @Test
+    public void shouldReturnDeviceClockAndQueryNtpInTheBackgroundOnTheFirstCall() throws Exception {
+        assertThat(sntpService.getLocalTime(), is(new Date(5000000)));
+        assertThat(sntpService.getLocalTime(), is(new Date(5000000)));
+
+        verify(sntpClient, never()).requestTime(anyString(), anyInt());
+        assertThat(sntpService.backgroundTasks.size(), is(1));
+    }
+
+    @Test
+    public void shouldKeepTheDeviceClockWhenTheFirstNtpQueryFails() throws Exception {
+        when(sntpClient.requestTime(anyString(), anyInt())).thenReturn(false);
+        sntpService.getLocalTime();
+
+        sntpService.backgroundTasks.remove(0).run();
+
+        assertThat(sntpService.getLocalTime(), is(new Date(5000000)));
+        assertThat(sntpService.backgroundTasks.size(), is(0));
+    }
+
+    @Test
+    public void shouldDeriveLaterTimesFromElapsedRealtimeOnceNtpAnswered() throws Exception {
+        when(sntpClient.requestTime(anyString(), anyInt())).thenReturn(true);
+        when(sntpClient.getNtpTime()).thenReturn(1000000L);
+        when(sntpClient.getNtpTimeReference()).thenReturn(100L);
+        sntpService.elapsedRealtime = 100;
+        sntpService.getLocalTime();
+        sntpService.backgroundTasks.remove(0).run();
+
+        assertThat(sntpService.getLocalTime(), is(new Date(1000000)));
+        sntpService.elapsedRealtime = 600;
+        assertThat(sntpService.getLocalTime(), is(new Date(1000500)));
+
+        verify(sntpClient, times(1)).requestTime(anyString(), anyInt());
+        assertThat(sntpService.backgroundTasks.size(), is(0));
+    }
+
+    @Test
+    public void shouldRefreshStaleReadingOnceInTheBackground() throws Exception {
+        when(sntpClient.requestTime(anyString(), anyInt())).thenReturn(true);
+        when(sntpClient.getNtpTime()).thenReturn(1000000L, 2000000L);
+        when(sntpClient.getNtpTimeReference()).thenReturn(0L, 20000L);
+        sntpService.getLocalTime();
+        sntpService.backgroundTasks.remove(0).run();
+
+        sntpService.elapsedRealtime = 20000;
+        assertThat(sntpService.getLocalTime(), is(new Date(1020000)));
+        sntpService.getLocalTime();
+        assertThat(sntpService.backgroundTasks.size(), is(1));
+
+        sntpService.backgroundTasks.remove(0).run();
+
+        assertThat(sntpService.getLocalTime(), is(new Date(2000000)));
+        verify(sntpClient, times(2)).requestTime(anyString(), anyInt());
+    }
+
+    @Test
+    public void shouldReadTheRefreshIntervalFromTheSyncPreferences() throws Exception {
+        when(sntpClient.requestTime(anyString(), anyInt())).thenReturn(true);
+        when(sntpClient.getNtpTime()).thenReturn(1000000L);
+        when(sntpClient.getNtpTimeReference()).thenReturn(0L);
+        when(syncPreferenceService.getNtpRefreshIntervalInMillis()).thenReturn(30000L);
+        sntpService.getLocalTime();
+        sntpService.backgroundTasks.remove(0).run();
+
+        sntpService.elapsedRealtime = 20000;
+        sntpService.getLocalTime();
+        assertThat(sntpService.backgroundTasks.size(), is(0));
+
+        sntpService.elapsedRealtime = 30001;
+        sntpService.getLocalTime();
+        assertThat(sntpService.backgroundTasks.size(), is(1));
+    }
+
+    @Test
+    public void shouldRetryFailedQueryAfterTheRetryInterval() throws Exception {
+        when(sntpClient.requestTime(anyString(), anyInt())).thenReturn(false, true);
+        when(sntpClient.getNtpTime()).thenReturn(1000000L);
+        when(sntpClient.getNtpTimeReference()).thenReturn(61000L);
+        sntpService.getLocalTime();
+        sntpService.backgroundTasks.remove(0).run();
+
+        sntpService.elapsedRealtime = 30000;
+        sntpService.getLocalTime();
+        assertThat(sntpService.backgroundTasks.size(), is(0));
+
+        sntpService.elapsedRealtime = 61000;
+        assertThat(sntpService.getLocalTime(), is(new Date(5000000)));
+        sntpService.backgroundTasks.remove(0).run();
+
+        assertThat(sntpService.getLocalTime(), is(new Date(1000000)));
+    }
+
+    private class TestSntpService extends SntpService {
+        private long elapsedRealtime;
+        private long currentTimeMillis;
+        private List<Runnable> backgroundTasks = new ArrayList<Runnable>();
+
+        private TestSntpService() {
+            super(syncPreferenceService);
+        }
+
+        @Override
+        protected SntpClient newSntpClient() {
+            return sntpClient;
+        }
+
+        @Override
+        protected long elapsedRealtime() {
+            return elapsedRealtime;
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return currentTimeMillis;
+        }
+
+        @Override
+        protected void runInBackground(Runnable runnable) {
+            backgroundTasks.add(runnable);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.utils;
+
+import com.muzima.testSupport.CustomTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(CustomTestRunner.class)
+public class BoundedParallelExecutorTest {
+
+    @Test
+    public void shouldReturnResultForEveryKey() throws Throwable {
+        BoundedParallelExecutor<Integer, Integer> executor = new BoundedParallelExecutor<Integer, Integer>(asList(1, 2, 3, 4, 5),
+                new BoundedParallelExecutor.Task<Integer, Integer>() {
+                    @Override
+                    public Integer execute(Integer key) {
+                        return key * 10;
+                    }
+                }, 2, 1, 0);
+
+        Set<Integer> results = new HashSet<Integer>();
+        while (executor.hasNext()) {
+            results.add(executor.next().getValue());
+        }
+
+        assertThat(results, is((Set<Integer>) new HashSet<Integer>(asList(10, 20, 30, 40, 50))));
+    }
+
+    @Test
+    public void shouldNotRunMoreTasksThanConcurrencyAtTheSameTime() throws Throwable {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        BoundedParallelExecutor<Integer, Integer> executor = new BoundedParallelExecutor<Integer, Integer>(asList(1, 2, 3, 4, 5, 6),
+                new BoundedParallelExecutor.Task<Integer, Integer>() {
+                    @Override
+                    public Integer execute(Integer key) throws Throwable {
+                        int nowRunning = running.incrementAndGet();
+                        synchronized (maxRunning) {
+                            maxRunning.set(Math.max(maxRunning.get(), nowRunning));
+                        }
+                        Thread.sleep(20);
+                        running.decrementAndGet();
+                        return key;
+                    }
+                }, 2, 1, 0);
+
+        while (executor.hasNext()) {
+            executor.next();
+        }
+
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void shouldRetryFailedTaskUntilItSucceeds() throws Throwable {
+        final AtomicInteger attempts = new AtomicInteger();
+        BoundedParallelExecutor<String, String> executor = new BoundedParallelExecutor<String, String>(asList("slice"),
+                new BoundedParallelExecutor.Task<String, String>() {
+                    @Override
+                    public String execute(String key) throws Throwable {
+                        if (attempts.incrementAndGet() < 3) {
+                            throw new Exception("Connection reset");
+                        }
+                        return key;
+                    }
+                }, 1, 3, 0);
+
+        assertThat(executor.next().getValue(), is("slice"));
+        assertThat(attempts.get(), is(3));
+    }
+
+    @Test
+    public void shouldFailWithTheTaskErrorWhenAllAttemptsFail() throws Throwable {
+        final Exception error = new Exception("Connection reset");
+        BoundedParallelExecutor<String, String> executor = new BoundedParallelExecutor<String, String>(asList("slice"),
+                new BoundedParallelExecutor.Task<String, String>() {
+                    @Override
+                    public String execute(String key) throws Throwable {
+                        throw error;
+                    }
+                }, 1, 2, 0);
+
+        try {
+            executor.next();
+            fail("Expected the task to fail");
+        } catch (BoundedParallelExecutor.TaskFailedException e) {
+            assertThat(e.getKey(), is((Object) "slice"));
+            assertThat(e.getCause(), is((Throwable) error));
+        }
+    }
+
+    @Test(expected = BoundedParallelExecutor.TaskFailedException.class)
+    public void shouldFailNextWhenCancelled() throws Throwable {
+        BoundedParallelExecutor<Integer, Integer> executor = new BoundedParallelExecutor<Integer, Integer>(asList(1, 2),
+                new BoundedParallelExecutor.Task<Integer, Integer>() {
+                    @Override
+                    public Integer execute(Integer key) {
+                        return key;
+                    }
+                }, 1, 1, 0);
+
+        executor.cancel();
+
+        assertTrue(executor.hasNext());
+        executor.next();
+    }
+
+    @Test
+    public void shouldFinishTasksInFlightButStartNoMoreWhenDrained() throws Throwable {
+        BoundedParallelExecutor<Integer, Integer> executor = new BoundedParallelExecutor<Integer, Integer>(asList(1, 2, 3, 4),
+                new BoundedParallelExecutor.Task<Integer, Integer>() {
+                    @Override
+                    public Integer execute(Integer key) {
+                        return key;
+                    }
+                }, 2, 1, 0);
+
+        assertTrue(executor.hasNext());
+        executor.drain();
+
+        Set<Integer> results = new HashSet<Integer>();
+        while (executor.hasNext()) {
+            results.add(executor.next().getValue());
+        }
+
+        assertThat(results, is((Set<Integer>) new HashSet<Integer>(asList(1, 2))));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.utils;
+
+import com.muzima.testSupport.CustomTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Prints the average cost of encrypting and decrypting a media file with and without the derived key cache.
+ * Not part of the test suite; run it on its own when changing EnDeCrypt.
+ */
+@RunWith(CustomTestRunner.class)
+public class EnDeCryptBenchmark {
+    private static final String PASSWORD = "this-is-supposed-to-be-a-secure-key";
+    private static final int FILES = 20;
+    private static final int FILE_SIZE = 256 * 1024;
+
+    @Test
+    public void printPerFileCryptoCost() throws IOException {
+        File[] files = createFiles();
+
+        long start = System.nanoTime();
+        for (File file : files) {
+            EnDeCrypt.clearKeys();
+            EnDeCrypt.encrypt(file, PASSWORD);
+            EnDeCrypt.clearKeys();
+            EnDeCrypt.decrypt(file, PASSWORD);
+        }
+        long uncached = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (File file : files) {
+            EnDeCrypt.encrypt(file, PASSWORD);
+            EnDeCrypt.decrypt(file, PASSWORD);
+        }
+        long cached = System.nanoTime() - start;
+
+        System.out.println(String.format("Encrypt and decrypt of a %d KB file: %.2f ms deriving keys per operation, %.2f ms with cached keys",
+                FILE_SIZE / 1024, uncached / 1e6 / FILES, cached / 1e6 / FILES));
+    }
+
+    private File[] createFiles() throws IOException {
+        byte[] content = new byte[FILE_SIZE];
+        new Random(FILE_SIZE).nextBytes(content);
+        File[] files = new File[FILES];
+        for (int i = 0; i < FILES; i++) {
+            files[i] = File.createTempFile("benchmark", ".bin");
+            files[i].deleteOnExit();
+            FileOutputStream outputStream = new FileOutputStream(files[i]);
+            try {
+                outputStream.write(content);
+            } finally {
+                outputStream.close();
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.utils;
+
+import android.util.Base64;
+import com.muzima.testSupport.CustomTestRunner;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(CustomTestRunner.class)
+public class EnDeCryptTest {
+    private static final String PASSWORD = "a-password";
+
+    @Test
+    public void shouldDecryptWhatItEncrypts() throws Exception {
+        byte[] content = randomBytes(100 * 1024 + 7);
+        File file = writeTempFile(content);
+
+        EnDeCrypt.encrypt(file, PASSWORD);
+        byte[] encrypted = readFile(file);
+        assertThat(new String(encrypted, 0, 3, "US-ASCII"), is("MZE"));
+        assertThat(Arrays.equals(encrypted, content), is(false));
+
+        EnDeCrypt.decrypt(file, PASSWORD);
+        assertThat(Arrays.equals(readFile(file), content), is(true));
+    }
+
+    @Test
+    public void shouldShareTheSessionSaltButNotTheIvAcrossFiles() throws Exception {
+        File aFile = writeTempFile(randomBytes(1024));
+        File anotherFile = writeTempFile(randomBytes(2048));
+
+        EnDeCrypt.encrypt(aFile, PASSWORD);
+        EnDeCrypt.encrypt(anotherFile, PASSWORD);
+
+        byte[] aHeader = Arrays.copyOfRange(readFile(aFile), 4, 28);
+        byte[] anotherHeader = Arrays.copyOfRange(readFile(anotherFile), 4, 28);
+        assertThat(Arrays.equals(Arrays.copyOfRange(aHeader, 0, 8), Arrays.copyOfRange(anotherHeader, 0, 8)), is(true));
+        assertThat(Arrays.equals(Arrays.copyOfRange(aHeader, 8, 24), Arrays.copyOfRange(anotherHeader, 8, 24)), is(false));
+    }
+
+    @Test
+    public void shouldDecryptLegacyBase64Format() throws Exception {
+        byte[] content = randomBytes(4 * 1024);
+        byte[] salt = randomBytes(8);
+        byte[] iv = randomBytes(16);
+        PBEKeySpec keySpec = new PBEKeySpec(PASSWORD.toCharArray(), salt, 1000, 256);
+        byte[] keyBytes = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1").generateSecret(keySpec).getEncoded();
+        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(keyBytes, "AES"), new IvParameterSpec(iv));
+        String legacyCipherText = Base64.encodeToString(salt, Base64.NO_WRAP) + "]"
+                + Base64.encodeToString(iv, Base64.NO_WRAP) + "]"
+                + Base64.encodeToString(cipher.doFinal(content), Base64.NO_WRAP);
+        File file = writeTempFile(legacyCipherText.getBytes("US-ASCII"));
+
+        InputStream plainStream = EnDeCrypt.openDecryptedStream(file, PASSWORD);
+        try {
+            assertThat(Arrays.equals(readStream(plainStream), content), is(true));
+        } finally {
+            plainStream.close();
+        }
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private File writeTempFile(byte[] content) throws IOException {
+        File file = File.createTempFile("media", ".bin");
+        file.deleteOnExit();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        try {
+            outputStream.write(content);
+        } finally {
+            outputStream.close();
+        }
+        return file;
+    }
+
+    private byte[] readFile(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return readStream(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private byte[] readStream(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
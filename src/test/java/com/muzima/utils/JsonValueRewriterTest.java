@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.utils;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class JsonValueRewriterTest {
+    private static final JsonValueRewriter.ValueReplacer MEDIA_REPLACER = new JsonValueRewriter.ValueReplacer() {
+        @Override
+        public String replace(String value) {
+            return value.contains("/muzima/media/") ? "base64 of " + value : null;
+        }
+    };
+
+    @Test
+    public void shouldReplaceMatchingMemberValuesAtEveryLevel() {
+        String json = "{\"image\":\"/sdcard/muzima/media/a.jpg\",\"section\":{\"rows\":[{\"audio\" : \"/sdcard/muzima/media/b.3gp\"}]}}";
+
+        String rewritten = JsonValueRewriter.rewrite(json, MEDIA_REPLACER);
+
+        assertThat(rewritten, is("{\"image\":\"base64 of /sdcard/muzima/media/a.jpg\",\"section\":{\"rows\":[{\"audio\" : \"base64 of /sdcard/muzima/media/b.3gp\"}]}}"));
+    }
+
+    @Test
+    public void shouldUnescapeValuesBeforeOfferingThem() {
+        String json = "{\"image\":\"\\/sdcard\\/muzima\\/media\\/a.jpg\"}";
+
+        assertThat(JsonValueRewriter.rewrite(json, MEDIA_REPLACER), is("{\"image\":\"base64 of /sdcard/muzima/media/a.jpg\"}"));
+    }
+
+    @Test
+    public void shouldNotOfferKeysOrArrayElements() {
+        String json = "{\"/muzima/media/\":[\"/sdcard/muzima/media/a.jpg\"],\"note\":\"say \\\"hi\\\"\"}";
+
+        assertThat(JsonValueRewriter.rewrite(json, MEDIA_REPLACER), is(sameInstance(json)));
+    }
+
+    @Test
+    public void shouldEscapeReplacements() {
+        JsonValueRewriter.ValueReplacer quoting = new JsonValueRewriter.ValueReplacer() {
+            @Override
+            public String replace(String value) {
+                return "\"" + value + "\"\n";
+            }
+        };
+
+        assertThat(JsonValueRewriter.rewrite("{\"a\":\"b\"}", quoting), is("{\"a\":\"\\\"b\\\"\\n\"}"));
+    }
+}
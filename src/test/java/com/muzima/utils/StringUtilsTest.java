@@ -27,4 +27,18 @@ public class StringUtilsTest {
         String commaSeparatedValues = StringUtils.getCommaSeparatedStringFromList(listOfStrings);
         assertThat(commaSeparatedValues, is("Patient,Registration,New Tag"));
     }
+
+    @Test
+    public void getField_shouldReturnTheFieldAtTheGivenIndex() {
+        assertThat(StringUtils.getField("5089^WEIGHT (KG)^99DCT", '^', 1), is("WEIGHT (KG)"));
+        assertThat(StringUtils.getField("5089^WEIGHT (KG)", '^', 1), is("WEIGHT (KG)"));
+        assertThat(StringUtils.getField("^WEIGHT (KG)", '^', 1), is("WEIGHT (KG)"));
+    }
+
+    @Test
+    public void getField_shouldReturnEmptyStringWhenThereIsNoSuchField() {
+        assertThat(StringUtils.getField("5089", '^', 1), is(""));
+        assertThat(StringUtils.getField("5089^", '^', 1), is(""));
+        assertThat(StringUtils.getField(null, '^', 1), is(""));
+    }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2014. The Trustees of Indiana University.
+ *
+ * This version of the code is licensed under the MPL 2.0 Open Source license with additional
+ * healthcare disclaimer. If the user is an entity intending to commercialize any application
+ * that uses this code in a for-profit venture, please contact the copyright holder.
+ */
+
+package com.muzima.utils;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class VoidedPartitionTest {
+    private static final VoidedPartition.VoidedCheck<String> VOIDED_WHEN_PREFIXED = new VoidedPartition.VoidedCheck<String>() {
+        @Override
+        public boolean isVoided(String record) {
+            return record.startsWith("voided");
+        }
+    };
+
+    @Test
+    public void shouldSplitRecordsIntoLiveAndVoidedKeepingTheirOrder() {
+        VoidedPartition<String> partition = new VoidedPartition<String>(
+                asList("first", "voided first", "second", "voided second"), VOIDED_WHEN_PREFIXED);
+
+        assertThat(partition.getLive(), is(asList("first", "second")));
+        assertThat(partition.getVoided(), is(asList("voided first", "voided second")));
+    }
+
+    @Test
+    public void shouldReturnEmptyPartitionsForNoRecords() {
+        VoidedPartition<String> partition = new VoidedPartition<String>(Collections.<String>emptyList(), VOIDED_WHEN_PREFIXED);
+
+        assertThat(partition.getLive().isEmpty(), is(true));
+        assertThat(partition.getVoided().isEmpty(), is(true));
+    }
+}
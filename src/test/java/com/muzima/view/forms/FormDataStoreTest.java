@@ -11,21 +11,15 @@ package com.muzima.view.forms;
 import com.muzima.MuzimaApplication;
 import com.muzima.api.model.FormData;
 import com.muzima.api.model.Patient;
-import com.muzima.controller.ConceptController;
 import com.muzima.controller.FormController;
 import com.muzima.controller.ObservationController;
-import com.muzima.controller.PatientController;
-import com.muzima.service.FormParser;
+import com.muzima.service.FormObservationQueue;
 import com.muzima.testSupport.CustomTestRunner;
 import com.muzima.utils.Constants;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
-import org.xmlpull.v1.XmlPullParserException;
-
-import java.io.IOException;
-import java.text.ParseException;
 
 import static com.muzima.utils.Constants.FORM_DISCRIMINATOR_REGISTRATION;
 import static org.hamcrest.core.Is.is;
@@ -47,7 +41,7 @@ public class FormDataStoreTest {
     private FormDataStore store;
 
     @Mock
-    private FormParser formParser;
+    private FormObservationQueue formObservationQueue;
     private MuzimaApplication muzimaApplication;
     private ObservationController obsController;
 
@@ -62,13 +56,9 @@ public class FormDataStoreTest {
         muzimaApplication = mock(MuzimaApplication.class);
         obsController = mock(ObservationController.class);
         when(muzimaApplication.getObservationController()).thenReturn(obsController);
+        when(muzimaApplication.getFormObservationQueue()).thenReturn(formObservationQueue);
         when(activity.getApplicationContext()).thenReturn(muzimaApplication);
-        store = new FormDataStore(activity, controller, formData){
-            @Override
-            public FormParser getFormParser() {
-                return formParser;
-            }
-        };
+        store = new FormDataStore(activity, controller, formData);
     }
 
     @Test
@@ -107,17 +97,36 @@ public class FormDataStoreTest {
     }
 
     @Test
-    public void shouldParseObservationsInProvidedPayloadWhenSavingAsFinal() throws ConceptController.ConceptSaveException, ParseException, XmlPullParserException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, IOException {
-        String xmlPayload = "xmldata";
-        store.save("data", xmlPayload, Constants.STATUS_COMPLETE);
+    public void shouldQueueObservationExtractionAfterSavingAsFinal() throws Exception, FormController.FormDataSaveException {
+        formData.setUuid("formDataUuid");
+        store.save("data", "xmldata", Constants.STATUS_COMPLETE);
 
-        verify(formParser).parseAndSaveObservations(xmlPayload,formData.getUuid());
+        verify(controller).saveFormData(formData);
+        verify(formObservationQueue).enqueue("formDataUuid");
+        verify(activity).finish();
     }
 
     @Test
-    public void shouldNotParseObservationsForIncompleteForm() throws ConceptController.ConceptSaveException, ParseException, XmlPullParserException, PatientController.PatientLoadException, ConceptController.ConceptFetchException, IOException {
+    public void shouldNotQueueObservationExtractionForIncompleteForm() throws Exception {
         store.save("data", "xmldata", Constants.STATUS_INCOMPLETE);
 
-        verify(formParser, times(0)).parseAndSaveObservations(anyString(),anyString());
+        verify(formObservationQueue, times(0)).enqueue(anyString());
+    }
+
+    @Test
+    public void shouldNotQueueObservationExtractionWhenTheFormCouldNotBeSaved() throws Exception, FormController.FormDataSaveException {
+        doThrow(new FormController.FormDataSaveException(null)).when(controller).saveFormData(formData);
+        store.save("data", "xmldata", Constants.STATUS_COMPLETE);
+
+        verify(formObservationQueue, times(0)).enqueue(anyString());
+    }
+
+    @Test
+    public void shouldIgnoreASecondSubmitWhileTheFormIsClosing() throws Exception, FormController.FormDataSaveException {
+        when(activity.isFinishing()).thenReturn(true);
+        store.save("data", "xmldata", Constants.STATUS_COMPLETE);
+
+        verify(controller, times(0)).saveFormData(formData);
+        verify(formObservationQueue, times(0)).enqueue(anyString());
     }
 }
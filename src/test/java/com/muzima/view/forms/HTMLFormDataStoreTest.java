@@ -8,9 +8,10 @@
 
 package com.muzima.view.forms;
 
+import com.muzima.MuzimaApplication;
 import com.muzima.api.model.FormData;
 import com.muzima.controller.FormController;
-import com.muzima.service.HTMLFormObservationCreator;
+import com.muzima.service.FormObservationQueue;
 import com.muzima.testSupport.CustomTestRunner;
 import com.muzima.utils.Constants;
 import org.junit.Before;
@@ -20,6 +21,7 @@ import org.junit.runner.RunWith;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @RunWith(CustomTestRunner.class)
 public class HTMLFormDataStoreTest {
@@ -27,7 +29,7 @@ public class HTMLFormDataStoreTest {
     private FormController formController;
     private HTMLFormWebViewActivity formWebViewActivity;
     private FormData formData;
-    private HTMLFormObservationCreator htmlFormObservationCreator;
+    private FormObservationQueue formObservationQueue;
     private HTMLFormDataStore htmlFormDataStore;
 
     @Before
@@ -35,26 +37,27 @@ public class HTMLFormDataStoreTest {
         formController = mock(FormController.class);
         formWebViewActivity = mock(HTMLFormWebViewActivity.class);
         formData = mock(FormData.class);
-        htmlFormObservationCreator = mock(HTMLFormObservationCreator.class);
-        htmlFormDataStore = new HTMLFormDataStore(formWebViewActivity, formController, formData){
-            @Override
-            public HTMLFormObservationCreator getFormParser(){
-                return htmlFormObservationCreator;
-            }
-        };
+        when(formData.getUuid()).thenReturn("formDataUuid");
+        formObservationQueue = mock(FormObservationQueue.class);
+        MuzimaApplication muzimaApplication = mock(MuzimaApplication.class);
+        when(muzimaApplication.getFormObservationQueue()).thenReturn(formObservationQueue);
+        when(formWebViewActivity.getApplicationContext()).thenReturn(muzimaApplication);
+        htmlFormDataStore = new HTMLFormDataStore(formWebViewActivity, formController, formData);
     }
 
     @Test
-    public void shouldParsedPayloadForCompletedForm() {
+    public void shouldQueueObservationExtractionForCompletedForm() throws Exception, FormController.FormDataSaveException {
         String jsonPayLoad = "jsonPayLoad";
         htmlFormDataStore.saveHTML(jsonPayLoad, Constants.STATUS_COMPLETE);
-        verify(htmlFormObservationCreator).createAndPersistObservations(jsonPayLoad,formData.getUuid());
+        verify(formController).saveFormData(formData);
+        verify(formObservationQueue).enqueue("formDataUuid");
+        verify(formWebViewActivity).finish();
     }
 
     @Test
-    public void shouldNotParseIncompletedForm() {
+    public void shouldNotQueueObservationExtractionForIncompletedForm() {
         String jsonPayLoad = "jsonPayLoad";
         htmlFormDataStore.saveHTML(jsonPayLoad, Constants.STATUS_INCOMPLETE);
-        verify(htmlFormObservationCreator, times(0)).createAndPersistObservations(jsonPayLoad,formData.getUuid());
+        verify(formObservationQueue, times(0)).enqueue("formDataUuid");
     }
 }